@@ -0,0 +1,2 @@
+#!/bin/bash
+java -cp "$( dirname "${BASH_SOURCE[0]}" )/kafka-backup.jar" de.azapps.kafkabackup.standalone.StandaloneBackup "$@"
@@ -0,0 +1,99 @@
+package de.azapps.kafkabackup.common.partition;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the heap retained by many open partition writers, e.g. in a Connect worker backing up thousands of
+ * partitions. Every writer appends some batches and stays open. The retained heap per partition is reported as the
+ * secondary result `retainedBytesPerPartition`.
+ * <p>
+ * Every open partition keeps four files open, so make sure that `ulimit -n` is high enough.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class PartitionWriterHeapBenchmark {
+    private static final String TOPIC = "benchmark-topic";
+    private static final byte[] KEY = "key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE = "{\"id\": 1, \"name\": \"value\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"10000"})
+    public int partitions;
+
+    @Param({"5"})
+    public int batches;
+
+    @Param({"500"})
+    public int batchSize;
+
+    private Path topicDir;
+    private List<PartitionWriter> writers;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapCounters {
+        public long retainedBytesPerPartition;
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        topicDir = Files.createTempDirectory("partition-writer-heap-benchmark");
+        writers = new ArrayList<>(partitions);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        for (PartitionWriter writer : writers) {
+            writer.close();
+        }
+        writers = null;
+        try (Stream<Path> files = Files.walk(topicDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void openPartitions(HeapCounters counters) throws Exception {
+        long before = usedHeap();
+        long offset = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            writers.add(new PartitionWriter(TOPIC, partition, Paths.get(topicDir.toString(), TOPIC), Integer.MAX_VALUE));
+        }
+        for (int batch = 0; batch < batches; batch++) {
+            for (int partition = 0; partition < partitions; partition++) {
+                List<Record> records = new ArrayList<>(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    records.add(new Record(TOPIC, partition, KEY, VALUE, offset + i));
+                }
+                writers.get(partition).appendBatch(records);
+            }
+            offset += batchSize;
+        }
+        counters.retainedBytesPerPartition = (usedHeap() - before) / partitions;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,111 @@
+package de.azapps.kafkabackup.common.record;
+
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding records from a stream with decoding them directly from a (mapped) {@link ByteBuffer}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordSerdeBenchmark {
+    private static final String TOPIC = "benchmark-topic";
+    private static final int PARTITION = 0;
+
+    @Param({"10000"})
+    public int recordCount;
+
+    @Param({"10", "100", "1000"})
+    public int valueSize;
+
+    private Path file;
+    private byte[] serialized;
+    private ByteBuffer heapBuffer;
+    private FileChannel channel;
+    private MappedByteBuffer mappedBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int i = 0; i < recordCount; i++) {
+            byte[] key = ("key-" + i).getBytes(StandardCharsets.UTF_8);
+            byte[] value = new byte[valueSize];
+            random.nextBytes(value);
+            RecordHeaders headers = new RecordHeaders();
+            headers.add("header", ("value-" + i).getBytes(StandardCharsets.UTF_8));
+            Record record = new Record(TOPIC, PARTITION, key, value, i, System.currentTimeMillis(), TimestampType.CREATE_TIME, headers);
+            RecordSerde.write(outputStream, record);
+        }
+        serialized = outputStream.toByteArray();
+        heapBuffer = ByteBuffer.wrap(serialized);
+        file = Files.createTempFile("record-serde-benchmark", ".bin");
+        Files.write(file, serialized);
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void readFromByteArrayStream(Blackhole blackhole) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(serialized);
+        for (int i = 0; i < recordCount; i++) {
+            blackhole.consume(RecordSerde.read(TOPIC, PARTITION, inputStream));
+        }
+    }
+
+    @Benchmark
+    public void readFromBufferedFileStream(Blackhole blackhole) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file.toFile()))) {
+            for (int i = 0; i < recordCount; i++) {
+                blackhole.consume(RecordSerde.read(TOPIC, PARTITION, inputStream));
+            }
+        }
+    }
+
+    @Benchmark
+    public void readFromHeapBuffer(Blackhole blackhole) {
+        ByteBuffer buffer = heapBuffer.duplicate();
+        for (int i = 0; i < recordCount; i++) {
+            blackhole.consume(RecordSerde.read(TOPIC, PARTITION, buffer));
+        }
+    }
+
+    @Benchmark
+    public void readFromMappedBuffer(Blackhole blackhole) {
+        ByteBuffer buffer = mappedBuffer.duplicate();
+        for (int i = 0; i < recordCount; i++) {
+            blackhole.consume(RecordSerde.read(TOPIC, PARTITION, buffer));
+        }
+    }
+
+    @Benchmark
+    public void skipInMappedBuffer(Blackhole blackhole) {
+        ByteBuffer buffer = mappedBuffer.duplicate();
+        for (int i = 0; i < recordCount; i++) {
+            blackhole.consume(RecordSerde.skip(buffer));
+        }
+    }
+}
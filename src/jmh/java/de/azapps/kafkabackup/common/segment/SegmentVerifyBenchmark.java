@@ -0,0 +1,95 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares verifying the checksums of a segment with reading all records of it. Divide the size of the segment
+ * (printed during the setup) by the time per operation to get the throughput.
+ * <p>
+ * Uncompressed segments without kafkaRecordBatches are V1 segments, which have no checksums to verify.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentVerifyBenchmark {
+    private static final String TOPIC = "benchmark-topic";
+    private static final int PARTITION = 0;
+
+    @Param({"256"})
+    public int segmentSizeMiB;
+
+    @Param({"none", "lz4"})
+    public String compressionType;
+
+    @Param({"false", "true"})
+    public boolean kafkaRecordBatches;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("segment-verify-benchmark");
+        Random random = new Random(42);
+        byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, PARTITION, 0, directory,
+                CompressionType.forName(compressionType), 0, kafkaRecordBatches);
+        long offset = 0;
+        while (segmentWriter.size() < segmentSizeMiB * 1024L * 1024L) {
+            List<Record> batch = new ArrayList<>(1000);
+            for (int i = 0; i < 1000; i++) {
+                // Half random, half repetitive so that the blocks are compressible
+                byte[] value = new byte[1000];
+                random.nextBytes(value);
+                for (int j = 0; j < value.length; j += 2) {
+                    value[j] = 'x';
+                }
+                batch.add(new Record(TOPIC, PARTITION, key, value, offset, offset, TimestampType.CREATE_TIME));
+                offset++;
+            }
+            segmentWriter.appendBatch(batch);
+        }
+        segmentWriter.close();
+        System.out.println("Segment size: " + Files.size(SegmentUtils.recordsFile(directory, PARTITION, 0)) + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void verify(Blackhole blackhole) throws Exception {
+        SegmentReader segmentReader = new SegmentReader(TOPIC, PARTITION, directory, 0);
+        blackhole.consume(segmentReader.verify());
+        segmentReader.close();
+    }
+
+    @Benchmark
+    public void readFully(Blackhole blackhole) throws Exception {
+        SegmentReader segmentReader = new SegmentReader(TOPIC, PARTITION, directory, 0);
+        while (segmentReader.hasMoreData()) {
+            blackhole.consume(segmentReader.read());
+        }
+        segmentReader.close();
+    }
+}
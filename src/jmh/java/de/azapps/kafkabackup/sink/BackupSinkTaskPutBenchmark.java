@@ -0,0 +1,96 @@
+package de.azapps.kafkabackup.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the allocations of {@link BackupSinkTask#put}. Run it with `-prof gc`: every operation puts `batchSize`
+ * records spread over `partitions` partitions. As the records need increasing offsets, they are created in the
+ * benchmark method. `createRecords` measures only that, so the allocations of put() per record are
+ * (gc.alloc.rate.norm(put) - gc.alloc.rate.norm(createRecords)) / batchSize.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackupSinkTaskPutBenchmark {
+    private static final String TOPIC = "benchmark-topic";
+    private static final byte[] KEY = "key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE = "{\"id\": 1, \"name\": \"value\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"8"})
+    public int partitions;
+
+    @Param({"500"})
+    public int batchSize;
+
+    private Path targetDir;
+    private BackupSinkTask task;
+    private List<SinkRecord> records;
+    private long nextOffset = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        targetDir = Files.createTempDirectory("backup-sink-task-put-benchmark");
+        Map<String, String> props = new HashMap<>();
+        props.put(BackupSinkConfig.CLUSTER_BOOTSTRAP_SERVERS, "");
+        props.put(BackupSinkConfig.MAX_SEGMENT_SIZE, String.valueOf(1024 * 1024 * 1024));
+        props.put(BackupSinkConfig.TARGET_DIR_CONFIG, targetDir.toString());
+        task = new BackupSinkTask();
+        task.initialize(new MockSinkTaskContext());
+        task.start(props, new MockOffsetSink(null, null), null, n -> {});
+        List<TopicPartition> topicPartitions = new ArrayList<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            topicPartitions.add(new TopicPartition(TOPIC, partition));
+        }
+        task.open(topicPartitions);
+        records = new ArrayList<>(batchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        task.stop();
+        try (Stream<Path> files = Files.walk(targetDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<SinkRecord> createRecords() {
+        return nextRecords();
+    }
+
+    @Benchmark
+    public void put() {
+        task.put(nextRecords());
+    }
+
+    private List<SinkRecord> nextRecords() {
+        records.clear();
+        for (int i = 0; i < batchSize; i++) {
+            // Every partition gets consecutive offsets
+            long offset = nextOffset + i / partitions;
+            records.add(new SinkRecord(TOPIC, i % partitions, Schema.OPTIONAL_BYTES_SCHEMA, KEY, Schema.OPTIONAL_BYTES_SCHEMA, VALUE,
+                    offset, offset, TimestampType.CREATE_TIME));
+        }
+        nextOffset += (batchSize + partitions - 1) / partitions;
+        return records;
+    }
+}
@@ -2,6 +2,9 @@ package de.azapps.kafkabackup.cli;
 
 import de.azapps.kafkabackup.cli.formatters.*;
 import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.segment.SegmentIndex;
+import de.azapps.kafkabackup.common.segment.SegmentReader;
+import de.azapps.kafkabackup.common.segment.SegmentUtils;
 import de.azapps.kafkabackup.common.segment.UnverifiedSegmentReader;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -10,6 +13,7 @@ import org.apache.kafka.common.utils.Exit;
 import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.stream.Stream;
@@ -23,7 +27,9 @@ public class SegmentCLI {
     private static final String ARG_OFFSET_HELP = "The offset of the message to display";
     private static final String CMD_LIST_HELP = "Lists all records in the segment. Just counting the value length – not displaying it.";
     private static final String CMD_SHOW_HELP = "Shows a specific record in the segment. Displays key and value";
-    private static final String[] COMMANDS = {CMD_LIST, CMD_SHOW};
+    private static final String CMD_VERIFY = "verify";
+    private static final String CMD_VERIFY_HELP = "Verifies the checksums of all indexed blocks in the segment without decoding the records";
+    private static final String[] COMMANDS = {CMD_LIST, CMD_SHOW, CMD_VERIFY};
     private static final String ARG_KEY_FORMAT = "key-formatter";
     private static final String ARG_KEY_FORMAT_HELP = "Which formatter to use to display the key (default: StringFormatter)";
     private static final String ARG_VALUE_FORMAT = "value-formatter";
@@ -33,11 +39,13 @@ public class SegmentCLI {
         /*
         cli --list --segment [file]
         cli --show --segment [file] --offset 0
+        cli --verify --segment [file]
          */
         final OptionParser optionParser = new OptionParser();
         optionParser.accepts(ARG_SEGMENT, ARG_SEGMENT_HELP).withRequiredArg().ofType(String.class);
         optionParser.accepts(CMD_LIST, CMD_LIST_HELP);
         optionParser.accepts(CMD_SHOW, CMD_SHOW_HELP);
+        optionParser.accepts(CMD_VERIFY, CMD_VERIFY_HELP);
         optionParser.accepts(ARG_OFFSET, ARG_OFFSET_HELP).requiredIf(CMD_SHOW).withRequiredArg().ofType(Long.class);
         optionParser.accepts(ARG_KEY_FORMAT, ARG_KEY_FORMAT_HELP).withRequiredArg().ofType(String.class)
                 .defaultsTo(RawFormatter.class.getCanonicalName());
@@ -62,6 +70,10 @@ public class SegmentCLI {
         if (!segmentIndexFileName.endsWith("_records")) {
             segmentIndexFileName += "_records";
         }
+        if (options.has(CMD_VERIFY)) {
+            verify(Paths.get(segmentIndexFileName));
+            return;
+        }
         UnverifiedSegmentReader segmentReader = new UnverifiedSegmentReader(Paths.get(segmentIndexFileName));
 
         ByteFormatter keyFormatter = (ByteFormatter) instanciateClass((String) options.valueOf(ARG_KEY_FORMAT));
@@ -108,6 +120,31 @@ public class SegmentCLI {
         }
     }
 
+    private static void verify(Path segmentFile) {
+        Path topicDir = segmentFile.toAbsolutePath().getParent();
+        String fileName = String.valueOf(segmentFile.getFileName());
+        String filePrefix = fileName.substring(0, fileName.length() - "_records".length());
+        int partition = SegmentUtils.getPartitionFromSegment(segmentFile);
+        try {
+            SegmentReader segmentReader = new SegmentReader("topic", partition, topicDir, filePrefix);
+            SegmentReader.Verification verification = segmentReader.verify();
+            segmentReader.close();
+            System.out.println(String.format("%d blocks in Segment. Verified checksums of %d blocks (%d bytes)",
+                    verification.blocks(), verification.checkedBlocks(), verification.checkedBytes()));
+            if (verification.checkedBlocks() < verification.blocks()) {
+                System.out.println("Segment contains blocks without checksums");
+            } else if (verification.blocks() == 0) {
+                System.out.println("Segment does not contain checksums");
+            }
+        } catch (SegmentReader.ChecksumException e) {
+            System.err.println(e.getMessage());
+            Exit.exit(-2);
+        } catch (IOException | SegmentIndex.IndexException e) {
+            e.printStackTrace();
+            Exit.exit(-3);
+        }
+    }
+
     private static void list(UnverifiedSegmentReader segmentReader, RecordFormatter formatter) {
         int cnt = 0;
         while (true) {
@@ -22,12 +22,14 @@ public class SegmentIndexCLI {
     private static final String CMD_RESTORE_HELP = "Restores the segment index given the segment file";
     private static final String ARG_SEGMENT = "segment";
     private static final String ARG_SEGMENT_HELP = "Segment file (of the form segment_partition_xxx_from_offset_xxxxxx_records)";
+    private static final String ARG_INDEX_INTERVAL_BYTES = "index-interval-bytes";
+    private static final String ARG_INDEX_INTERVAL_BYTES_HELP = "Restore a sparse index with an entry every n bytes of records. Default: one entry per record";
     private static final String[] COMMANDS = {CMD_LIST, CMD_RESTORE};
 
     public static void main(String[] args) throws Exception {
         /*
         cli --list --segment-index [file]
-        cli --restore-index --segment [file]
+        cli --restore-index --segment [file] [--index-interval-bytes n]
         // ideas for later
         cli --show --segment-index [file] --offset [offset]
         cli --validate --segment-index [file] --segment [file]
@@ -43,6 +45,9 @@ public class SegmentIndexCLI {
         optionParser.accepts(ARG_SEGMENT, ARG_SEGMENT_HELP)
                 .requiredIf(CMD_RESTORE)
                 .withRequiredArg().ofType(String.class);
+        optionParser.accepts(ARG_INDEX_INTERVAL_BYTES, ARG_INDEX_INTERVAL_BYTES_HELP)
+                .availableIf(CMD_RESTORE)
+                .withRequiredArg().ofType(Integer.class).defaultsTo(0);
 
         OptionSet options;
         try {
@@ -60,15 +65,15 @@ public class SegmentIndexCLI {
         if (options.has(CMD_LIST)) {
             list((String) options.valueOf(ARG_SEGMENT_INDEX));
         } else if (options.has(CMD_RESTORE)) {
-            restore((String) options.valueOf(ARG_SEGMENT));
+            restore((String) options.valueOf(ARG_SEGMENT), (Integer) options.valueOf(ARG_INDEX_INTERVAL_BYTES));
         }
     }
 
-    private static void restore(String segmentFileName) throws SegmentIndex.IndexException, SegmentIndexRestore.RestoreException, IOException {
+    private static void restore(String segmentFileName, int indexIntervalBytes) throws SegmentIndex.IndexException, SegmentIndexRestore.RestoreException, IOException {
         if (!segmentFileName.endsWith("_records")) {
             segmentFileName += "_records";
         }
-        SegmentIndexRestore restore = new SegmentIndexRestore(Paths.get(segmentFileName));
+        SegmentIndexRestore restore = new SegmentIndexRestore(Paths.get(segmentFileName), indexIntervalBytes);
         restore.restore();
     }
 
@@ -78,10 +83,14 @@ public class SegmentIndexCLI {
         }
         SegmentIndex segmentIndex = new SegmentIndex(Paths.get(segmentIndexFileName));
         List<SegmentIndexEntry> index = segmentIndex.index();
+        boolean sparse = segmentIndex.indexIntervalBytes() > 0;
+        if (sparse) {
+            System.out.println(String.format("Sparse index with an entry every %d bytes. Gaps are expected", segmentIndex.indexIntervalBytes()));
+        }
         long previousOffset = index.get(0).getOffset() - 1;
         for (SegmentIndexEntry entry : index) {
             System.out.print(String.format("Offset: %d Position: %d Length: %d", entry.getOffset(), entry.recordFilePosition(), entry.recordByteLength()));
-            if (entry.getOffset() > previousOffset + 1) {
+            if (!sparse && entry.getOffset() > previousOffset + 1) {
                 System.out.print(" <- FYI Here is a gap");
             }
             System.out.println();
@@ -0,0 +1,359 @@
+package de.azapps.kafkabackup.common;
+
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of open files. The channels returned by {@link #open(Path, OpenOption...)} open their file on the
+ * first access. If more than maxOpenFiles files are open, the least recently used ones are closed and opened again at
+ * the next access. Channels track their position themselves, so closing the file is transparent to the user of the
+ * channel. Files are only closed while no operation on them is in progress.
+ * <p>
+ * Accessing an open file takes no lock: the channel pins its file with a reference count. The lock of the cache is
+ * only taken to open and to evict files. Thus, the eviction order is not strictly LRU. Files accessed since the last
+ * eviction get a second chance instead (the clock algorithm).
+ * <p>
+ * Evicting a file does not lose any data: the data is written to the operating system anyway and forcing a reopened
+ * file syncs all data of the file. File locks are not supported.
+ */
+public class FileHandleCache {
+    public static final String METRIC_GROUP = "file-handle-metrics";
+    private static final FileHandleCache UNBOUNDED = new FileHandleCache(0);
+    // 0 for no limit
+    private final int maxOpenFiles;
+    // The channels with an open file in eviction order. Guarded by `this`
+    private final LinkedHashMap<CachedFileChannel, Boolean> openChannels = new LinkedHashMap<>();
+    // Counted without the lock
+    private final LongAdder hits = new LongAdder();
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxOpenFiles The maximum number of open files. 0 for no limit
+     */
+    public FileHandleCache(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Like {@link #FileHandleCache(int)} and reports the open files, hits, misses and evictions in the metrics. They
+     * are only counted if there is a limit
+     */
+    public FileHandleCache(int maxOpenFiles, Metrics metrics, Map<String, String> tags) {
+        this(maxOpenFiles);
+        metrics.addMetric(metrics.metricName("open-files", METRIC_GROUP, "Number of files currently open", tags),
+                (Measurable) (config, now) -> openFiles());
+        metrics.addMetric(metrics.metricName("file-handle-hit-total", METRIC_GROUP, "Number of file accesses with the file already open", tags),
+                (Measurable) (config, now) -> hits());
+        metrics.addMetric(metrics.metricName("file-handle-miss-total", METRIC_GROUP, "Number of file accesses that needed to open the file", tags),
+                (Measurable) (config, now) -> misses());
+        metrics.addMetric(metrics.metricName("file-handle-eviction-total", METRIC_GROUP, "Number of files closed to stay below the maximum number of open files", tags),
+                (Measurable) (config, now) -> evictions());
+    }
+
+    /**
+     * @return a cache without a limit. The files stay open until the channels are closed
+     */
+    public static FileHandleCache unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @return a channel of the file. The file is opened with the given options on the first access. CREATE_NEW and
+     * TRUNCATE_EXISTING must not be used as the file may be opened several times. Without a limit, this is just
+     * {@link FileChannel#open(Path, OpenOption...)}
+     */
+    public FileChannel open(Path path, OpenOption... options) throws IOException {
+        if (maxOpenFiles <= 0) {
+            return FileChannel.open(path, options);
+        }
+        CachedFileChannel channel = new CachedFileChannel(path, options);
+        // Fail early if the file cannot be opened
+        channel.acquireFile();
+        channel.release();
+        return channel;
+    }
+
+    public synchronized int openFiles() {
+        return openChannels.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Pins the open file of the channel without taking the lock. Opens the file if it is not open
+     */
+    private FileChannel acquire(CachedFileChannel channel) throws IOException {
+        while (true) {
+            int users = channel.users.get();
+            FileChannel file = channel.file;
+            // -1 while the file is evicted
+            if (users < 0 || file == null || !file.isOpen() || !channel.isOpen()) {
+                return acquireLocked(channel);
+            }
+            if (channel.users.compareAndSet(users, users + 1)) {
+                // The file may have been evicted between reading it and pinning it
+                if (channel.file == file && file.isOpen()) {
+                    hits.increment();
+                    channel.accessed = true;
+                    return file;
+                }
+                channel.users.decrementAndGet();
+            }
+        }
+    }
+
+    private synchronized FileChannel acquireLocked(CachedFileChannel channel) throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        // The file is also closed if a thread was interrupted while accessing it
+        if (channel.file != null && channel.file.isOpen()) {
+            hits.increment();
+            channel.accessed = true;
+            channel.users.incrementAndGet();
+        } else {
+            misses++;
+            channel.file = FileChannel.open(channel.path, channel.options);
+            channel.accessed = false;
+            openChannels.put(channel, Boolean.TRUE);
+            // Pinned before the eviction so that the new file is not closed again
+            channel.users.incrementAndGet();
+            evict();
+        }
+        return channel.file;
+    }
+
+    private void release(CachedFileChannel channel) {
+        channel.users.decrementAndGet();
+    }
+
+    private void evict() throws IOException {
+        // Every channel is looked at up to twice: accessed and pinned channels are moved to the end of the queue
+        int attempts = 2 * openChannels.size();
+        Iterator<CachedFileChannel> iterator = openChannels.keySet().iterator();
+        while (openChannels.size() > maxOpenFiles && attempts-- > 0) {
+            if (!iterator.hasNext()) {
+                iterator = openChannels.keySet().iterator();
+            }
+            CachedFileChannel channel = iterator.next();
+            iterator.remove();
+            if (!channel.accessed && channel.users.compareAndSet(0, -1)) {
+                channel.file.close();
+                channel.file = null;
+                channel.users.set(0);
+                evictions++;
+            } else {
+                channel.accessed = false;
+                openChannels.put(channel, Boolean.TRUE);
+                iterator = openChannels.keySet().iterator();
+            }
+        }
+    }
+
+    private synchronized void close(CachedFileChannel channel) throws IOException {
+        openChannels.remove(channel);
+        if (channel.file != null) {
+            channel.file.close();
+            channel.file = null;
+        }
+    }
+
+    private class CachedFileChannel extends FileChannel {
+        private final Path path;
+        private final OpenOption[] options;
+        // Changed under the lock of the cache
+        private volatile FileChannel file = null;
+        // Number of operations using the file. -1 while the file is evicted
+        private final AtomicInteger users = new AtomicInteger();
+        // Whether the file was accessed since the channel was last looked at by the eviction
+        private volatile boolean accessed = false;
+        private volatile long position = 0;
+
+        CachedFileChannel(Path path, OpenOption[] options) {
+            this.path = path;
+            this.options = options.clone();
+        }
+
+        private FileChannel acquireFile() throws IOException {
+            return FileHandleCache.this.acquire(this);
+        }
+
+        private void release() {
+            FileHandleCache.this.release(this);
+        }
+
+        /**
+         * Runs the operation on the open file. The file is not closed while the operation is in progress
+         */
+        private <T> T withFile(FileOperation<T> operation) throws IOException {
+            FileChannel file = acquireFile();
+            try {
+                return operation.apply(file);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int read = withFile(file -> file.read(dst, position));
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                if (!dsts[i].hasRemaining()) {
+                    continue;
+                }
+                int read = read(dsts[i]);
+                if (read < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += read;
+                if (dsts[i].hasRemaining()) {
+                    break;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = withFile(file -> file.write(src, position));
+            position += written;
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                while (srcs[i].hasRemaining()) {
+                    total += write(srcs[i]);
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public long position() throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            return position;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return withFile(file -> file.size());
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            withFile(file -> file.truncate(size));
+            if (position > size) {
+                position = size;
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            withFile(file -> {
+                file.force(metaData);
+                return null;
+            });
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return withFile(file -> file.transferTo(position, count, target));
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return withFile(file -> file.transferFrom(src, position, count));
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return withFile(file -> file.read(dst, position));
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return withFile(file -> file.write(src, position));
+        }
+
+        /**
+         * The mapping stays valid if the file is closed
+         */
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return withFile(file -> file.map(mode, position, size));
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException("Files of a FileHandleCache cannot be locked");
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException("Files of a FileHandleCache cannot be locked");
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            FileHandleCache.this.close(this);
+        }
+    }
+
+    private interface FileOperation<T> {
+        T apply(FileChannel file) throws IOException;
+    }
+}
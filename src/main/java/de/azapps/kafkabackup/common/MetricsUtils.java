@@ -0,0 +1,19 @@
+package de.azapps.kafkabackup.common;
+
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Collections;
+
+public class MetricsUtils {
+    public static final String JMX_PREFIX = "kafka.backup";
+
+    /**
+     * @return a metrics registry that reports all metrics via JMX (e.g. `kafka.backup:type=offset-sync-metrics,...`)
+     */
+    public static Metrics createMetrics() {
+        return new Metrics(new MetricConfig(), Collections.singletonList(new JmxReporter(JMX_PREFIX)), Time.SYSTEM);
+    }
+}
@@ -0,0 +1,97 @@
+package de.azapps.kafkabackup.common;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the key and value bytes and the records per second of a task and of each of its partitions with token
+ * buckets. A batch waits until all buckets it uses allow it. The time spent waiting is reported in the metrics.
+ */
+public class Throttle {
+    public static final String METRIC_GROUP = "throttle-metrics";
+    // null if there is no limit
+    private final TokenBucket bytes;
+    private final TokenBucket records;
+    private final long partitionBytesPerSecond;
+    private final long partitionRecordsPerSecond;
+    private final Sensor throttleTime;
+
+    /**
+     * All limits are per second. 0 disables a limit
+     */
+    public Throttle(long bytesPerSecond, long recordsPerSecond, long partitionBytesPerSecond, long partitionRecordsPerSecond,
+                    Metrics metrics, Map<String, String> tags) {
+        this.bytes = bucket(bytesPerSecond);
+        this.records = bucket(recordsPerSecond);
+        this.partitionBytesPerSecond = partitionBytesPerSecond;
+        this.partitionRecordsPerSecond = partitionRecordsPerSecond;
+
+        throttleTime = metrics.sensor("throttle-time");
+        throttleTime.add(metrics.metricName("throttle-time-ms-total", METRIC_GROUP, "Total time batches waited for the rate limits", tags), new CumulativeSum());
+        throttleTime.add(metrics.metricName("throttle-time-ms-avg", METRIC_GROUP, "Average time a throttled batch waited", tags), new Avg());
+        throttleTime.add(metrics.metricName("throttle-time-ms-max", METRIC_GROUP, "Maximum time a throttled batch waited", tags), new Max());
+        throttleTime.add(metrics.metricName("throttled-total", METRIC_GROUP, "Number of batches that waited for the rate limits", tags), new CumulativeCount());
+    }
+
+    /**
+     * @return whether any of the limits is set
+     */
+    public static boolean isEnabled(long bytesPerSecond, long recordsPerSecond, long partitionBytesPerSecond, long partitionRecordsPerSecond) {
+        return bytesPerSecond > 0 || recordsPerSecond > 0 || partitionBytesPerSecond > 0 || partitionRecordsPerSecond > 0;
+    }
+
+    /**
+     * @return the throttle of a partition. It uses the limits of the task and the partition limits
+     */
+    public Partition partition() {
+        return new Partition(bucket(partitionBytesPerSecond), bucket(partitionRecordsPerSecond));
+    }
+
+    private static TokenBucket bucket(long ratePerSecond) {
+        return ratePerSecond > 0 ? new TokenBucket(ratePerSecond) : null;
+    }
+
+    private static long reserve(TokenBucket bucket, double amount) {
+        return bucket != null ? bucket.reserve(amount) : 0;
+    }
+
+    public class Partition {
+        private final TokenBucket bytes;
+        private final TokenBucket records;
+
+        private Partition(TokenBucket bytes, TokenBucket records) {
+            this.bytes = bytes;
+            this.records = records;
+        }
+
+        /**
+         * Waits until the batch may be written or read
+         */
+        public void acquire(List<Record> batch) throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            long batchBytes = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Record record = batch.get(i);
+                batchBytes += (record.key() != null ? record.key().length : 0) + (record.value() != null ? record.value().length : 0);
+            }
+            long waitNanos = Math.max(
+                    Math.max(reserve(Throttle.this.bytes, batchBytes), reserve(Throttle.this.records, batch.size())),
+                    Math.max(reserve(bytes, batchBytes), reserve(records, batch.size())));
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                throttleTime.record(waitNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+    }
+}
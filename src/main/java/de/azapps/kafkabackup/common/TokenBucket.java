@@ -0,0 +1,45 @@
+package de.azapps.kafkabackup.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket refilled with ratePerSecond tokens per second up to one second worth of tokens. Tokens are reserved
+ * even if there are not enough of them, so that batches larger than the bucket pass too. The bucket then goes into
+ * debt and the caller has to wait until the debt is paid off.
+ */
+public class TokenBucket {
+    private final double ratePerSecond;
+    private final double capacity;
+    // Guarded by `this`. Negative while in debt
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double ratePerSecond) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("The rate must be positive. Got " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = ratePerSecond;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes the tokens out of the bucket
+     *
+     * @return the time in nanoseconds the caller has to wait before using the tokens. 0 if there were enough tokens
+     */
+    public synchronized long reserve(double amount) {
+        return reserve(amount, System.nanoTime());
+    }
+
+    synchronized long reserve(double amount, long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = nowNanos;
+        tokens -= amount;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -10,18 +10,28 @@ import org.apache.kafka.connect.errors.RetriableException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
+/**
+ * Stores the offsets of all consumer groups for the backed up partitions. The offsets can be synced on a different
+ * thread than the one flushing them (see {@link OffsetSyncWorker}).
+ * <p>
+ * Only the offsets of the partitions added with {@link #addPartitions(Collection)} are stored. If several tasks back
+ * up a topic, each task writes the offset files of its own partitions only.
+ */
 public class OffsetSink {
     private final Path targetDir;
     private final Map<TopicPartition, OffsetStoreFile> topicOffsets = new HashMap<>();
-    private List<String> consumerGroups = new ArrayList<>();
+    private final Set<TopicPartition> partitions = new HashSet<>();
+    private volatile List<String> consumerGroups = new ArrayList<>();
     private final AdminClient adminClient;
 
     public OffsetSink(AdminClient adminClient, Path targetDir) {
@@ -29,6 +39,23 @@ public class OffsetSink {
         this.targetDir = targetDir;
     }
 
+    public synchronized void addPartitions(Collection<TopicPartition> partitions) {
+        this.partitions.addAll(partitions);
+    }
+
+    /**
+     * Flushes the offsets of the partitions and stops storing them
+     */
+    public synchronized void removePartitions(Collection<TopicPartition> partitions) throws IOException {
+        for (TopicPartition topicPartition : partitions) {
+            this.partitions.remove(topicPartition);
+            OffsetStoreFile offsetStoreFile = topicOffsets.remove(topicPartition);
+            if (offsetStoreFile != null) {
+                offsetStoreFile.flush();
+            }
+        }
+    }
+
     public void syncConsumerGroups() {
         try {
             consumerGroups = adminClient.listConsumerGroups().all().get().stream().map(ConsumerGroupListing::groupId).collect(Collectors.toList());
@@ -59,11 +86,15 @@ public class OffsetSink {
         } catch (InterruptedException | ExecutionException e) {
             throw new RetriableException(e);
         }
+        storeOffsets(consumerGroup, topicOffsetsAndMetadata);
+    }
+
+    private synchronized void storeOffsets(String consumerGroup, Map<TopicPartition, OffsetAndMetadata> topicOffsetsAndMetadata) throws IOException {
         for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : topicOffsetsAndMetadata.entrySet()) {
             TopicPartition tp = entry.getKey();
             OffsetAndMetadata offsetAndMetadata = entry.getValue();
 
-            if (validTopic(tp.topic())) {
+            if (partitions.contains(tp)) {
                 if (!this.topicOffsets.containsKey(tp)) {
                     this.topicOffsets.put(tp, new OffsetStoreFile(targetDir, tp));
                 }
@@ -73,11 +104,11 @@ public class OffsetSink {
         }
     }
 
-    private boolean validTopic(String topic) {
-        return Files.isDirectory(Paths.get(targetDir.toString(), topic));
+    public int consumerGroupCount() {
+        return consumerGroups.size();
     }
 
-    public void flush() throws IOException {
+    public synchronized void flush() throws IOException {
         boolean error = false;
         for (OffsetStoreFile offsetStoreFile : topicOffsets.values()) {
             try {
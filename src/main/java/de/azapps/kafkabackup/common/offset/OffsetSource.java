@@ -16,18 +16,59 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Translates the backed up consumer group offsets to the offsets of the restored records. The translated offsets are
+ * buffered and committed by {@link #flush()} with one commit per group. The committers of the most recently used groups
+ * are kept open between the flushes.
+ */
 public class OffsetSource {
     private static final Logger log = LoggerFactory.getLogger(OffsetSource.class);
+    public static final int DEFAULT_MAX_COMMITTERS = 8;
     private final Map<TopicPartition, OffsetStoreFile> topicOffsets = new HashMap<>();
     private final Map<String, Object> consumerConfig;
+    private final int maxCommitters;
+    // Offsets not committed yet by group. Guarded by `this`
+    private Map<String, Map<TopicPartition, OffsetAndMetadata>> pendingOffsets = new HashMap<>();
+    // Open committers in LRU order. Guarded by `flushLock`
+    private final LinkedHashMap<String, Consumer<byte[], byte[]>> committers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Object flushLock = new Object();
 
     public OffsetSource(Path backupDir, List<String> topics, Map<String, Object> consumerConfig) throws IOException {
-        this.consumerConfig = consumerConfig;
+        this(backupDir, topics, consumerConfig, DEFAULT_MAX_COMMITTERS);
+    }
+
+    public OffsetSource(Path backupDir, List<String> topics, Map<String, Object> consumerConfig, int maxCommitters) throws IOException {
+        this(consumerConfig, maxCommitters);
         for (String topic : topics) {
             findOffsetStores(backupDir, topic);
         }
     }
 
+    /**
+     * Loads only the offsets of the given partitions
+     */
+    public OffsetSource(Path backupDir, Collection<TopicPartition> partitions, Map<String, Object> consumerConfig) throws IOException {
+        this(backupDir, partitions, consumerConfig, DEFAULT_MAX_COMMITTERS);
+    }
+
+    /**
+     * @param maxCommitters The number of groups whose committers are kept open
+     */
+    public OffsetSource(Path backupDir, Collection<TopicPartition> partitions, Map<String, Object> consumerConfig, int maxCommitters) throws IOException {
+        this(consumerConfig, maxCommitters);
+        for (TopicPartition topicPartition : partitions) {
+            Path offsetStoreFile = OffsetUtils.offsetStoreFile(backupDir, topicPartition);
+            if (Files.isRegularFile(offsetStoreFile)) {
+                topicOffsets.put(topicPartition, new OffsetStoreFile(offsetStoreFile));
+            }
+        }
+    }
+
+    private OffsetSource(Map<String, Object> consumerConfig, int maxCommitters) {
+        this.consumerConfig = consumerConfig;
+        this.maxCommitters = maxCommitters;
+    }
+
     private void findOffsetStores(Path backupDir, String topic) throws IOException {
         Path topicDir = Paths.get(backupDir.toString(), topic);
         for (Path f : Files.list(topicDir).collect(Collectors.toList())) {
@@ -39,25 +80,104 @@ public class OffsetSource {
         }
     }
 
+    /**
+     * Buffers the target offset for all groups whose backed up offset points to the record after the source offset
+     */
     public void syncGroupForOffset(TopicPartition topicPartition, long sourceOffset, long targetOffset) {
         OffsetStoreFile offsetStoreFile = topicOffsets.get(topicPartition);
+        if (offsetStoreFile == null) {
+            // No consumer group offsets were backed up for this partition
+            return;
+        }
         // __consumer_offsets contains the offset of the message to read next. So we need to search for the offset + 1
         // if we do not do that we might miss
         List<String> groups = offsetStoreFile.groupForOffset(sourceOffset + 1);
         if (groups != null && groups.size() > 0) {
-            for (String group : groups) {
-                Map<String, Object> groupConsumerConfig = new HashMap<>(consumerConfig);
-                groupConsumerConfig.put("group.id", group);
-                Consumer<byte[], byte[]> consumer = new KafkaConsumer<>(groupConsumerConfig);
-                consumer.assign(Collections.singletonList(topicPartition));
-                // ! Target Offset + 1 as we commit the offset of the "next message to read"
-                OffsetAndMetadata offsetAndMetadata = new OffsetAndMetadata(targetOffset + 1);
-                Map<TopicPartition, OffsetAndMetadata> offsets = Collections.singletonMap(topicPartition, offsetAndMetadata);
-                consumer.commitSync(offsets);
-                consumer.close();
-                log.debug("Committed target offset {} for group {} for topic {} partition {}",
-                        (targetOffset + 1), group, topicPartition.topic(), topicPartition.partition());
+            // ! Target Offset + 1 as we commit the offset of the "next message to read"
+            OffsetAndMetadata offsetAndMetadata = new OffsetAndMetadata(targetOffset + 1);
+            synchronized (this) {
+                for (String group : groups) {
+                    pendingOffsets.computeIfAbsent(group, g -> new HashMap<>()).merge(topicPartition, offsetAndMetadata,
+                            (previous, next) -> next.offset() > previous.offset() ? next : previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits the buffered offsets with one commit per group. Offsets that fail to commit are buffered again unless
+     * newer offsets were buffered in the meantime
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, Map<TopicPartition, OffsetAndMetadata>> offsets;
+            synchronized (this) {
+                if (pendingOffsets.isEmpty()) {
+                    return;
+                }
+                offsets = pendingOffsets;
+                pendingOffsets = new HashMap<>();
+            }
+            for (Map.Entry<String, Map<TopicPartition, OffsetAndMetadata>> entry : offsets.entrySet()) {
+                String group = entry.getKey();
+                try {
+                    commitGroupOffsets(group, entry.getValue());
+                    log.debug("Committed offsets {} for group {}", entry.getValue(), group);
+                } catch (RuntimeException e) {
+                    log.warn("Committing the offsets of group {} failed. Retrying with the next flush", group, e);
+                    closeCommitter(group);
+                    synchronized (this) {
+                        Map<TopicPartition, OffsetAndMetadata> pending = pendingOffsets.computeIfAbsent(group, g -> new HashMap<>());
+                        for (Map.Entry<TopicPartition, OffsetAndMetadata> offset : entry.getValue().entrySet()) {
+                            pending.putIfAbsent(offset.getKey(), offset.getValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits the offsets of the group. Reuses the committer of the group if it is still open
+     */
+    protected void commitGroupOffsets(String group, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        Consumer<byte[], byte[]> committer = committers.get(group);
+        if (committer == null) {
+            Map<String, Object> groupConsumerConfig = new HashMap<>(consumerConfig);
+            groupConsumerConfig.put("group.id", group);
+            groupConsumerConfig.put("enable.auto.commit", false);
+            committer = new KafkaConsumer<>(groupConsumerConfig);
+            committers.put(group, committer);
+            evictCommitters();
+        }
+        committer.commitSync(offsets);
+    }
+
+    private void evictCommitters() {
+        Iterator<Map.Entry<String, Consumer<byte[], byte[]>>> iterator = committers.entrySet().iterator();
+        while (committers.size() > maxCommitters && iterator.hasNext()) {
+            iterator.next().getValue().close();
+            iterator.remove();
+        }
+    }
+
+    private void closeCommitter(String group) {
+        Consumer<byte[], byte[]> committer = committers.remove(group);
+        if (committer != null) {
+            committer.close();
+        }
+    }
+
+    /**
+     * Commits the buffered offsets and closes the committers
+     */
+    public void close() {
+        flush();
+        synchronized (flushLock) {
+            for (Consumer<byte[], byte[]> committer : committers.values()) {
+                committer.close();
             }
+            committers.clear();
         }
     }
 
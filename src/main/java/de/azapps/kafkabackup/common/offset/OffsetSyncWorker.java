@@ -0,0 +1,94 @@
+package de.azapps.kafkabackup.common.offset;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the consumer group offsets of the {@link OffsetSink} on a background thread so that the AdminClient round
+ * trips (one per consumer group) do not slow down writing the records. Failed syncs are logged and retried in the
+ * next interval.
+ */
+public class OffsetSyncWorker {
+    private static final Logger log = LoggerFactory.getLogger(OffsetSyncWorker.class);
+    static final String METRIC_GROUP = "offset-sync-metrics";
+    private final OffsetSink offsetSink;
+    private final long intervalMs;
+    private final ScheduledExecutorService executor;
+    private final Sensor syncTime;
+    private final Sensor syncFailures;
+
+    public OffsetSyncWorker(OffsetSink offsetSink, long intervalMs, Metrics metrics, Map<String, String> tags) {
+        this.offsetSink = offsetSink;
+        this.intervalMs = intervalMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kafka-backup-offset-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        syncTime = metrics.sensor("offset-sync-time");
+        syncTime.add(metrics.metricName("offset-sync-time-ms-avg", METRIC_GROUP, "Average time of a consumer group offset sync", tags), new Avg());
+        syncTime.add(metrics.metricName("offset-sync-time-ms-max", METRIC_GROUP, "Maximum time of a consumer group offset sync", tags), new Max());
+        syncTime.add(metrics.metricName("offset-sync-total", METRIC_GROUP, "Number of consumer group offset syncs", tags), new CumulativeCount());
+        syncFailures = metrics.sensor("offset-sync-failures");
+        syncFailures.add(metrics.metricName("offset-sync-failed-total", METRIC_GROUP, "Number of failed consumer group offset syncs", tags), new CumulativeCount());
+        MetricName consumerGroups = metrics.metricName("consumer-groups", METRIC_GROUP, "Number of consumer groups found by the last sync", tags);
+        metrics.addMetric(consumerGroups, (config, now) -> offsetSink.consumerGroupCount());
+    }
+
+    /**
+     * Syncs the offsets every intervalMs. The first sync runs after one interval, as the partitions are only
+     * registered with the offset sink once they are assigned
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(this::syncQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.debug("Syncing consumer group offsets every {} ms", intervalMs);
+    }
+
+    /**
+     * Syncs the offsets on the calling thread. Waits for a running background sync to finish first
+     */
+    public synchronized void sync() throws IOException {
+        long start = System.nanoTime();
+        try {
+            offsetSink.syncConsumerGroups();
+            offsetSink.syncOffsets();
+        } catch (IOException | RuntimeException e) {
+            syncFailures.record();
+            throw e;
+        }
+        double durationMs = (System.nanoTime() - start) / 1_000_000.0;
+        syncTime.record(durationMs);
+        log.debug("Synced the offsets of {} consumer groups in {} ms", offsetSink.consumerGroupCount(), durationMs);
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (Exception e) {
+            log.warn("Syncing the consumer group offsets failed. Retrying in {} ms", intervalMs, e);
+        }
+    }
+
+    /**
+     * Stops the background syncs. Waits for a running sync to finish
+     */
+    public void close() throws InterruptedException {
+        executor.shutdownNow();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Consumer group offset sync did not stop within one minute");
+        }
+    }
+}
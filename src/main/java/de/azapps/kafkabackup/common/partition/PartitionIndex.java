@@ -1,11 +1,18 @@
 package de.azapps.kafkabackup.common.partition;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -14,17 +21,25 @@ public class PartitionIndex {
     private static final byte V1_MAGIC_BYTE = 0x01;
     private Path indexFile;
     private List<PartitionIndexEntry> index = new ArrayList<>();
-    private FileOutputStream fileOutputStream;
-    private FileInputStream fileInputStream;
+    // Entries are appended at the end of the file
+    private FileChannel channel;
     private int position = 0;
     private long latestStartOffset = -1;
 
     public PartitionIndex(Path indexFile) throws IOException, IndexException {
+        this(indexFile, FileHandleCache.unbounded());
+    }
+
+    /**
+     * @param fileHandleCache The index file is opened through this cache
+     */
+    public PartitionIndex(Path indexFile, FileHandleCache fileHandleCache) throws IOException, IndexException {
         this.indexFile = indexFile;
-        initFile();
+        initFile(fileHandleCache);
+        InputStream inputStream = new BufferedInputStream(Channels.newInputStream(channel));
         while (true) {
             try {
-                PartitionIndexEntry partitionIndexEntry = PartitionIndexEntry.fromStream(fileInputStream);
+                PartitionIndexEntry partitionIndexEntry = PartitionIndexEntry.fromStream(inputStream);
                 if (partitionIndexEntry.startOffset() <= latestStartOffset) {
                     throw new IndexException("Offsets must be always increasing! There is something terribly wrong in your index " + indexFile + "! Got " + partitionIndexEntry.startOffset() + " expected an offset larger than " + latestStartOffset);
                 }
@@ -37,18 +52,18 @@ public class PartitionIndex {
         }
     }
 
-    private void initFile() throws IOException, IndexException {
+    private void initFile(FileHandleCache fileHandleCache) throws IOException, IndexException {
         if (!Files.isRegularFile(indexFile)) {
             Files.createFile(indexFile);
-            fileOutputStream = new FileOutputStream(indexFile.toFile());
-            fileOutputStream.write(V1_MAGIC_BYTE);
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.write(ByteBuffer.wrap(new byte[]{V1_MAGIC_BYTE}));
         } else {
-            fileOutputStream = new FileOutputStream(indexFile.toFile(), true);
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
         }
-        this.fileInputStream = new FileInputStream(indexFile.toFile());
-        fileInputStream.getChannel().position(0);
-        byte[] v1Validation = new byte[1];
-        if (fileInputStream.read(v1Validation) != 1 || v1Validation[0] != V1_MAGIC_BYTE) {
+        channel.position(0);
+        ByteBuffer v1Validation = ByteBuffer.allocate(1);
+        if (channel.read(v1Validation) != 1 || v1Validation.get(0) != V1_MAGIC_BYTE) {
+            channel.close();
             throw new IndexException("Cannot validate Magic Byte in the beginning of the index " + indexFile);
         }
     }
@@ -57,7 +72,14 @@ public class PartitionIndex {
         if (startOffset <= latestStartOffset) {
             throw new IndexException("Offsets must be always increasing! There is something terribly wrong in your index " + indexFile + "! Got " + startOffset + " expected an offset larger than " + latestStartOffset);
         }
-        PartitionIndexEntry indexEntry = new PartitionIndexEntry(fileOutputStream, segmentFile, startOffset);
+        // The entry is written with a single write
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        PartitionIndexEntry indexEntry = new PartitionIndexEntry(entryBytes, segmentFile, startOffset);
+        ByteBuffer buffer = ByteBuffer.wrap(entryBytes.toByteArray());
+        long filePosition = channel.size();
+        while (buffer.hasRemaining()) {
+            filePosition += channel.write(buffer, filePosition);
+        }
         index.add(indexEntry);
         latestStartOffset = startOffset;
     }
@@ -75,12 +97,15 @@ public class PartitionIndex {
     }
 
     void close() throws IOException {
-        fileInputStream.close();
-        fileOutputStream.close();
+        channel.close();
     }
 
-    void flush() throws IOException {
-        fileOutputStream.flush();
+    void flush() {
+        // Entries are written directly to the file
+    }
+
+    void force() throws IOException {
+        channel.force(true);
     }
 
     long firstOffset() throws IndexException {
@@ -90,35 +115,49 @@ public class PartitionIndex {
         return index.get(0).startOffset();
     }
 
+    /**
+     * Moves the cursor to the segment containing the offset, i.e. the last segment with a start offset lower or equal
+     * than the offset. Uses binary search over the start offsets
+     */
     void seek(long offset) throws PartitionIndex.IndexException {
-        int previousPosition = -1;
-        // Iterate the index after the last element
-        // Such that we can seek to an offset in the last index entry
-        for (int i = 0; i <= index.size(); i++) {
-            if (i == index.size()) {
-                // Offset must be in the last index entry
-                position = previousPosition;
+        // The first segment with a higher start offset
+        int low = 0;
+        int high = index.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.get(mid).startOffset() <= offset) {
+                low = mid + 1;
             } else {
-                PartitionIndexEntry current = index.get(i);
-                if (current.startOffset() > offset) {
-                    if (previousPosition >= 0) {
-                        position = previousPosition;
-                        //
-                        return;
-                    } else {
-                        throw new PartitionIndex.IndexException("No Index file found matching the target offset in partition index " + indexFile + ". Search for offset " + offset + ", smallest offset in index: " + current.startOffset());
-                    }
-                } else {
-                    previousPosition = i;
-                }
+                high = mid;
             }
         }
+        if (low == 0) {
+            throw new PartitionIndex.IndexException("No Index file found matching the target offset in partition index " + indexFile + ". Search for offset " + offset + ", smallest offset in index: " + firstOffset());
+        }
+        position = low - 1;
+    }
+
+    /**
+     * Moves the cursor to the segment with the given position in the index
+     */
+    void seekToSegment(int segment) {
+        if (segment < 0 || segment >= index.size()) {
+            throw new IndexOutOfBoundsException("Segment " + segment + " is not in index " + indexFile);
+        }
+        position = segment;
     }
 
     boolean hasMoreData() {
         return position < index.size();
     }
 
+    /**
+     * @return the start offset of the segment returned by the next {@link #readFileName()}
+     */
+    long nextStartOffset() {
+        return index.get(position).startOffset();
+    }
+
     String readFileName() {
         String fileName = index.get(position).filename();
         position++;
@@ -1,14 +1,17 @@
 package de.azapps.kafkabackup.common.partition;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.record.Record;
 import de.azapps.kafkabackup.common.segment.SegmentIndex;
 import de.azapps.kafkabackup.common.segment.SegmentReader;
+import de.azapps.kafkabackup.common.segment.SegmentTimeIndex;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 public class PartitionReader {
     private final String topic;
@@ -16,9 +19,23 @@ public class PartitionReader {
     private final Path topicDir;
     private SegmentReader currentSegment;
     private final PartitionIndex partitionIndex;
+    private final FileHandleCache fileHandleCache;
+    // Reading stops at the first record with a higher timestamp or with an offset higher or equal than endOffset
+    private long endTimestamp = Long.MAX_VALUE;
+    private long endOffset = Long.MAX_VALUE;
+    private boolean endReached = false;
 
     public PartitionReader(String topic, int partition, Path topicDir) throws IOException, PartitionIndex.IndexException, PartitionException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, FileHandleCache.unbounded());
+    }
+
+    /**
+     * @param fileHandleCache All files of the partition are opened through this cache. Share it between the partitions
+     *                        to limit the number of open files
+     */
+    public PartitionReader(String topic, int partition, Path topicDir, FileHandleCache fileHandleCache) throws IOException, PartitionIndex.IndexException, PartitionException, SegmentIndex.IndexException {
         this.topic = topic;
+        this.fileHandleCache = fileHandleCache;
         this.partition = partition;
         this.topicDir = topicDir;
         Path indexFile = PartitionUtils.indexFile(topicDir, partition);
@@ -28,7 +45,7 @@ public class PartitionReader {
         if (!Files.isRegularFile(indexFile)) {
             throw new PartitionException("Cannot find index file for partition " + partition);
         }
-        partitionIndex = new PartitionIndex(indexFile);
+        partitionIndex = new PartitionIndex(indexFile, fileHandleCache);
         if (partitionIndex.hasMoreData()) {
             seek(partitionIndex.firstOffset());
         }
@@ -43,13 +60,69 @@ public class PartitionReader {
 
     public void seek(long offset) throws PartitionIndex.IndexException, IOException, SegmentIndex.IndexException, IndexOutOfBoundsException {
         partitionIndex.seek(offset);
-        String segmentFilePrefix = partitionIndex.readFileName();
-        currentSegment = new SegmentReader(topic, partition, topicDir, segmentFilePrefix);
+        openNextSegment();
         currentSegment.seek(offset);
+        endReached = false;
     }
 
-    public boolean hasMoreData() throws IOException {
+    /**
+     * Seeks to the first record with a timestamp higher or equal than the given timestamp. Segments whose time index
+     * shows that all their records are older are skipped without opening them.
+     *
+     * @return whether there is such a record. Otherwise, there is no more data to read
+     */
+    public boolean seekToTimestamp(long timestamp) throws IOException, SegmentIndex.IndexException {
+        List<PartitionIndexEntry> segments = partitionIndex.index();
+        for (int i = 0; i < segments.size(); i++) {
+            String segmentFilePrefix = segments.get(i).filename();
+            Optional<Long> maxTimestamp = SegmentTimeIndex.maxTimestamp(topicDir, segmentFilePrefix, fileHandleCache);
+            // The last segment is opened in any case to move the reader to the end
+            if (maxTimestamp.isPresent() && maxTimestamp.get() < timestamp && i < segments.size() - 1) {
+                continue;
+            }
+            partitionIndex.seekToSegment(i);
+            openNextSegment();
+            endReached = false;
+            if (currentSegment.seekToTimestamp(timestamp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops reading at the first record with a timestamp higher than the given timestamp. Like a Kafka consumer that
+     * stops at the offset for a timestamp, later records with lower timestamps are not returned either.
+     */
+    public void setEndTimestamp(long endTimestamp) {
+        this.endTimestamp = endTimestamp;
+    }
+
+    /**
+     * Stops reading before the first record with an offset higher or equal than the given offset. The segments after it
+     * are not opened
+     */
+    public void setEndOffset(long endOffset) {
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * @return the start offset of the first segment
+     */
+    public long firstOffset() throws PartitionIndex.IndexException {
+        return partitionIndex.firstOffset();
+    }
+
+    private void openNextSegment() throws IOException, SegmentIndex.IndexException {
+        String segmentFilePrefix = partitionIndex.readFileName();
         if (currentSegment != null) {
+            currentSegment.close();
+        }
+        currentSegment = new SegmentReader(topic, partition, topicDir, segmentFilePrefix, fileHandleCache);
+    }
+
+    public boolean hasMoreData() throws IOException {
+        if (currentSegment != null && !endReached) {
             return currentSegment.hasMoreData() || partitionIndex.hasMoreData();
         } else {
             return false;
@@ -57,22 +130,45 @@ public class PartitionReader {
     }
 
     public Record read() throws IOException, SegmentIndex.IndexException {
-        if (currentSegment.hasMoreData()) {
-            return currentSegment.read();
-        } else if (partitionIndex.hasMoreData()) {
-            currentSegment.close();
-            String segmentFilePrefix = partitionIndex.readFileName();
-            currentSegment = new SegmentReader(topic, partition, topicDir, segmentFilePrefix);
-            return currentSegment.read();
-        } else {
+        Record record = next();
+        if (record == null) {
             throw new IndexOutOfBoundsException("No more data available");
         }
+        return record;
+    }
+
+    /**
+     * @return the next record. null if the reader stopped at the end timestamp or the end offset
+     */
+    private Record next() throws IOException, SegmentIndex.IndexException {
+        if (endReached) {
+            return null;
+        }
+        if (!currentSegment.hasMoreData()) {
+            if (!partitionIndex.hasMoreData()) {
+                throw new IndexOutOfBoundsException("No more data available");
+            }
+            if (partitionIndex.nextStartOffset() >= endOffset) {
+                endReached = true;
+                return null;
+            }
+            openNextSegment();
+        }
+        Record record = currentSegment.read();
+        if (record.kafkaOffset() >= endOffset || (record.timestamp() != null && record.timestamp() > endTimestamp)) {
+            endReached = true;
+            return null;
+        }
+        return record;
     }
 
     public List<Record> readN(int n) throws IOException, SegmentIndex.IndexException {
         List<Record> records = new ArrayList<>();
         while (hasMoreData() && records.size() < n) {
-            Record record = read();
+            Record record = next();
+            if (record == null) {
+                break;
+            }
             records.add(record);
         }
         return records;
@@ -82,7 +178,10 @@ public class PartitionReader {
         List<Record> records = new ArrayList<>();
         long currentSize = 0;
         while (hasMoreData() && currentSize < batchsize) {
-            Record record = read();
+            Record record = next();
+            if (record == null) {
+                break;
+            }
             records.add(record);
             if (record.value() != null) {
                 currentSize += record.value().length;
@@ -98,7 +197,10 @@ public class PartitionReader {
     public List<Record> readFully() throws IOException, SegmentIndex.IndexException {
         List<Record> records = new ArrayList<>();
         while (hasMoreData()) {
-            Record record = read();
+            Record record = next();
+            if (record == null) {
+                break;
+            }
             records.add(record);
         }
         return records;
@@ -1,8 +1,14 @@
 package de.azapps.kafkabackup.common.partition;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,4 +33,16 @@ public class PartitionUtils {
             return Optional.empty();
         }
     }
+
+    /**
+     * @return the partitions with a partition index in the topic directory in ascending order
+     */
+    public static List<Integer> partitions(Path topicDir) throws IOException {
+        List<Integer> partitions = new ArrayList<>();
+        try (Stream<Path> files = Files.list(topicDir)) {
+            files.forEach(f -> isPartitionIndex(f).ifPresent(partitions::add));
+        }
+        Collections.sort(partitions);
+        return partitions;
+    }
 }
@@ -1,12 +1,20 @@
 package de.azapps.kafkabackup.common.partition;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.record.RecordSerde;
 import de.azapps.kafkabackup.common.segment.SegmentIndex;
+import de.azapps.kafkabackup.common.segment.SegmentUtils;
 import de.azapps.kafkabackup.common.segment.SegmentWriter;
+import org.apache.kafka.common.record.CompressionType;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class PartitionWriter {
@@ -16,9 +24,68 @@ public class PartitionWriter {
     private SegmentWriter currentSegment;
     private PartitionIndex partitionIndex;
     private long maxSegmentSizeBytes;
+    private CompressionType compressionType;
+    private int indexIntervalBytes;
+    private boolean kafkaRecordBatches;
+    // 0 disables the roll trigger
+    private long segmentMs;
+    private long segmentRecords;
+    private boolean preallocate;
+    private final FileHandleCache fileHandleCache;
+    // Segments rolled since the last flush. They are forced and closed by the next flush, like Kafka flushes rolled
+    // log segments. Thus, rolled segments are durable regardless of the durability of the current segment
+    private final List<SegmentWriter> rolledSegments = new ArrayList<>();
+    // Whether files were created since the last force(). Then the partition index and the directory are forced too
+    private boolean newFiles = false;
+    // Read by the metrics
+    private volatile long segmentRolls = 0;
+    private volatile int openSegments = 1;
 
     public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, maxSegmentSizeBytes, CompressionType.NONE);
+    }
+
+    public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes, CompressionType compressionType) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, maxSegmentSizeBytes, compressionType, 0);
+    }
+
+    /**
+     * @param indexIntervalBytes New segments get a sparse index with an entry every indexIntervalBytes bytes if this
+     *                           is positive. See {@link SegmentWriter}
+     */
+    public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes, CompressionType compressionType, int indexIntervalBytes) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, maxSegmentSizeBytes, compressionType, indexIntervalBytes, false);
+    }
+
+    /**
+     * @param kafkaRecordBatches New segments store the records as native Kafka RecordBatches. See {@link SegmentWriter}
+     */
+    public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, maxSegmentSizeBytes, compressionType, indexIntervalBytes, kafkaRecordBatches, 0, 0, false);
+    }
+
+    /**
+     * @param segmentMs      A new segment is started when the current one is older than segmentMs. 0 disables it
+     * @param segmentRecords A new segment is started when the current one contains segmentRecords records. 0 disables it
+     * @param preallocate    Record files are preallocated to maxSegmentSizeBytes. See {@link SegmentWriter}
+     */
+    public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches, long segmentMs, long segmentRecords, boolean preallocate) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, maxSegmentSizeBytes, compressionType, indexIntervalBytes, kafkaRecordBatches, segmentMs, segmentRecords, preallocate, FileHandleCache.unbounded());
+    }
+
+    /**
+     * @param fileHandleCache All files of the partition are opened through this cache. Share it between the partitions
+     *                        to limit the number of open files
+     */
+    public PartitionWriter(String topic, int partition, Path topicDir, long maxSegmentSizeBytes, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches, long segmentMs, long segmentRecords, boolean preallocate, FileHandleCache fileHandleCache) throws IOException, PartitionIndex.IndexException, SegmentIndex.IndexException {
         this.topic = topic;
+        this.fileHandleCache = fileHandleCache;
+        this.segmentMs = segmentMs;
+        this.segmentRecords = segmentRecords;
+        this.preallocate = preallocate;
+        this.compressionType = compressionType;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.kafkaRecordBatches = kafkaRecordBatches;
         this.partition = partition;
         this.topicDir = topicDir;
         this.maxSegmentSizeBytes = maxSegmentSizeBytes;
@@ -26,45 +93,170 @@ public class PartitionWriter {
         if (!Files.isDirectory(this.topicDir)) {
             Files.createDirectories(this.topicDir);
         }
-        partitionIndex = new PartitionIndex(indexFile);
+        partitionIndex = new PartitionIndex(indexFile, fileHandleCache);
         Optional<PartitionIndexEntry> optionalPartitionIndexEntry = partitionIndex.latestSegmentFile();
         if (optionalPartitionIndexEntry.isPresent()) {
-            currentSegment = new SegmentWriter(topic, partition, optionalPartitionIndexEntry.get().startOffset(), topicDir);
+            long startOffset = optionalPartitionIndexEntry.get().startOffset();
+            currentSegment = new SegmentWriter(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, preallocateBytes(), fileHandleCache);
+            if (currentSegment.isLegacyFormat()) {
+                // V1 segments are only read. New records go to a new segment with checksums
+                if (currentSegment.lastWrittenOffset() >= 0) {
+                    nextSegment(currentSegment.lastWrittenOffset() + 1);
+                } else {
+                    currentSegment.close();
+                    Files.delete(SegmentUtils.recordsFile(topicDir, partition, startOffset));
+                    Files.delete(SegmentUtils.indexFile(topicDir, partition, startOffset));
+                    currentSegment = new SegmentWriter(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, preallocateBytes(), fileHandleCache);
+                    newFiles = true;
+                }
+            }
         } else {
-            currentSegment = new SegmentWriter(topic, partition, 0, topicDir);
+            currentSegment = new SegmentWriter(topic, partition, 0, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, preallocateBytes(), fileHandleCache);
             // do not forget to add the current segment to the partition index. Even if it is empty
             partitionIndex.appendSegment(currentSegment.filePrefix(), 0);
+            newFiles = true;
         }
     }
 
     private void nextSegment(long startOffset) throws IOException, SegmentIndex.IndexException, PartitionIndex.IndexException {
-        currentSegment.close();
-        SegmentWriter segment = new SegmentWriter(topic, partition, startOffset, topicDir);
+        rolledSegments.add(currentSegment);
+        newFiles = true;
+        segmentRolls++;
+        openSegments++;
+        SegmentWriter segment = new SegmentWriter(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, preallocateBytes(), fileHandleCache);
         if (startOffset > partitionIndex.latestStartOffset()) {
             partitionIndex.appendSegment(segment.filePrefix(), startOffset);
         }
         currentSegment = segment;
     }
 
+    private long preallocateBytes() {
+        return preallocate ? maxSegmentSizeBytes : 0;
+    }
+
+    /**
+     * @return whether the current segment is full or too old. Empty segments are never rolled
+     */
+    private boolean shouldRoll() {
+        if (currentSegment.size() > maxSegmentSizeBytes) {
+            return true;
+        }
+        if (currentSegment.recordCount() == 0) {
+            return false;
+        }
+        return (segmentRecords > 0 && currentSegment.recordCount() >= segmentRecords)
+                || (segmentMs > 0 && System.currentTimeMillis() - currentSegment.createdMs() >= segmentMs);
+    }
+
     public long lastWrittenOffset() {
         return currentSegment.lastWrittenOffset();
     }
 
     public void append(Record record) throws IOException, SegmentIndex.IndexException, PartitionIndex.IndexException, SegmentWriter.SegmentException {
-        if (currentSegment.size() > maxSegmentSizeBytes) {
+        if (shouldRoll()) {
             nextSegment(record.kafkaOffset());
         }
         currentSegment.append(record);
     }
 
+    /**
+     * Appends the records with as few writes as possible. The batch is split only where a new segment needs to be
+     * started. The size estimate uses the fixed-width V1 record size. Records in blocks are smaller, so the
+     * remaining records are appended in further writes until the segment is full.
+     */
+    public void appendBatch(List<Record> records) throws IOException, SegmentIndex.IndexException, PartitionIndex.IndexException, SegmentWriter.SegmentException {
+        int batchStart = 0;
+        while (batchStart < records.size()) {
+            if (shouldRoll()) {
+                nextSegment(records.get(batchStart).kafkaOffset());
+            }
+            long segmentSize = currentSegment.size();
+            int batchEnd = batchStart;
+            // The rest of the batch goes to the next segment once segmentRecords is reached
+            long maxBatchEnd = segmentRecords > 0 ? batchStart + segmentRecords - currentSegment.recordCount() : records.size();
+            // At least one record is appended, even if it does not fit into the segment
+            while (batchEnd < records.size()
+                    && (batchEnd == batchStart || (batchEnd < maxBatchEnd && segmentSize <= maxSegmentSizeBytes))) {
+                segmentSize += RecordSerde.serializedSize(records.get(batchEnd));
+                batchEnd++;
+            }
+            currentSegment.appendBatch(records.subList(batchStart, batchEnd));
+            batchStart = batchEnd;
+        }
+    }
+
     public void close() throws IOException {
+        closeRolledSegments();
         partitionIndex.close();
         currentSegment.close();
+        openSegments = 0;
     }
 
-    public void flush() throws IOException {
+    /**
+     * Flushes the partition. Starts a new segment if the current one is older than segmentMs so that idle partitions
+     * do not keep their segments open
+     */
+    public void flush() throws IOException, SegmentIndex.IndexException, PartitionIndex.IndexException {
+        if (segmentMs > 0 && shouldRoll()) {
+            nextSegment(lastWrittenOffset() + 1);
+        }
         partitionIndex.flush();
         currentSegment.flush();
+        closeRolledSegments();
+    }
+
+    /**
+     * Flushes and forces everything written since the last call to the disk, including segments rolled in the
+     * meantime. Does nothing if nothing was written
+     */
+    public void force() throws IOException {
+        partitionIndex.flush();
+        closeRolledSegments();
+        currentSegment.force();
+        if (newFiles) {
+            partitionIndex.force();
+            forceDirectory(topicDir);
+            newFiles = false;
+        }
+    }
+
+    /**
+     * @return whether {@link #force()} has anything to sync
+     */
+    public boolean isDirty() {
+        return newFiles || currentSegment.isDirty() || !rolledSegments.isEmpty();
+    }
+
+    private void closeRolledSegments() throws IOException {
+        for (SegmentWriter segment : rolledSegments) {
+            segment.force();
+            segment.close();
+        }
+        rolledSegments.clear();
+        openSegments = 1;
+    }
+
+    private static void forceDirectory(Path directory) {
+        // Makes the new files durable. Not all platforms support opening directories
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * @return the number of segments started by this writer
+     */
+    public long segmentRolls() {
+        return segmentRolls;
+    }
+
+    /**
+     * @return the number of open segments. Rolled segments stay open until the next flush
+     */
+    public int openSegments() {
+        return openSegments;
     }
 
     public String topic() {
@@ -1,8 +1,10 @@
 package de.azapps.kafkabackup.common.record;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.errors.DataException;
@@ -14,6 +16,13 @@ import java.util.Iterator;
 import java.util.Objects;
 
 public class Record {
+    // Shared by all records converted from SinkRecords without headers
+    private static final RecordHeaders NO_HEADERS = new RecordHeaders();
+
+    static {
+        NO_HEADERS.setReadOnly();
+    }
+
     private final String topic;
     private final Integer kafkaPartition;
     private final byte[] key;
@@ -47,14 +56,24 @@ public class Record {
     public static Record fromSinkRecord(SinkRecord sinkRecord) {
         byte[] key = connectDataToBytes(sinkRecord.keySchema(), sinkRecord.key());
         byte[] value = connectDataToBytes(sinkRecord.valueSchema(), sinkRecord.value());
-        RecordHeaders recordHeaders = new RecordHeaders();
-        for (org.apache.kafka.connect.header.Header connectHeader : sinkRecord.headers()) {
-            byte[] headerValue = connectDataToBytes(connectHeader.schema(), connectHeader.value());
-            recordHeaders.add(connectHeader.key(), headerValue);
+        RecordHeaders recordHeaders = NO_HEADERS;
+        if (!sinkRecord.headers().isEmpty()) {
+            recordHeaders = new RecordHeaders();
+            for (org.apache.kafka.connect.header.Header connectHeader : sinkRecord.headers()) {
+                byte[] headerValue = connectDataToBytes(connectHeader.schema(), connectHeader.value());
+                recordHeaders.add(connectHeader.key(), headerValue);
+            }
         }
         return new Record(sinkRecord.topic(), sinkRecord.kafkaPartition(), key, value, sinkRecord.kafkaOffset(), sinkRecord.timestamp(), sinkRecord.timestampType(), recordHeaders);
     }
 
+    public static Record fromConsumerRecord(ConsumerRecord<byte[], byte[]> consumerRecord) {
+        // Like Kafka Connect, we do not store the timestamp if the record has none
+        Long timestamp = consumerRecord.timestamp() == RecordBatch.NO_TIMESTAMP ? null : consumerRecord.timestamp();
+        return new Record(consumerRecord.topic(), consumerRecord.partition(), consumerRecord.key(), consumerRecord.value(), consumerRecord.offset(),
+                timestamp, consumerRecord.timestampType(), consumerRecord.headers());
+    }
+
     private static byte[] connectDataToBytes(Schema schema, Object value) {
         if (schema != null && schema.type() != Schema.Type.BYTES)
             throw new DataException("Invalid schema type for ByteArrayConverter: " + schema.type().toString());
@@ -3,8 +3,12 @@ package de.azapps.kafkabackup.common.record;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeaders;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.apache.kafka.common.utils.Utils;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -24,6 +28,11 @@ import java.nio.charset.StandardCharsets;
  * headerKey: byte[headerKeyLength]
  * headerValueLength: int32
  * [headerValue: byte[headerValueLength]] if headerValueLength >= 0
+ * <p>
+ * Records can be decoded either from a stream or directly from a {@link ByteBuffer} (e.g. a buffer filled from a
+ * {@link java.nio.channels.FileChannel} or a {@link java.nio.MappedByteBuffer}). The buffer variants throw a
+ * {@link BufferUnderflowException} if the buffer does not contain the complete record. In that case the position of
+ * the buffer is undefined and the caller needs to reset it before trying again with more data.
  */
 public class RecordSerde {
     public static Record read(String topic, int partition, InputStream inputStream) throws IOException {
@@ -37,19 +46,7 @@ public class RecordSerde {
             timestampType = TimestampType.CREATE_TIME;
             timestamp=null;
         } else {
-            switch (timestampTypeInt) {
-                case -1:
-                    timestampType = TimestampType.NO_TIMESTAMP_TYPE;
-                    break;
-                case 0:
-                    timestampType = TimestampType.CREATE_TIME;
-                    break;
-                case 1:
-                    timestampType = TimestampType.LOG_APPEND_TIME;
-                    break;
-                default:
-                    throw new RuntimeException("Unexpected TimestampType. Expected -1,0 or 1. Got " + timestampTypeInt);
-            }
+            timestampType = timestampType(timestampTypeInt);
             if (timestampType != TimestampType.NO_TIMESTAMP_TYPE) {
                 timestamp = dataStream.readLong();
             } else {
@@ -105,6 +102,123 @@ public class RecordSerde {
         return new Record(topic, partition, key, value, offset, timestamp, timestampType, headers);
     }
 
+    public static Record read(String topic, int partition, ByteBuffer buffer) {
+        long offset = buffer.getLong();
+        int timestampTypeInt = buffer.getInt();
+        TimestampType timestampType;
+        Long timestamp;
+        // See comment in `write()`
+        if (timestampTypeInt == -2) {
+            timestampType = TimestampType.CREATE_TIME;
+            timestamp = null;
+        } else {
+            timestampType = timestampType(timestampTypeInt);
+            if (timestampType != TimestampType.NO_TIMESTAMP_TYPE) {
+                timestamp = buffer.getLong();
+            } else {
+                timestamp = null;
+            }
+        }
+        byte[] key = readBytes(buffer, buffer.getInt());
+        byte[] value = readBytes(buffer, buffer.getInt());
+        int headerCount = buffer.getInt();
+        RecordHeaders headers = new RecordHeaders();
+        for (int i = 0; i < headerCount; i++) {
+            int headerKeyLength = buffer.getInt();
+            if (headerKeyLength < 0) {
+                throw new RuntimeException("Invalid negative header key size " + headerKeyLength);
+            }
+            if (headerKeyLength > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            // Decode the key directly from the buffer without an intermediate byte array
+            ByteBuffer headerKeyBytes = buffer.slice();
+            headerKeyBytes.limit(headerKeyLength);
+            String headerKey = StandardCharsets.UTF_8.decode(headerKeyBytes).toString();
+            buffer.position(buffer.position() + headerKeyLength);
+            byte[] headerValue = readBytes(buffer, buffer.getInt());
+            headers.add(headerKey, headerValue);
+        }
+
+        return new Record(topic, partition, key, value, offset, timestamp, timestampType, headers);
+    }
+
+    /**
+     * Moves the position of the buffer behind the next record without copying any of its data.
+     *
+     * @return the offset of the skipped record
+     */
+    public static long skip(ByteBuffer buffer) {
+        long offset = buffer.getLong();
+        int timestampTypeInt = buffer.getInt();
+        if (timestampTypeInt != -2 && timestampType(timestampTypeInt) != TimestampType.NO_TIMESTAMP_TYPE) {
+            skipBytes(buffer, 8);
+        }
+        skipBytes(buffer, buffer.getInt()); // key
+        skipBytes(buffer, buffer.getInt()); // value
+        int headerCount = buffer.getInt();
+        for (int i = 0; i < headerCount; i++) {
+            int headerKeyLength = buffer.getInt();
+            if (headerKeyLength < 0) {
+                throw new RuntimeException("Invalid negative header key size " + headerKeyLength);
+            }
+            skipBytes(buffer, headerKeyLength);
+            skipBytes(buffer, buffer.getInt()); // header value
+        }
+        return offset;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void skipBytes(ByteBuffer buffer, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    private static TimestampType timestampType(int timestampTypeInt) {
+        switch (timestampTypeInt) {
+            case -1:
+                return TimestampType.NO_TIMESTAMP_TYPE;
+            case 0:
+                return TimestampType.CREATE_TIME;
+            case 1:
+                return TimestampType.LOG_APPEND_TIME;
+            default:
+                throw new RuntimeException("Unexpected TimestampType. Expected -1,0 or 1. Got " + timestampTypeInt);
+        }
+    }
+
+    /**
+     * @return the number of bytes `write()` produces for this record
+     */
+    public static int serializedSize(Record record) {
+        int size = 8 + 4; // offset + timestampType
+        if (!(record.timestampType() == TimestampType.CREATE_TIME && record.timestamp() == null)
+                && record.timestampType() != TimestampType.NO_TIMESTAMP_TYPE) {
+            size += 8;
+        }
+        size += 4 + (record.key() != null ? record.key().length : 0);
+        size += 4 + (record.value() != null ? record.value().length : 0);
+        size += 4; // headerCount
+        for (Header header : record.headers().toArray()) {
+            size += 4 + Utils.utf8Length(header.key());
+            size += 4 + (header.value() != null ? header.value().length : 0);
+        }
+        return size;
+    }
+
     public static void write(OutputStream outputStream, Record record) throws IOException {
         DataOutputStream dataStream = new DataOutputStream(outputStream);
         dataStream.writeLong(record.kafkaOffset());
@@ -135,7 +249,7 @@ public class RecordSerde {
         }
         Header[] headers = record.headers().toArray();
         dataStream.writeInt(headers.length);
-        for (Header header : record.headers()) {
+        for (Header header : headers) {
             byte[] headerKeyBytes = header.key().getBytes(StandardCharsets.UTF_8);
             dataStream.writeInt(headerKeyBytes.length);
             dataStream.write(headerKeyBytes);
@@ -147,4 +261,41 @@ public class RecordSerde {
             }
         }
     }
+
+    /**
+     * Like {@link #write(OutputStream, Record)} but writes directly into the buffer of the stream. Nothing is
+     * allocated for records without headers.
+     */
+    public static void write(ByteBufferOutputStream outputStream, Record record) {
+        outputStream.ensureRemaining(serializedSize(record));
+        ByteBuffer buffer = outputStream.buffer();
+        buffer.putLong(record.kafkaOffset());
+        // See the comment in `write(OutputStream, Record)`
+        if (record.timestampType() == TimestampType.CREATE_TIME && record.timestamp() == null) {
+            buffer.putInt(-2);
+        } else {
+            buffer.putInt(record.timestampType().id);
+            if (record.timestampType() != TimestampType.NO_TIMESTAMP_TYPE) {
+                buffer.putLong(record.timestamp());
+            }
+        }
+        writeBytes(buffer, record.key());
+        writeBytes(buffer, record.value());
+        // toArray() of empty headers does not allocate, unlike iterator()
+        Header[] headers = record.headers().toArray();
+        buffer.putInt(headers.length);
+        for (Header header : headers) {
+            writeBytes(buffer, header.key().getBytes(StandardCharsets.UTF_8));
+            writeBytes(buffer, header.value());
+        }
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes != null) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        } else {
+            buffer.putInt(-1);
+        }
+    }
 }
@@ -0,0 +1,190 @@
+package de.azapps.kafkabackup.common.record;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.apache.kafka.common.utils.ByteUtils;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact record format modeled after the Kafka DefaultRecord. Offsets and timestamps are stored relative to a base
+ * (e.g. the first record of a block) and all numbers are varints.
+ * <p>
+ * Record Format:
+ * length: varint number of bytes following this field
+ * attributes: int8 bits 0-1: timestamp type (0: none, 1: create time, 2: log append time), bit 2: timestamp is null
+ * offsetDelta: varint offset minus baseOffset
+ * [timestampDelta: varlong] timestamp minus baseTimestamp. Only if there is a timestamp
+ * keyLength: varint -1 for null
+ * [key: byte[keyLength]]
+ * valueLength: varint -1 for null
+ * [value: byte[valueLength]]
+ * headerCount: varint
+ * headers: Header[headerCount]
+ * <p>
+ * Header Format:
+ * headerKeyLength: varint
+ * headerKey: byte[headerKeyLength]
+ * headerValueLength: varint -1 for null
+ * [headerValue: byte[headerValueLength]]
+ * <p>
+ * Thanks to the length prefix, records can be skipped without decoding them. Like in {@link RecordSerde}, a
+ * {@link BufferUnderflowException} is thrown if the buffer does not contain the complete record.
+ */
+public class RecordSerdeV2 {
+    private static final int TIMESTAMP_TYPE_MASK = 0x03;
+    private static final int NULL_TIMESTAMP_FLAG = 0x04;
+
+    public static void write(ByteBufferOutputStream outputStream, Record record, long baseOffset, long baseTimestamp) {
+        int bodySize = bodySize(record, baseOffset, baseTimestamp);
+        outputStream.ensureRemaining(ByteUtils.sizeOfVarint(bodySize) + bodySize);
+        ByteBuffer buffer = outputStream.buffer();
+        ByteUtils.writeVarint(bodySize, buffer);
+        buffer.put(attributes(record));
+        ByteUtils.writeVarint((int) (record.kafkaOffset() - baseOffset), buffer);
+        if (hasTimestamp(record)) {
+            ByteUtils.writeVarlong(record.timestamp() - baseTimestamp, buffer);
+        }
+        writeBytes(buffer, record.key());
+        writeBytes(buffer, record.value());
+        Header[] headers = record.headers().toArray();
+        ByteUtils.writeVarint(headers.length, buffer);
+        for (Header header : headers) {
+            byte[] headerKeyBytes = header.key().getBytes(StandardCharsets.UTF_8);
+            writeBytes(buffer, headerKeyBytes);
+            writeBytes(buffer, header.value());
+        }
+    }
+
+    public static Record read(String topic, int partition, ByteBuffer buffer, long baseOffset, long baseTimestamp) {
+        int bodySize = ByteUtils.readVarint(buffer);
+        if (bodySize > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte attributes = buffer.get();
+        long offset = baseOffset + ByteUtils.readVarint(buffer);
+        TimestampType timestampType = timestampType(attributes);
+        Long timestamp = null;
+        if (timestampType != TimestampType.NO_TIMESTAMP_TYPE && (attributes & NULL_TIMESTAMP_FLAG) == 0) {
+            timestamp = baseTimestamp + ByteUtils.readVarlong(buffer);
+        }
+        byte[] key = readBytes(buffer);
+        byte[] value = readBytes(buffer);
+        int headerCount = ByteUtils.readVarint(buffer);
+        RecordHeaders headers = new RecordHeaders();
+        for (int i = 0; i < headerCount; i++) {
+            int headerKeyLength = ByteUtils.readVarint(buffer);
+            if (headerKeyLength < 0) {
+                throw new RuntimeException("Invalid negative header key size " + headerKeyLength);
+            }
+            if (headerKeyLength > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            ByteBuffer headerKeyBytes = buffer.slice();
+            headerKeyBytes.limit(headerKeyLength);
+            String headerKey = StandardCharsets.UTF_8.decode(headerKeyBytes).toString();
+            buffer.position(buffer.position() + headerKeyLength);
+            headers.add(headerKey, readBytes(buffer));
+        }
+        return new Record(topic, partition, key, value, offset, timestamp, timestampType, headers);
+    }
+
+    /**
+     * Moves the position of the buffer behind the next record. Only the length and the offset are decoded.
+     *
+     * @return the offset of the skipped record
+     */
+    public static long skip(ByteBuffer buffer, long baseOffset) {
+        int bodySize = ByteUtils.readVarint(buffer);
+        if (bodySize > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int bodyStart = buffer.position();
+        buffer.get(); // attributes
+        long offset = baseOffset + ByteUtils.readVarint(buffer);
+        buffer.position(bodyStart + bodySize);
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes `write()` produces for this record
+     */
+    public static int serializedSize(Record record, long baseOffset, long baseTimestamp) {
+        int bodySize = bodySize(record, baseOffset, baseTimestamp);
+        return ByteUtils.sizeOfVarint(bodySize) + bodySize;
+    }
+
+    private static int bodySize(Record record, long baseOffset, long baseTimestamp) {
+        int size = 1; // attributes
+        size += ByteUtils.sizeOfVarint((int) (record.kafkaOffset() - baseOffset));
+        if (hasTimestamp(record)) {
+            size += ByteUtils.sizeOfVarlong(record.timestamp() - baseTimestamp);
+        }
+        size += sizeOfBytes(record.key());
+        size += sizeOfBytes(record.value());
+        Header[] headers = record.headers().toArray();
+        size += ByteUtils.sizeOfVarint(headers.length);
+        for (Header header : headers) {
+            int headerKeyLength = Utils.utf8Length(header.key());
+            size += ByteUtils.sizeOfVarint(headerKeyLength) + headerKeyLength;
+            size += sizeOfBytes(header.value());
+        }
+        return size;
+    }
+
+    private static boolean hasTimestamp(Record record) {
+        return record.timestampType() != TimestampType.NO_TIMESTAMP_TYPE && record.timestamp() != null;
+    }
+
+    private static byte attributes(Record record) {
+        int attributes = record.timestampType().id + 1;
+        if (record.timestampType() != TimestampType.NO_TIMESTAMP_TYPE && record.timestamp() == null) {
+            attributes |= NULL_TIMESTAMP_FLAG;
+        }
+        return (byte) attributes;
+    }
+
+    private static TimestampType timestampType(byte attributes) {
+        switch (attributes & TIMESTAMP_TYPE_MASK) {
+            case 0:
+                return TimestampType.NO_TIMESTAMP_TYPE;
+            case 1:
+                return TimestampType.CREATE_TIME;
+            case 2:
+                return TimestampType.LOG_APPEND_TIME;
+            default:
+                throw new RuntimeException("Unexpected TimestampType in attributes " + attributes);
+        }
+    }
+
+    private static int sizeOfBytes(byte[] bytes) {
+        if (bytes == null) {
+            return ByteUtils.sizeOfVarint(-1);
+        }
+        return ByteUtils.sizeOfVarint(bytes.length) + bytes.length;
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            ByteUtils.writeVarint(-1, buffer);
+        } else {
+            ByteUtils.writeVarint(bytes.length, buffer);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = ByteUtils.readVarint(buffer);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,180 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.record.RecordSerde;
+import de.azapps.kafkabackup.common.record.RecordSerdeV2;
+import org.apache.kafka.common.record.BufferSupplier;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads records from a V2 segment file. See {@link SegmentBlock} for the format.
+ * <p>
+ * Only the current block is kept in memory. The buffers for the compressed and uncompressed blocks are reused. The
+ * checksum of every block is verified when it is loaded.
+ */
+class BlockSegmentFileReader extends SegmentFileReader {
+    private final String topic;
+    private final int partition;
+    private final FileChannel channel;
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(SegmentBlock.HEADER_SIZE);
+    private final BufferSupplier bufferSupplier = BufferSupplier.create();
+    private ByteBuffer compressedBuffer;
+    private ByteBuffer uncompressedBuffer;
+    // The current block and its uncompressed records. null before the first block is read
+    private SegmentBlock block;
+    private ByteBuffer records;
+
+    BlockSegmentFileReader(Path recordFile, String topic, int partition, FileHandleCache fileHandleCache) throws IOException {
+        this.topic = topic;
+        this.partition = partition;
+        this.channel = fileHandleCache.open(recordFile, StandardOpenOption.READ);
+        ByteBuffer magicByte = ByteBuffer.allocate(1);
+        if (!readFully(magicByte, 0) || magicByte.get(0) != SegmentUtils.V2_MAGIC_BYTE) {
+            channel.close();
+            throw new IOException("Cannot validate Magic Byte in the beginning of the Segment");
+        }
+    }
+
+    @Override
+    byte version() {
+        return SegmentUtils.V2_MAGIC_BYTE;
+    }
+
+    @Override
+    long position() {
+        if (block == null) {
+            return 1; // mind the magic byte!
+        } else if (records.hasRemaining()) {
+            return block.position();
+        } else {
+            return block.nextBlockPosition();
+        }
+    }
+
+    @Override
+    void seek(SegmentIndexEntry segmentIndexEntry) throws IOException {
+        if (block == null || block.position() != segmentIndexEntry.recordFilePosition()) {
+            loadBlock(segmentIndexEntry.recordFilePosition());
+        }
+        records.position(segmentIndexEntry.positionInBlock());
+    }
+
+    @Override
+    Record read() throws IOException {
+        ensureRecords();
+        try {
+            if (block.hasRecordFormatV2()) {
+                return RecordSerdeV2.read(topic, partition, records, block.baseOffset(), block.firstTimestamp());
+            } else {
+                return RecordSerde.read(topic, partition, records);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt block at position " + block.position());
+        }
+    }
+
+    @Override
+    SegmentIndexEntry skip() throws IOException {
+        ensureRecords();
+        int positionInBlock = records.position();
+        try {
+            long offset = block.hasRecordFormatV2() ? RecordSerdeV2.skip(records, block.baseOffset()) : RecordSerde.skip(records);
+            return new SegmentIndexEntry(offset, block.position(), positionInBlock, records.position() - positionInBlock);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt block at position " + block.position());
+        }
+    }
+
+    private void ensureRecords() throws IOException {
+        while (block == null || !records.hasRemaining()) {
+            loadBlock(position());
+        }
+    }
+
+    @Override
+    SegmentReader.Verification verify(long lastBlockPosition) throws IOException {
+        block = null;
+        records = null;
+        long position = 1; // mind the magic byte!
+        int blocks = 0;
+        int checkedBlocks = 0;
+        long checkedBytes = 0;
+        while (position <= lastBlockPosition) {
+            SegmentBlock verifiedBlock = readBlock(position);
+            blocks++;
+            if (verifiedBlock.hasChecksum()) {
+                checkedBlocks++;
+                checkedBytes += verifiedBlock.nextBlockPosition() - position;
+            }
+            position = verifiedBlock.nextBlockPosition();
+        }
+        return new SegmentReader.Verification(blocks, checkedBlocks, checkedBytes);
+    }
+
+    private void loadBlock(long position) throws IOException {
+        SegmentBlock newBlock = readBlock(position);
+        compressedBuffer.position(newBlock.headerSize() - SegmentBlock.HEADER_SIZE);
+        ByteBuffer compressed = compressedBuffer.slice();
+        ByteBuffer uncompressed = newBlock.decompress(compressed, uncompressedBuffer, bufferSupplier);
+        if (uncompressed != compressed) {
+            uncompressedBuffer = uncompressed;
+        }
+        block = newBlock;
+        records = uncompressed;
+    }
+
+    /**
+     * Reads the header into the headerBuffer and everything after the header into the compressedBuffer. Verifies the
+     * checksum of the block without decompressing it.
+     */
+    private SegmentBlock readBlock(long position) throws IOException {
+        headerBuffer.clear();
+        if (!readFully(headerBuffer, position)) {
+            throw new EOFException("Reached end of segment at position " + position);
+        }
+        headerBuffer.flip();
+        SegmentBlock newBlock = SegmentBlock.readHeader(headerBuffer, position);
+
+        int payloadLength = newBlock.headerSize() - SegmentBlock.HEADER_SIZE + newBlock.compressedLength();
+        if (compressedBuffer == null || compressedBuffer.capacity() < payloadLength) {
+            compressedBuffer = ByteBuffer.allocate(payloadLength);
+        }
+        compressedBuffer.clear();
+        compressedBuffer.limit(payloadLength);
+        if (!readFully(compressedBuffer, position + SegmentBlock.HEADER_SIZE)) {
+            // The block was not written completely
+            throw new EOFException("Reached end of segment at position " + position);
+        }
+        compressedBuffer.flip();
+        newBlock.verifyChecksum(headerBuffer, compressedBuffer);
+        return newBlock;
+    }
+
+    /**
+     * @return false if the end of the file was reached before the buffer was filled
+     */
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    @Override
+    void close() throws IOException {
+        bufferSupplier.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,42 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import java.io.IOException;
+
+/**
+ * Collects records of block based segments and writes them as one block. See {@link SegmentBlockWriter} for V2
+ * segments and {@link RecordBatchWriter} for V3 segments.
+ */
+interface BlockWriter {
+
+    boolean isEmpty();
+
+    /**
+     * @return the number of uncompressed bytes appended to the current block
+     */
+    int uncompressedSize();
+
+    /**
+     * Drops all records that were not written yet
+     */
+    void clear();
+
+    boolean isFull();
+
+    /**
+     * @return false if the record cannot be stored in the current block and the block must be written first
+     */
+    boolean canAppend(Record record);
+
+    /**
+     * @return the position of the record in the block as it is stored in the index
+     */
+    int append(Record record) throws IOException;
+
+    /**
+     * Appends the block to the output. Afterwards the writer is empty again.
+     */
+    void writeTo(ByteBufferOutputStream output) throws IOException;
+}
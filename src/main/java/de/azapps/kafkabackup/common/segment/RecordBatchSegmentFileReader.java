@@ -0,0 +1,238 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.errors.CorruptRecordException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.DefaultRecordBatch;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.Utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads records from a V3 segment file. The segment consists of the magic byte followed by native Kafka RecordBatches.
+ * <p>
+ * Only the current batch is kept in memory. Its checksum is verified when it is loaded. The last read record is kept
+ * so that seeking back to it (as the sparse index lookup does) does not decompress the batch again.
+ */
+class RecordBatchSegmentFileReader extends SegmentFileReader {
+    private static final int MIN_BATCH_LENGTH = DefaultRecordBatch.RECORD_BATCH_OVERHEAD - Records.LOG_OVERHEAD;
+    private final String topic;
+    private final int partition;
+    private final FileChannel channel;
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(Records.LOG_OVERHEAD);
+    private final BufferSupplier bufferSupplier = BufferSupplier.create();
+    private ByteBuffer batchBuffer;
+    private RecordBatch batch;
+    private long batchPosition;
+    // The position of the batch following the current one. Also the position of a batch that could not be loaded
+    private long nextBatchPosition = 1; // mind the magic byte!
+    // null if no batch is loaded
+    private CloseableIterator<org.apache.kafka.common.record.Record> records;
+    // Number of records taken from the iterator and the last of them
+    private int recordsRead;
+    private org.apache.kafka.common.record.Record lastRecord;
+    // Whether the next read returns lastRecord again
+    private boolean replayLastRecord;
+
+    RecordBatchSegmentFileReader(Path recordFile, String topic, int partition, FileHandleCache fileHandleCache) throws IOException {
+        this.topic = topic;
+        this.partition = partition;
+        this.channel = fileHandleCache.open(recordFile, StandardOpenOption.READ);
+        ByteBuffer magicByte = ByteBuffer.allocate(1);
+        if (!readFully(channel, magicByte, 0) || magicByte.get(0) != SegmentUtils.V3_MAGIC_BYTE) {
+            channel.close();
+            throw new IOException("Cannot validate Magic Byte in the beginning of the Segment");
+        }
+    }
+
+    /**
+     * @return the position of the batch following the batch at the given position
+     */
+    static long nextBatchPosition(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Records.LOG_OVERHEAD);
+        if (!readFully(channel, header, position)) {
+            throw new EOFException("Reached end of segment while reading the batch header at position " + position);
+        }
+        return position + Records.LOG_OVERHEAD + header.getInt(Records.SIZE_OFFSET);
+    }
+
+    @Override
+    byte version() {
+        return SegmentUtils.V3_MAGIC_BYTE;
+    }
+
+    @Override
+    long position() {
+        return hasRemaining() ? batchPosition : nextBatchPosition;
+    }
+
+    @Override
+    void seek(SegmentIndexEntry segmentIndexEntry) throws IOException {
+        if (records == null || batchPosition != segmentIndexEntry.recordFilePosition()) {
+            loadBatch(segmentIndexEntry.recordFilePosition());
+        }
+        int ordinal = segmentIndexEntry.positionInBlock();
+        if (lastRecord != null && ordinal == recordsRead - 1) {
+            replayLastRecord = true;
+            return;
+        }
+        replayLastRecord = false;
+        if (ordinal < recordsRead) {
+            restartIterator();
+        }
+        while (recordsRead < ordinal) {
+            if (!records.hasNext()) {
+                throw new IOException("Batch at position " + batchPosition + " does not contain record " + ordinal);
+            }
+            nextRecord();
+        }
+    }
+
+    @Override
+    Record read() throws IOException {
+        ensureRecords();
+        org.apache.kafka.common.record.Record record = nextRecord();
+        Long timestamp = record.timestamp() == RecordBatch.NO_TIMESTAMP ? null : record.timestamp();
+        return new Record(topic, partition, Utils.toNullableArray(record.key()), Utils.toNullableArray(record.value()),
+                record.offset(), timestamp, batch.timestampType(), new RecordHeaders(record.headers()));
+    }
+
+    @Override
+    SegmentIndexEntry skip() throws IOException {
+        ensureRecords();
+        int ordinal = replayLastRecord ? recordsRead - 1 : recordsRead;
+        org.apache.kafka.common.record.Record record = nextRecord();
+        return new SegmentIndexEntry(record.offset(), batchPosition, ordinal, record.sizeInBytes());
+    }
+
+    private org.apache.kafka.common.record.Record nextRecord() {
+        if (replayLastRecord) {
+            replayLastRecord = false;
+        } else {
+            lastRecord = records.next();
+            recordsRead++;
+        }
+        return lastRecord;
+    }
+
+    private boolean hasRemaining() {
+        return replayLastRecord || (records != null && records.hasNext());
+    }
+
+    private void ensureRecords() throws IOException {
+        while (!hasRemaining()) {
+            loadBatch(position());
+        }
+    }
+
+    @Override
+    SegmentReader.Verification verify(long lastBlockPosition) throws IOException {
+        closeIterator();
+        nextBatchPosition = 1; // mind the magic byte!
+        long position = nextBatchPosition;
+        int batches = 0;
+        while (position <= lastBlockPosition) {
+            readBatch(position);
+            batches++;
+            position += batchBuffer.limit();
+        }
+        return new SegmentReader.Verification(batches, batches, position - 1);
+    }
+
+    private void loadBatch(long position) throws IOException {
+        closeIterator();
+        // If loading fails, the reader stays at this position
+        nextBatchPosition = position;
+        batch = readBatch(position);
+        batchPosition = position;
+        nextBatchPosition = position + batchBuffer.limit();
+        restartIterator();
+    }
+
+    /**
+     * Reads the batch into the batchBuffer and verifies its checksum
+     */
+    private RecordBatch readBatch(long position) throws IOException {
+        headerBuffer.clear();
+        if (!readFully(channel, headerBuffer, position)) {
+            throw new EOFException("Reached end of segment at position " + position);
+        }
+        int length = headerBuffer.getInt(Records.SIZE_OFFSET);
+        if (length < MIN_BATCH_LENGTH) {
+            throw new IOException("Invalid batch header at position " + position);
+        }
+        int batchSize = Records.LOG_OVERHEAD + length;
+        if (batchBuffer == null || batchBuffer.capacity() < batchSize) {
+            batchBuffer = ByteBuffer.allocate(batchSize);
+        }
+        batchBuffer.clear();
+        batchBuffer.limit(batchSize);
+        headerBuffer.flip();
+        batchBuffer.put(headerBuffer);
+        if (!readFully(channel, batchBuffer, position + Records.LOG_OVERHEAD)) {
+            // The batch was not written completely
+            throw new EOFException("Reached end of segment at position " + position);
+        }
+        batchBuffer.flip();
+
+        RecordBatch newBatch = MemoryRecords.readableRecords(batchBuffer).batches().iterator().next();
+        if (newBatch.magic() != RecordBatch.MAGIC_VALUE_V2) {
+            throw new IOException("Unexpected magic " + newBatch.magic() + " of the batch at position " + position);
+        }
+        try {
+            newBatch.ensureValid();
+        } catch (CorruptRecordException e) {
+            throw new SegmentReader.ChecksumException("Corrupt batch at position " + position + ": " + e.getMessage());
+        }
+        return newBatch;
+    }
+
+    private void restartIterator() {
+        closeIterator();
+        records = batch.streamingIterator(bufferSupplier);
+        recordsRead = 0;
+        lastRecord = null;
+        replayLastRecord = false;
+    }
+
+    private void closeIterator() {
+        if (records != null) {
+            records.close();
+            records = null;
+        }
+        lastRecord = null;
+        replayLastRecord = false;
+    }
+
+    /**
+     * @return false if the end of the file was reached before the buffer was filled
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    @Override
+    void close() throws IOException {
+        closeIterator();
+        bufferSupplier.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,115 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects records for a V3 segment and writes them as a native Kafka RecordBatch (magic v2). The batches have the
+ * format of a broker log, so they can be read with the Kafka client classes. They are built again from the records
+ * with {@link MemoryRecordsBuilder}. Thus, they are not the batches of the producer and cost a compression per batch.
+ * <p>
+ * The index stores the position of the batch and the ordinal of the record in the batch. Records with a different
+ * timestamp type than the current batch start a new batch. Records without timestamp type are stored as CreateTime
+ * records without timestamp as RecordBatch v2 does not support them.
+ * <p>
+ * The batch is built in a buffer that is shared by all writers of a thread. Thus, a batch must be written before
+ * another writer is used on the same thread.
+ */
+class RecordBatchWriter implements BlockWriter {
+    // A batch is written as soon as it contains at least this many uncompressed bytes
+    static final int TARGET_BATCH_SIZE = SegmentBlockWriter.TARGET_BLOCK_SIZE;
+    private static final int MAX_POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BATCH_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(2 * TARGET_BATCH_SIZE));
+    private final CompressionType compressionType;
+    private MemoryRecordsBuilder builder;
+    private long baseOffset;
+    private TimestampType timestampType;
+    private long logAppendTime;
+    private int recordCount = 0;
+
+    RecordBatchWriter(CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return recordCount == 0;
+    }
+
+    @Override
+    public int uncompressedSize() {
+        return isEmpty() ? 0 : builder.uncompressedBytesWritten();
+    }
+
+    @Override
+    public void clear() {
+        recordCount = 0;
+        builder = null;
+    }
+
+    @Override
+    public boolean isFull() {
+        return !isEmpty() && builder.uncompressedBytesWritten() >= TARGET_BATCH_SIZE;
+    }
+
+    /**
+     * @return false if the offset is too far away from the base offset or the timestamp type differs from the batch.
+     * For LogAppendTime batches the timestamp must be the same as the timestamp of the batch
+     */
+    @Override
+    public boolean canAppend(Record record) {
+        if (isEmpty()) {
+            return true;
+        }
+        if (record.kafkaOffset() - baseOffset > Integer.MAX_VALUE || timestampType(record) != timestampType) {
+            return false;
+        }
+        return timestampType != TimestampType.LOG_APPEND_TIME || timestamp(record) == logAppendTime;
+    }
+
+    /**
+     * @return the ordinal of the record in the batch
+     */
+    @Override
+    public int append(Record record) {
+        if (isEmpty()) {
+            ByteBuffer buffer = BATCH_BUFFER.get();
+            buffer.clear();
+            baseOffset = record.kafkaOffset();
+            timestampType = timestampType(record);
+            logAppendTime = timestampType == TimestampType.LOG_APPEND_TIME ? timestamp(record) : RecordBatch.NO_TIMESTAMP;
+            builder = MemoryRecords.builder(buffer, RecordBatch.CURRENT_MAGIC_VALUE, compressionType, timestampType,
+                    baseOffset, logAppendTime);
+        }
+        builder.appendWithOffset(record.kafkaOffset(), timestamp(record), record.key(), record.value(), record.headers().toArray());
+        return recordCount++;
+    }
+
+    @Override
+    public void writeTo(ByteBufferOutputStream output) {
+        MemoryRecords records = builder.build();
+        output.write(records.buffer());
+        // The builder allocates a larger buffer if the records do not fit into the pooled one
+        ByteBuffer buffer = builder.buffer();
+        if (buffer.capacity() > BATCH_BUFFER.get().capacity() && buffer.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+            BATCH_BUFFER.set(buffer);
+        }
+        clear();
+    }
+
+    private static TimestampType timestampType(Record record) {
+        return record.timestampType() == TimestampType.NO_TIMESTAMP_TYPE ? TimestampType.CREATE_TIME : record.timestampType();
+    }
+
+    private static long timestamp(Record record) {
+        return record.timestamp() == null ? RecordBatch.NO_TIMESTAMP : record.timestamp();
+    }
+}
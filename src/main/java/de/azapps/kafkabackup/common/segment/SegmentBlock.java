@@ -0,0 +1,261 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.record.RecordSerde;
+import de.azapps.kafkabackup.common.record.RecordSerdeV2;
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.Checksums;
+import org.apache.kafka.common.utils.Crc32C;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * A block of records in a V2 segment.
+ * <p>
+ * Block Format:
+ * baseOffset: int64 offset of the first record in the block
+ * length: int32 number of bytes following this field
+ * attributes: int16 bits 0-2: compression codec (see {@link CompressionType}), bit 3: records in the format of
+ * {@link RecordSerdeV2} (otherwise {@link RecordSerde}), bit 4: the block has a checksum
+ * lastOffsetDelta: int32 offset of the last record minus baseOffset
+ * firstTimestamp: int64 -1 if the first record does not have a timestamp
+ * maxTimestamp: int64 -1 if no record has a timestamp
+ * recordCount: int32
+ * uncompressedLength: int32 byte length of the uncompressed records
+ * [crc: uint32] CRC32C of the block from attributes to the end, without the crc itself. Only if bit 4 is set
+ * records: byte[] compressed records. Offsets and timestamps of {@link RecordSerdeV2} records are relative to
+ * baseOffset and firstTimestamp
+ * <p>
+ * The header is modeled after the Kafka RecordBatch. Like there, the checksum can be verified without decompressing
+ * the records. The whole block is written at once so a block is either complete
+ * or the segment ends with a truncated block that is not referenced by the index.
+ */
+class SegmentBlock {
+    // baseOffset + length
+    static final int LOG_OVERHEAD = 12;
+    // Header without checksum
+    static final int HEADER_SIZE = 42;
+    static final int CHECKSUM_SIZE = 4;
+    // The checksum covers the block from here on
+    private static final int ATTRIBUTES_OFFSET = 12;
+    static final int NO_TIMESTAMP = -1;
+    private static final int COMPRESSION_CODEC_MASK = 0x07;
+    private static final int RECORD_FORMAT_V2_FLAG = 0x08;
+    private static final int CHECKSUM_FLAG = 0x10;
+
+    private final long position;
+    private final long baseOffset;
+    private final int length;
+    private final short attributes;
+    private final int lastOffsetDelta;
+    private final long firstTimestamp;
+    private final long maxTimestamp;
+    private final int recordCount;
+    private final int uncompressedLength;
+
+    SegmentBlock(long position, long baseOffset, int length, short attributes, int lastOffsetDelta, long firstTimestamp,
+                 long maxTimestamp, int recordCount, int uncompressedLength) {
+        this.position = position;
+        this.baseOffset = baseOffset;
+        this.length = length;
+        this.attributes = attributes;
+        this.lastOffsetDelta = lastOffsetDelta;
+        this.firstTimestamp = firstTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.recordCount = recordCount;
+        this.uncompressedLength = uncompressedLength;
+    }
+
+    /**
+     * Reads the header at the current position of the buffer
+     *
+     * @param position the position of the block in the segment file
+     */
+    static SegmentBlock readHeader(ByteBuffer buffer, long position) throws IOException {
+        long baseOffset = buffer.getLong();
+        int length = buffer.getInt();
+        short attributes = buffer.getShort();
+        int lastOffsetDelta = buffer.getInt();
+        long firstTimestamp = buffer.getLong();
+        long maxTimestamp = buffer.getLong();
+        int recordCount = buffer.getInt();
+        int uncompressedLength = buffer.getInt();
+        int headerSize = (attributes & CHECKSUM_FLAG) != 0 ? HEADER_SIZE + CHECKSUM_SIZE : HEADER_SIZE;
+        if (length < headerSize - LOG_OVERHEAD || uncompressedLength < 0 || recordCount < 0) {
+            throw new IOException("Invalid block header at position " + position);
+        }
+        return new SegmentBlock(position, baseOffset, length, attributes, lastOffsetDelta, firstTimestamp,
+                maxTimestamp, recordCount, uncompressedLength);
+    }
+
+    /**
+     * Reads the header of the block at the given position in the file
+     */
+    static SegmentBlock readHeader(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Reached end of segment while reading the block header at position " + position);
+            }
+        }
+        buffer.flip();
+        return readHeader(buffer, position);
+    }
+
+    static void writeHeader(ByteBuffer buffer, int blockPosition, long baseOffset, int length, short attributes,
+                            int lastOffsetDelta, long firstTimestamp, long maxTimestamp, int recordCount,
+                            int uncompressedLength) {
+        buffer.putLong(blockPosition, baseOffset);
+        buffer.putInt(blockPosition + 8, length);
+        buffer.putShort(blockPosition + 12, attributes);
+        buffer.putInt(blockPosition + 14, lastOffsetDelta);
+        buffer.putLong(blockPosition + 18, firstTimestamp);
+        buffer.putLong(blockPosition + 26, maxTimestamp);
+        buffer.putInt(blockPosition + 34, recordCount);
+        buffer.putInt(blockPosition + 38, uncompressedLength);
+    }
+
+    /**
+     * Writes the checksum of the complete block at blockPosition. The header must be written already
+     */
+    static void writeChecksum(ByteBuffer buffer, int blockPosition) {
+        int crcPosition = blockPosition + HEADER_SIZE;
+        int blockEnd = blockPosition + LOG_OVERHEAD + buffer.getInt(blockPosition + 8);
+        Checksum crc = Crc32C.create();
+        updateChecksum(crc, buffer, blockPosition + ATTRIBUTES_OFFSET, HEADER_SIZE - ATTRIBUTES_OFFSET);
+        updateChecksum(crc, buffer, crcPosition + CHECKSUM_SIZE, blockEnd - crcPosition - CHECKSUM_SIZE);
+        buffer.putInt(crcPosition, (int) crc.getValue());
+    }
+
+    /**
+     * Updates the checksum with `length` bytes of the buffer starting at the absolute position `offset`
+     */
+    private static void updateChecksum(Checksum crc, ByteBuffer buffer, int offset, int length) {
+        // Checksums.update() expects the offset relative to the position of the buffer
+        Checksums.update(crc, buffer, offset - buffer.position(), length);
+    }
+
+    static short attributes(CompressionType compressionType, boolean recordFormatV2, boolean checksum) {
+        int attributes = compressionType.id & COMPRESSION_CODEC_MASK;
+        if (recordFormatV2) {
+            attributes |= RECORD_FORMAT_V2_FLAG;
+        }
+        if (checksum) {
+            attributes |= CHECKSUM_FLAG;
+        }
+        return (short) attributes;
+    }
+
+    /**
+     * Verifies the checksum if the block has one
+     *
+     * @param header  The header of the block as returned by {@link #writeHeader} starting at position 0
+     * @param payload Everything following the header (the checksum and the compressed records) starting at position 0
+     * @throws SegmentReader.ChecksumException if the checksum does not match
+     */
+    void verifyChecksum(ByteBuffer header, ByteBuffer payload) throws SegmentReader.ChecksumException {
+        if (!hasChecksum()) {
+            return;
+        }
+        Checksum crc = Crc32C.create();
+        updateChecksum(crc, header, ATTRIBUTES_OFFSET, HEADER_SIZE - ATTRIBUTES_OFFSET);
+        updateChecksum(crc, payload, CHECKSUM_SIZE, compressedLength());
+        long expected = Integer.toUnsignedLong(payload.getInt(0));
+        if (crc.getValue() != expected) {
+            throw new SegmentReader.ChecksumException("Checksum mismatch in the block at position " + position
+                    + ": expected " + expected + " but was " + crc.getValue());
+        }
+    }
+
+    /**
+     * Decompresses the records of this block
+     *
+     * @param compressed The compressed records. Exactly `compressedLength()` bytes must be remaining
+     * @param target     Buffer to decompress to. A new buffer is allocated if it is too small
+     * @return the buffer containing the uncompressed records
+     */
+    ByteBuffer decompress(ByteBuffer compressed, ByteBuffer target, BufferSupplier bufferSupplier) throws IOException {
+        CompressionType compressionType = compressionType();
+        if (compressionType == CompressionType.NONE) {
+            return compressed;
+        }
+        if (target == null || target.capacity() < uncompressedLength) {
+            target = ByteBuffer.allocate(uncompressedLength);
+        }
+        target.clear();
+        target.limit(uncompressedLength);
+        try (InputStream inputStream = compressionType.wrapForInput(compressed, RecordBatch.MAGIC_VALUE_V2, bufferSupplier)) {
+            while (target.hasRemaining()) {
+                int read = inputStream.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+                if (read < 0) {
+                    break;
+                }
+                target.position(target.position() + read);
+            }
+            if (target.hasRemaining() || inputStream.read() != -1) {
+                throw new IOException("Uncompressed length of the block at position " + position
+                        + " does not match the expected length " + uncompressedLength);
+            }
+        }
+        target.flip();
+        return target;
+    }
+
+    long position() {
+        return position;
+    }
+
+    long nextBlockPosition() {
+        return position + LOG_OVERHEAD + length;
+    }
+
+    int headerSize() {
+        return hasChecksum() ? HEADER_SIZE + CHECKSUM_SIZE : HEADER_SIZE;
+    }
+
+    int compressedLength() {
+        return length - (headerSize() - LOG_OVERHEAD);
+    }
+
+    CompressionType compressionType() {
+        return CompressionType.forId(attributes & COMPRESSION_CODEC_MASK);
+    }
+
+    boolean hasRecordFormatV2() {
+        return (attributes & RECORD_FORMAT_V2_FLAG) != 0;
+    }
+
+    boolean hasChecksum() {
+        return (attributes & CHECKSUM_FLAG) != 0;
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    long lastOffset() {
+        return baseOffset + lastOffsetDelta;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    int recordCount() {
+        return recordCount;
+    }
+
+    int uncompressedLength() {
+        return uncompressedLength;
+    }
+}
@@ -0,0 +1,104 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.record.RecordSerdeV2;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects records for a {@link SegmentBlock} and writes the compressed block. The records are written in the compact
+ * {@link RecordSerdeV2} format relative to the first record of the block.
+ * <p>
+ * The uncompressed records are kept in a buffer that is shared by all block writers of a thread. Thus, a block must be
+ * written before another block writer is used on the same thread.
+ */
+class SegmentBlockWriter implements BlockWriter {
+    // A block is written as soon as it contains at least this many uncompressed bytes
+    static final int TARGET_BLOCK_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBufferOutputStream> UNCOMPRESSED_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteBufferOutputStream(2 * TARGET_BLOCK_SIZE));
+    private final CompressionType compressionType;
+    private ByteBufferOutputStream records;
+    private long baseOffset;
+    private long lastOffset;
+    private long firstTimestamp;
+    private long maxTimestamp;
+    private int recordCount = 0;
+
+    SegmentBlockWriter(CompressionType compressionType) {
+        this.compressionType = compressionType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return recordCount == 0;
+    }
+
+    @Override
+    public int uncompressedSize() {
+        return isEmpty() ? 0 : records.position();
+    }
+
+    @Override
+    public void clear() {
+        recordCount = 0;
+        records = null;
+    }
+
+    @Override
+    public boolean isFull() {
+        return !isEmpty() && records.position() >= TARGET_BLOCK_SIZE;
+    }
+
+    /**
+     * @return false if the offset is too far away from the base offset to be stored in this block
+     */
+    @Override
+    public boolean canAppend(Record record) {
+        return isEmpty() || record.kafkaOffset() - baseOffset <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the position of the record in the uncompressed block
+     */
+    @Override
+    public int append(Record record) throws IOException {
+        if (isEmpty()) {
+            records = UNCOMPRESSED_BUFFER.get();
+            records.position(0);
+            baseOffset = record.kafkaOffset();
+            firstTimestamp = record.timestamp() == null ? SegmentBlock.NO_TIMESTAMP : record.timestamp();
+            maxTimestamp = SegmentBlock.NO_TIMESTAMP;
+        }
+        int positionInBlock = records.position();
+        RecordSerdeV2.write(records, record, baseOffset, firstTimestamp);
+        lastOffset = record.kafkaOffset();
+        if (record.timestamp() != null) {
+            maxTimestamp = Math.max(maxTimestamp, record.timestamp());
+        }
+        recordCount++;
+        return positionInBlock;
+    }
+
+    /**
+     * Compresses the collected records and appends the block to the output. Afterwards the writer is empty again.
+     */
+    @Override
+    public void writeTo(ByteBufferOutputStream output) throws IOException {
+        int blockPosition = output.position();
+        int uncompressedLength = records.position();
+        output.position(blockPosition + SegmentBlock.HEADER_SIZE + SegmentBlock.CHECKSUM_SIZE);
+        try (OutputStream compressedStream = compressionType.wrapForOutput(output, RecordBatch.MAGIC_VALUE_V2)) {
+            compressedStream.write(records.buffer().array(), records.buffer().arrayOffset(), uncompressedLength);
+        }
+        int length = output.position() - blockPosition - SegmentBlock.LOG_OVERHEAD;
+        SegmentBlock.writeHeader(output.buffer(), blockPosition, baseOffset, length, SegmentBlock.attributes(compressionType, true, true),
+                (int) (lastOffset - baseOffset), firstTimestamp, maxTimestamp, recordCount, uncompressedLength);
+        SegmentBlock.writeChecksum(output.buffer(), blockPosition);
+        clear();
+    }
+}
@@ -0,0 +1,70 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.record.Record;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the records of a segment file sequentially. Use {@link #open(Path, String, int)} to get the reader matching
+ * the version of the segment.
+ * <p>
+ * The reader does not know about the index. Thus, it reads all records in the file, also the ones that are written
+ * after the last indexed record.
+ */
+abstract class SegmentFileReader {
+
+    static SegmentFileReader open(Path recordFile, String topic, int partition) throws IOException {
+        return open(recordFile, topic, partition, FileHandleCache.unbounded());
+    }
+
+    static SegmentFileReader open(Path recordFile, String topic, int partition, FileHandleCache fileHandleCache) throws IOException {
+        byte version = SegmentUtils.segmentVersion(recordFile);
+        if (version == SegmentUtils.V2_MAGIC_BYTE) {
+            return new BlockSegmentFileReader(recordFile, topic, partition, fileHandleCache);
+        } else if (version == SegmentUtils.V3_MAGIC_BYTE) {
+            return new RecordBatchSegmentFileReader(recordFile, topic, partition, fileHandleCache);
+        } else {
+            return new V1SegmentFileReader(recordFile, topic, partition, fileHandleCache);
+        }
+    }
+
+    /**
+     * @return the magic byte of the segment
+     */
+    abstract byte version();
+
+    /**
+     * @return the position of the next record in the file. For block based segments the position of the block (or
+     * record batch) containing the next record
+     */
+    abstract long position();
+
+    /**
+     * Moves the reader to the record described by the index entry
+     */
+    abstract void seek(SegmentIndexEntry segmentIndexEntry) throws IOException;
+
+    /**
+     * @throws java.io.EOFException if there are no more (complete) records in the segment
+     */
+    abstract Record read() throws IOException;
+
+    /**
+     * Skips the next record without copying its key, value or headers
+     *
+     * @return the index entry for the skipped record
+     */
+    abstract SegmentIndexEntry skip() throws IOException;
+
+    /**
+     * Verifies the checksums of all blocks up to the block at lastBlockPosition without decoding the records.
+     * Afterwards the reader is at the beginning of the segment.
+     *
+     * @throws SegmentReader.ChecksumException if a checksum does not match
+     */
+    abstract SegmentReader.Verification verify(long lastBlockPosition) throws IOException;
+
+    abstract void close() throws IOException;
+}
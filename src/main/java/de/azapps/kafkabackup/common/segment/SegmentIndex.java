@@ -1,127 +1,383 @@
 package de.azapps.kafkabackup.common.segment;
 
-import java.io.EOFException;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import de.azapps.kafkabackup.common.FileHandleCache;
+import org.apache.kafka.common.utils.MappedByteBuffers;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
+/**
+ * The index of a segment. It consists of fixed-width entries sorted by offset (see {@link SegmentIndexEntry}).
+ * <p>
+ * Lookups map the index file read-only and use binary search over the entries. Thus, no objects are created for the
+ * entries that are not returned. Writers keep only the last entry in memory.
+ * <p>
+ * Dense indices contain an entry for every record. They start with the magic byte of the entry format (V1 or V2).
+ * Sparse indices contain only an entry roughly every `indexIntervalBytes` bytes of records. The last record of every
+ * append is always indexed, so the last entry still marks the end of the valid data in the segment.
+ * Sparse Header Format:
+ * magic: int8 {@link #SPARSE_MAGIC_BYTE}
+ * entryVersion: int8 V1 or V2
+ * indexIntervalBytes: int32
+ */
 public class SegmentIndex {
-    private static final byte V1_MAGIC_BYTE = 0x01;
+    static final byte V1_MAGIC_BYTE = 0x01;
+    // Index for block based V2 segments
+    static final byte V2_MAGIC_BYTE = 0x02;
+    static final byte SPARSE_MAGIC_BYTE = 0x03;
+    private static final int SPARSE_HEADER_SIZE = 6;
     private Path indexFile;
-    private List<SegmentIndexEntry> index = new ArrayList<>();
+    private byte version;
+    private int headerSize = 1;
+    // 0 for dense indices
+    private int indexIntervalBytes = 0;
+    private int entryCount = 0;
+    private SegmentIndexEntry lastEntry = null;
     private long lastValidRecordOffset = -1;
-    private long lastValidIndexPosition = 1; // mind the magic byte!
-    private FileOutputStream fileOutputStream;
-    private FileInputStream fileInputStream;
+    private long lastValidIndexPosition;
+    private FileChannel channel;
+    private final FileHandleCache fileHandleCache;
+    // Mapping of the first `mappedEntryCount` entries. Created on the first lookup
+    private MappedByteBuffer mappedIndex = null;
+    private int mappedEntryCount = 0;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    // Entries are serialized into this buffer before they are written. Shared by all indices of a thread so that an
+    // open index does not keep any buffers on the heap
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024 * SegmentIndexEntry.BYTE_SIZE));
 
+    /**
+     * Opens an existing index of any version or creates a new V1 index
+     */
     public SegmentIndex(Path indexFile) throws IOException, IndexException {
+        this(indexFile, (byte) -1);
+    }
+
+    /**
+     * Opens or creates an index of the given version
+     *
+     * @param version The magic byte of the index. -1 to accept any existing version (and to create V1 indices)
+     */
+    SegmentIndex(Path indexFile, byte version) throws IOException, IndexException {
+        this(indexFile, version, 0);
+    }
+
+    /**
+     * Opens or creates an index of the given version
+     *
+     * @param version            The entry version of the index. -1 to accept any existing version (and to create V1 indices)
+     * @param indexIntervalBytes New indices are sparse if this is positive. Existing indices keep their mode
+     */
+    SegmentIndex(Path indexFile, byte version, int indexIntervalBytes) throws IOException, IndexException {
+        this(indexFile, version, indexIntervalBytes, FileHandleCache.unbounded());
+    }
+
+    /**
+     * Opens an existing index of any version through the file handle cache
+     */
+    SegmentIndex(Path indexFile, FileHandleCache fileHandleCache) throws IOException, IndexException {
+        this(indexFile, (byte) -1, 0, fileHandleCache);
+    }
+
+    /**
+     * @param fileHandleCache Limits the number of open files
+     */
+    SegmentIndex(Path indexFile, byte version, int indexIntervalBytes, FileHandleCache fileHandleCache) throws IOException, IndexException {
         this.indexFile = indexFile;
-        initFile();
-        while (true) {
-            try {
-                SegmentIndexEntry segmentIndexEntry = SegmentIndexEntry.fromStream(fileInputStream);
-                if (segmentIndexEntry.getOffset() <= lastValidRecordOffset) {
-                    throw new IndexException("Offsets must be always increasing! There is something terribly wrong in your index!");
-                }
-                index.add(segmentIndexEntry);
-                lastValidRecordOffset = segmentIndexEntry.getOffset();
-                lastValidIndexPosition = fileInputStream.getChannel().position();
-            } catch (EOFException e) {
-                // reached End of File
-                break;
+        this.fileHandleCache = fileHandleCache;
+        initFile(version == -1 ? V1_MAGIC_BYTE : version, indexIntervalBytes);
+        try {
+            readHeader();
+            if (version != -1 && this.version != version) {
+                throw new IndexException("Expected index version " + version + " but index " + indexFile + " has version " + this.version);
+            }
+            // An incomplete entry at the end of the file is ignored and overwritten by the next entry
+            entryCount = (int) ((channel.size() - headerSize) / SegmentIndexEntry.BYTE_SIZE);
+            if (entryCount > 0) {
+                ByteBuffer lastEntryBuffer = ByteBuffer.allocate(SegmentIndexEntry.BYTE_SIZE);
+                readFully(lastEntryBuffer, entryPosition(entryCount - 1));
+                lastEntry = SegmentIndexEntry.fromBuffer(lastEntryBuffer, 0, this.version);
+                lastValidRecordOffset = lastEntry.getOffset();
             }
+            lastValidIndexPosition = entryPosition(entryCount);
+        } catch (IndexException | IOException e) {
+            channel.close();
+            throw e;
         }
     }
 
-    private void initFile() throws IOException, IndexException {
-        if (!Files.isRegularFile(indexFile)) {
-            Files.createFile(indexFile);
-            fileOutputStream = new FileOutputStream(indexFile.toFile());
-            fileOutputStream.write(V1_MAGIC_BYTE);
+    private void readHeader() throws IOException, IndexException {
+        ByteBuffer header = ByteBuffer.allocate(SPARSE_HEADER_SIZE);
+        header.limit(1);
+        if (!readFully(header, 0)) {
+            throw new IndexException("Cannot validate Magic Byte in the beginning of the index " + indexFile);
+        }
+        byte magicByte = header.get(0);
+        if (magicByte == SPARSE_MAGIC_BYTE) {
+            header.limit(SPARSE_HEADER_SIZE);
+            if (!readFully(header, 1)) {
+                throw new IndexException("Incomplete header in the sparse index " + indexFile);
+            }
+            version = header.get(1);
+            indexIntervalBytes = header.getInt(2);
+            headerSize = SPARSE_HEADER_SIZE;
         } else {
-            fileOutputStream = new FileOutputStream(indexFile.toFile(), true);
+            version = magicByte;
         }
-        this.fileInputStream = new FileInputStream(indexFile.toFile());
-        byte[] v1Validation = new byte[1];
-        if (fileInputStream.read(v1Validation) != 1 || v1Validation[0] != V1_MAGIC_BYTE) {
+        if (version != V1_MAGIC_BYTE && version != V2_MAGIC_BYTE) {
             throw new IndexException("Cannot validate Magic Byte in the beginning of the index " + indexFile);
         }
     }
 
+    private long entryPosition(int entry) {
+        return headerSize + (long) entry * SegmentIndexEntry.BYTE_SIZE;
+    }
+
+    /**
+     * @return the position of the entry in the mapping of the index. Only valid for entries in the mapping
+     */
+    private int mappedEntryPosition(int entry) {
+        return Math.toIntExact(entryPosition(entry));
+    }
+
+    private void initFile(byte newFileVersion, int indexIntervalBytes) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            Files.createFile(indexFile);
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (indexIntervalBytes > 0) {
+                ByteBuffer header = ByteBuffer.allocate(SPARSE_HEADER_SIZE);
+                header.put(SPARSE_MAGIC_BYTE).put(newFileVersion).putInt(indexIntervalBytes);
+                header.flip();
+                writeFully(header, 0);
+            } else {
+                writeFully(ByteBuffer.wrap(new byte[]{newFileVersion}), 0);
+            }
+        } else {
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
     void addEntry(SegmentIndexEntry segmentIndexEntry) throws IOException, IndexException {
-        if (segmentIndexEntry.getOffset() <= lastValidRecordOffset) {
-            throw new IndexException("Offsets must be always increasing! There is something terribly wrong in your index!");
+        addEntries(Collections.singletonList(segmentIndexEntry));
+    }
+
+    void addEntries(List<SegmentIndexEntry> segmentIndexEntries) throws IOException, IndexException {
+        SegmentIndexEntries entries = new SegmentIndexEntries(segmentIndexEntries.size());
+        for (SegmentIndexEntry entry : segmentIndexEntries) {
+            entries.add(entry.getOffset(), entry.recordFilePosition(), entry.positionInBlock(), entry.recordByteLength());
         }
-        fileOutputStream.getChannel().position(lastValidIndexPosition);
-        segmentIndexEntry.writeToStream(fileOutputStream);
-        lastValidIndexPosition = fileOutputStream.getChannel().position();
-        lastValidRecordOffset = segmentIndexEntry.getOffset();
-        index.add(segmentIndexEntry);
+        addEntries(entries);
     }
 
-    Optional<SegmentIndexEntry> lastIndexEntry() {
-        if (!index.isEmpty()) {
-            return Optional.of(index.get(index.size() - 1));
-        } else {
-            return Optional.empty();
+    /**
+     * Appends all entries to the index with a single write
+     */
+    void addEntries(SegmentIndexEntries segmentIndexEntries) throws IOException, IndexException {
+        if (segmentIndexEntries.isEmpty()) {
+            return;
+        }
+        int byteSize = segmentIndexEntries.size() * SegmentIndexEntry.BYTE_SIZE;
+        ByteBuffer writeBuffer = WRITE_BUFFER.get();
+        if (writeBuffer.capacity() < byteSize) {
+            writeBuffer = ByteBuffer.allocate(byteSize);
+            if (byteSize <= MAX_POOLED_BUFFER_SIZE) {
+                WRITE_BUFFER.set(writeBuffer);
+            }
+        }
+        writeBuffer.clear();
+        long previousOffset = lastValidRecordOffset;
+        for (int i = 0; i < segmentIndexEntries.size(); i++) {
+            if (segmentIndexEntries.offset(i) <= previousOffset) {
+                throw new IndexException("Offsets must be always increasing! There is something terribly wrong in your index!");
+            }
+            segmentIndexEntries.writeToBuffer(writeBuffer, i, version);
+            previousOffset = segmentIndexEntries.offset(i);
+        }
+        writeBuffer.flip();
+        writeFully(writeBuffer, lastValidIndexPosition);
+        lastValidIndexPosition += byteSize;
+        lastValidRecordOffset = previousOffset;
+        entryCount += segmentIndexEntries.size();
+        lastEntry = segmentIndexEntries.get(segmentIndexEntries.size() - 1);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
         }
     }
 
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * @return a read-only mapping containing all entries
+     */
+    private MappedByteBuffer mappedIndex() throws IOException {
+        if (mappedIndex == null || mappedEntryCount != entryCount) {
+            unmap();
+            long size = entryPosition(entryCount);
+            // A mapping is limited to 2 GiB
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Index " + indexFile + " is too large to be mapped: " + size + " bytes");
+            }
+            mappedIndex = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mappedEntryCount = entryCount;
+        }
+        return mappedIndex;
+    }
+
+    private void unmap() throws IOException {
+        if (mappedIndex != null) {
+            MappedByteBuffers.unmap(indexFile.toString(), mappedIndex);
+            mappedIndex = null;
+        }
+    }
+
+    /**
+     * @return the number of the first entry with an offset greater or equal than the given offset. `size()` if there
+     * is no such entry
+     */
+    private int lowerBound(long offset) throws IOException {
+        if (entryCount == 0 || offset > lastValidRecordOffset) {
+            return entryCount;
+        }
+        MappedByteBuffer index = mappedIndex();
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getLong(mappedEntryPosition(mid)) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private SegmentIndexEntry entry(int entry) throws IOException {
+        return SegmentIndexEntry.fromBuffer(mappedIndex(), mappedEntryPosition(entry), version);
+    }
+
+    Optional<SegmentIndexEntry> lastIndexEntry() {
+        return Optional.ofNullable(lastEntry);
+    }
+
     long lastValidStartPosition() {
-        if (!index.isEmpty()) {
-            return index.get(index.size() - 1).recordFilePosition();
+        if (lastEntry != null) {
+            return lastEntry.recordFilePosition();
         } else {
             return 0L;
         }
 
     }
 
-    Optional<SegmentIndexEntry> getByPosition(int position) {
-        if (position >= index.size()) {
+    Optional<SegmentIndexEntry> getByPosition(int position) throws IOException {
+        if (position >= entryCount) {
             return Optional.empty();
         } else {
-            return Optional.of(index.get(position));
+            return Optional.of(entry(position));
         }
     }
 
-    Optional<Long> findByOffset(long offset) {
-        for (SegmentIndexEntry current : index) {
-            if (current.getOffset() == offset) {
-                return Optional.of(current.recordFilePosition());
-            }
+    /**
+     * Only finds indexed offsets. In sparse indices most offsets are not indexed
+     */
+    Optional<Long> findByOffset(long offset) throws IOException {
+        int entry = lowerBound(offset);
+        if (entry < entryCount && mappedIndex().getLong(mappedEntryPosition(entry)) == offset) {
+            return Optional.of(mappedIndex().getLong(mappedEntryPosition(entry) + Long.BYTES));
         }
         return Optional.empty();
     }
 
-    Optional<Long> findEarliestWithHigherOrEqualOffset(long offset) {
-        for (SegmentIndexEntry current : index) {
-            if (current.getOffset() >= offset) {
-                return Optional.of(current.recordFilePosition());
-            }
+    Optional<Long> findEarliestWithHigherOrEqualOffset(long offset) throws IOException {
+        return findEarliestEntryWithHigherOrEqualOffset(offset).map(SegmentIndexEntry::recordFilePosition);
+    }
+
+    Optional<SegmentIndexEntry> findEarliestEntryWithHigherOrEqualOffset(long offset) throws IOException {
+        int entry = lowerBound(offset);
+        if (entry < entryCount) {
+            return Optional.of(entry(entry));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the entry with the highest offset that is lower or equal than the given offset
+     */
+    Optional<SegmentIndexEntry> findLatestEntryWithLowerOrEqualOffset(long offset) throws IOException {
+        int entry = lowerBound(offset);
+        if (entry < entryCount && mappedIndex().getLong(mappedEntryPosition(entry)) == offset) {
+            return Optional.of(entry(entry));
+        } else if (entry > 0) {
+            return Optional.of(entry(entry - 1));
         }
         return Optional.empty();
     }
 
+    /**
+     * @return the version of the entries. Matches the version of the segment
+     */
+    byte version() {
+        return version;
+    }
+
+    boolean isSparse() {
+        return indexIntervalBytes > 0;
+    }
+
+    /**
+     * @return the minimum number of record bytes between two entries of a sparse index. 0 for dense indices
+     */
+    public int indexIntervalBytes() {
+        return indexIntervalBytes;
+    }
+
     int size() {
-        return index.size();
+        return entryCount;
     }
 
-    public List<SegmentIndexEntry> index() {
+    /**
+     * Reads all entries of the index. Creates an object per entry, so use it only for tooling
+     */
+    public List<SegmentIndexEntry> index() throws IOException {
+        List<SegmentIndexEntry> index = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            index.add(entry(i));
+        }
         return index;
     }
 
     void flush() throws IOException {
-        fileOutputStream.flush();
+        // All writes go directly to the channel. Nothing to do here
+    }
+
+    void force() throws IOException {
+        channel.force(false);
     }
 
     void close() throws IOException {
-        fileInputStream.close();
-        fileOutputStream.close();
+        unmap();
+        channel.close();
     }
 
     public static class IndexException extends Exception {
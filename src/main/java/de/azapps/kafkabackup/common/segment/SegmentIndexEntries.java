@@ -0,0 +1,80 @@
+package de.azapps.kafkabackup.common.segment;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A list of index entries stored in parallel primitive arrays. Used to collect the index entries of a batch without
+ * creating an object per entry.
+ */
+class SegmentIndexEntries {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private long[] offsets;
+    private long[] recordFilePositions;
+    private int[] positionsInBlock;
+    private long[] recordByteLengths;
+    private int size = 0;
+
+    SegmentIndexEntries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    SegmentIndexEntries(int capacity) {
+        offsets = new long[capacity];
+        recordFilePositions = new long[capacity];
+        positionsInBlock = new int[capacity];
+        recordByteLengths = new long[capacity];
+    }
+
+    void add(long offset, long recordFilePosition, int positionInBlock, long recordByteLength) {
+        if (size == offsets.length) {
+            int capacity = Math.max(2 * size, DEFAULT_CAPACITY);
+            offsets = Arrays.copyOf(offsets, capacity);
+            recordFilePositions = Arrays.copyOf(recordFilePositions, capacity);
+            positionsInBlock = Arrays.copyOf(positionsInBlock, capacity);
+            recordByteLengths = Arrays.copyOf(recordByteLengths, capacity);
+        }
+        offsets[size] = offset;
+        recordFilePositions[size] = recordFilePosition;
+        positionsInBlock[size] = positionInBlock;
+        recordByteLengths[size] = recordByteLength;
+        size++;
+    }
+
+    void removeLast() {
+        size--;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int capacity() {
+        return offsets.length;
+    }
+
+    long offset(int entry) {
+        return offsets[entry];
+    }
+
+    long recordByteLength(int entry) {
+        return recordByteLengths[entry];
+    }
+
+    SegmentIndexEntry get(int entry) {
+        return new SegmentIndexEntry(offsets[entry], recordFilePositions[entry], positionsInBlock[entry], recordByteLengths[entry]);
+    }
+
+    void writeToBuffer(ByteBuffer buffer, int entry, byte version) {
+        SegmentIndexEntry.writeToBuffer(buffer, version, offsets[entry], recordFilePositions[entry],
+                positionsInBlock[entry], recordByteLengths[entry]);
+    }
+}
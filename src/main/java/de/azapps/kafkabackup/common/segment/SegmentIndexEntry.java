@@ -1,31 +1,52 @@
 package de.azapps.kafkabackup.common.segment;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
- * Format:
+ * V1 Format (for V1 segments):
  * offset: int64
  * recordFilePosition: int64
  * recordLength: int64
+ * <p>
+ * V2 Format (for V2 segments):
+ * offset: int64
+ * recordFilePosition: int64 position of the block containing the record
+ * positionInBlock: int32 position of the record in the uncompressed block
+ * recordLength: int32 uncompressed length of the record
  */
 public class SegmentIndexEntry {
+    static final int BYTE_SIZE = 3 * Long.BYTES;
     private final long offset;
     private final long recordFilePosition;
+    private final int positionInBlock;
     private final long recordByteLength;
 
     SegmentIndexEntry(long offset, long recordFilePosition, long recordByteLength) {
+        this(offset, recordFilePosition, 0, recordByteLength);
+    }
+
+    SegmentIndexEntry(long offset, long recordFilePosition, int positionInBlock, long recordByteLength) {
         this.offset = offset;
         this.recordFilePosition = recordFilePosition;
+        this.positionInBlock = positionInBlock;
         this.recordByteLength = recordByteLength;
     }
 
-    static SegmentIndexEntry fromStream(InputStream byteStream) throws IOException {
-        DataInputStream stream = new DataInputStream(byteStream);
-        long offset = stream.readLong();
-        long recordFileOffset = stream.readLong();
-        long recordByteLength = stream.readLong();
-        return new SegmentIndexEntry(offset, recordFileOffset, recordByteLength);
+    /**
+     * Reads the entry at the given position of the buffer without changing the position of the buffer
+     */
+    static SegmentIndexEntry fromBuffer(ByteBuffer buffer, int position, byte version) {
+        long offset = buffer.getLong(position);
+        long recordFilePosition = buffer.getLong(position + 8);
+        if (version == SegmentIndex.V1_MAGIC_BYTE) {
+            long recordByteLength = buffer.getLong(position + 16);
+            return new SegmentIndexEntry(offset, recordFilePosition, recordByteLength);
+        } else {
+            int positionInBlock = buffer.getInt(position + 16);
+            int recordByteLength = buffer.getInt(position + 20);
+            return new SegmentIndexEntry(offset, recordFilePosition, positionInBlock, recordByteLength);
+        }
     }
 
     public long getOffset() {
@@ -36,20 +57,33 @@ public class SegmentIndexEntry {
         return recordFilePosition;
     }
 
+    public int positionInBlock() {
+        return positionInBlock;
+    }
+
     public long recordByteLength() {
         return recordByteLength;
     }
 
-    void writeToStream(OutputStream byteStream) throws IOException {
-        DataOutputStream stream = new DataOutputStream(byteStream);
-        stream.writeLong(offset);
-        stream.writeLong(recordFilePosition);
-        stream.writeLong(recordByteLength);
+    void writeToBuffer(ByteBuffer buffer, byte version) {
+        writeToBuffer(buffer, version, offset, recordFilePosition, positionInBlock, recordByteLength);
+    }
+
+    static void writeToBuffer(ByteBuffer buffer, byte version, long offset, long recordFilePosition, int positionInBlock,
+                              long recordByteLength) {
+        buffer.putLong(offset);
+        buffer.putLong(recordFilePosition);
+        if (version == SegmentIndex.V1_MAGIC_BYTE) {
+            buffer.putLong(recordByteLength);
+        } else {
+            buffer.putInt(positionInBlock);
+            buffer.putInt((int) recordByteLength);
+        }
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(offset, recordFilePosition, recordByteLength);
+        return Objects.hash(offset, recordFilePosition, positionInBlock, recordByteLength);
     }
 
     @Override
@@ -63,12 +97,13 @@ public class SegmentIndexEntry {
 
         return Objects.equals(getOffset(), that.getOffset())
                 && Objects.equals(recordFilePosition(), that.recordFilePosition())
+                && Objects.equals(positionInBlock(), that.positionInBlock())
                 && Objects.equals(recordByteLength(), that.recordByteLength());
     }
 
     @Override
     public String toString() {
-        return String.format("SegmentIndexEntry{offset: %d, recordFilePosition: %d, recordByteLength: %d}",
-                offset, recordFilePosition, recordByteLength);
+        return String.format("SegmentIndexEntry{offset: %d, recordFilePosition: %d, positionInBlock: %d, recordByteLength: %d}",
+                offset, recordFilePosition, positionInBlock, recordByteLength);
     }
 }
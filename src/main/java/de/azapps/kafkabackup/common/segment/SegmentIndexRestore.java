@@ -1,7 +1,5 @@
 package de.azapps.kafkabackup.common.segment;
 
-import de.azapps.kafkabackup.common.record.Record;
-
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -12,6 +10,14 @@ public class SegmentIndexRestore {
     private final UnverifiedSegmentReader reader;
 
     public SegmentIndexRestore(Path segmentFile) throws IOException, RestoreException, SegmentIndex.IndexException {
+        this(segmentFile, 0);
+    }
+
+    /**
+     * @param indexIntervalBytes Restores a sparse index with an entry roughly every indexIntervalBytes bytes of records
+     *                           if this is positive
+     */
+    public SegmentIndexRestore(Path segmentFile, int indexIntervalBytes) throws IOException, RestoreException, SegmentIndex.IndexException {
         int partition = SegmentUtils.getPartitionFromSegment(segmentFile);
         long startOffset = SegmentUtils.getStartOffsetFromSegment(segmentFile);
         Path parent = segmentFile.toAbsolutePath().getParent();
@@ -26,25 +32,37 @@ public class SegmentIndexRestore {
         if (Files.isRegularFile(indexFile)) {
             throw new RestoreException("Index file " + indexFile + " must not exist");
         }
-        segmentIndex = new SegmentIndex(indexFile);
         reader = new UnverifiedSegmentReader(segmentFile);
+        segmentIndex = new SegmentIndex(indexFile, SegmentUtils.indexVersion(reader.version()), indexIntervalBytes);
     }
 
     public void restore() throws IOException, SegmentIndex.IndexException {
-        long lastPosition = 1; // mind the magic byte!
+        // The batch boundaries are unknown. Thus, a sparse index gets the first and the last record of the segment and
+        // an entry every indexIntervalBytes bytes of records
+        SegmentIndexEntry unindexedEntry = null;
+        long bytesSinceLastIndexEntry = 0;
         while (true) {
+            SegmentIndexEntry segmentIndexEntry;
             try {
-                Record record = reader.read();
-                long currentPosition = reader.position();
-                SegmentIndexEntry indexEntry = new SegmentIndexEntry(record.kafkaOffset(), lastPosition, currentPosition - lastPosition);
-                segmentIndex.addEntry(indexEntry);
-                lastPosition = currentPosition;
+                segmentIndexEntry = reader.skipEntry();
             } catch (EOFException e) {
                 break;
             }
+            bytesSinceLastIndexEntry += segmentIndexEntry.recordByteLength();
+            if (!segmentIndex.isSparse() || segmentIndex.size() == 0 || bytesSinceLastIndexEntry >= segmentIndex.indexIntervalBytes()) {
+                segmentIndex.addEntry(segmentIndexEntry);
+                bytesSinceLastIndexEntry = 0;
+                unindexedEntry = null;
+            } else {
+                unindexedEntry = segmentIndexEntry;
+            }
+        }
+        if (unindexedEntry != null) {
+            segmentIndex.addEntry(unindexedEntry);
         }
         segmentIndex.flush();
         segmentIndex.close();
+        reader.close();
     }
 
     public static class RestoreException extends Exception {
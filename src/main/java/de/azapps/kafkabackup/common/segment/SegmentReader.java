@@ -1,12 +1,10 @@
 package de.azapps.kafkabackup.common.segment;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.record.Record;
-import de.azapps.kafkabackup.common.record.RecordSerde;
 
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -17,18 +15,31 @@ public class SegmentReader {
     private final String topic;
     private final int partition;
     private final String filePrefix;
+    private final Path topicDir;
+    private final FileHandleCache fileHandleCache;
     private final SegmentIndex segmentIndex;
-    private final FileInputStream recordInputStream;
-    private final long lastValidStartPosition;
+    private final SegmentFileReader recordReader;
+    private final long lastIndexedOffset;
+    // Offset of the last record returned by this reader. Every indexed record with a higher offset is still to be read
+    private long lastReadOffset = -1;
 
     public SegmentReader(String topic, int partition, Path topicDir, long startOffset) throws IOException, SegmentIndex.IndexException {
         this(topic, partition, topicDir, SegmentUtils.filePrefix(partition, startOffset));
     }
 
     public SegmentReader(String topic, int partition, Path topicDir, String filePrefix) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, topicDir, filePrefix, FileHandleCache.unbounded());
+    }
+
+    /**
+     * @param fileHandleCache The record file and the index are opened through this cache
+     */
+    public SegmentReader(String topic, int partition, Path topicDir, String filePrefix, FileHandleCache fileHandleCache) throws IOException, SegmentIndex.IndexException {
         this.topic = topic;
         this.partition = partition;
         this.filePrefix = filePrefix;
+        this.topicDir = topicDir;
+        this.fileHandleCache = fileHandleCache;
 
         Path indexFile = SegmentUtils.indexFile(topicDir, filePrefix);
         Path recordFile = SegmentUtils.recordsFile(topicDir, filePrefix);
@@ -38,32 +49,83 @@ public class SegmentReader {
         if (!Files.isRegularFile(recordFile)) {
             throw new RuntimeException("Segment not found: " + recordFile.toString());
         }
-        segmentIndex = new SegmentIndex(indexFile);
-        recordInputStream = new FileInputStream(recordFile.toFile());
-        SegmentUtils.ensureValidSegment(recordInputStream);
-        lastValidStartPosition = segmentIndex.lastValidStartPosition();
+        segmentIndex = new SegmentIndex(indexFile, fileHandleCache);
+        recordReader = SegmentFileReader.open(recordFile, topic, partition, fileHandleCache);
+        lastIndexedOffset = segmentIndex.lastIndexEntry().map(SegmentIndexEntry::getOffset).orElse(-1L);
     }
 
+    /**
+     * Seeks to the first record with an offset higher or equal than the given offset. Starts at the nearest index entry
+     * below the offset and skips the records in between (there are some only in sparse indices or if there are gaps in
+     * the offsets).
+     */
     public void seek(long offset) throws IOException {
-        Optional<Long> optionalPosition = segmentIndex.findEarliestWithHigherOrEqualOffset(offset);
-        if (optionalPosition.isPresent()) {
-            recordInputStream.getChannel().position(optionalPosition.get());
-        } else {
-            // If we couldn't find such a record, skip to EOF. This will make sure that hasMoreData() returns false.
-            FileChannel fileChannel = recordInputStream.getChannel();
-            fileChannel.position(fileChannel.size());
+        if (offset > lastIndexedOffset) {
+            // If we couldn't find such a record, skip to the end. This will make sure that hasMoreData() returns false.
+            lastReadOffset = lastIndexedOffset;
+            return;
+        }
+        Optional<SegmentIndexEntry> optionalEntry = segmentIndex.findLatestEntryWithLowerOrEqualOffset(offset);
+        if (!optionalEntry.isPresent()) {
+            // The offset is lower than the first offset in the segment
+            optionalEntry = segmentIndex.getByPosition(0);
+        }
+        //noinspection OptionalGetWithoutIsPresent there is at least one entry as lastIndexedOffset >= offset
+        SegmentIndexEntry entry = optionalEntry.get();
+        recordReader.seek(entry);
+        while (entry.getOffset() < offset) {
+            entry = recordReader.skip();
+            if (entry.getOffset() >= offset) {
+                recordReader.seek(entry);
+            }
         }
+        lastReadOffset = entry.getOffset() - 1;
     }
 
-    public boolean hasMoreData() throws IOException {
-        return recordInputStream.getChannel().position() <= lastValidStartPosition;
+    /**
+     * Seeks to the first record with a timestamp higher or equal than the given timestamp. Like Kafka, the records after
+     * it are returned regardless of their timestamps. The time index tells where to start reading. Without one (in
+     * segments written by older versions) the segment is read from the beginning.
+     *
+     * @return whether there is such a record. Otherwise, the reader is at the end of the segment
+     */
+    public boolean seekToTimestamp(long timestamp) throws IOException, SegmentIndex.IndexException {
+        long startOffset = -1;
+        Path timeIndexFile = SegmentUtils.timeIndexFile(topicDir, filePrefix);
+        if (Files.isRegularFile(timeIndexFile)) {
+            SegmentTimeIndex timeIndex = new SegmentTimeIndex(timeIndexFile, fileHandleCache);
+            try {
+                if (timeIndex.maxTimestamp() < timestamp) {
+                    lastReadOffset = lastIndexedOffset;
+                    return false;
+                }
+                startOffset = timeIndex.lastOffsetBefore(timestamp);
+            } finally {
+                timeIndex.close();
+            }
+        }
+        seek(Math.max(startOffset, 0));
+        while (hasMoreData()) {
+            Record record = read();
+            if (record.timestamp() != null && record.timestamp() >= timestamp) {
+                seek(record.kafkaOffset());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasMoreData() {
+        return lastReadOffset < lastIndexedOffset;
     }
 
     public Record read() throws IOException {
         if (!hasMoreData()) {
             throw new EOFException("Already read the last valid record in topic " + topic + ", segment " + filePrefix);
         }
-        return RecordSerde.read(topic, partition, recordInputStream);
+        Record record = recordReader.read();
+        lastReadOffset = record.kafkaOffset();
+        return record;
     }
 
     public List<Record> readN(int n) throws IOException {
@@ -84,8 +146,59 @@ public class SegmentReader {
         return records;
     }
 
+    /**
+     * Verifies the checksums of all indexed blocks by streaming through the segment. The records are not decoded.
+     * V1 segments do not have checksums. Afterwards the reader continues where it was before.
+     *
+     * @throws ChecksumException if a checksum does not match
+     */
+    public Verification verify() throws IOException {
+        long lastBlockPosition = segmentIndex.lastIndexEntry().map(SegmentIndexEntry::recordFilePosition).orElse(-1L);
+        Verification verification = recordReader.verify(lastBlockPosition);
+        if (hasMoreData()) {
+            seek(lastReadOffset + 1);
+        }
+        return verification;
+    }
+
     public void close() throws IOException {
-        recordInputStream.close();
+        recordReader.close();
         segmentIndex.close();
     }
+
+    public static class Verification {
+        private final int blocks;
+        private final int checkedBlocks;
+        private final long checkedBytes;
+
+        Verification(int blocks, int checkedBlocks, long checkedBytes) {
+            this.blocks = blocks;
+            this.checkedBlocks = checkedBlocks;
+            this.checkedBytes = checkedBytes;
+        }
+
+        /**
+         * @return the number of blocks (or record batches) in the segment
+         */
+        public int blocks() {
+            return blocks;
+        }
+
+        /**
+         * @return the number of blocks with a checksum. Blocks written by older versions do not have one
+         */
+        public int checkedBlocks() {
+            return checkedBlocks;
+        }
+
+        public long checkedBytes() {
+            return checkedBytes;
+        }
+    }
+
+    public static class ChecksumException extends IOException {
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,240 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.FileHandleCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * The sparse time index of a segment, similar to the `.timeindex` of Kafka. It is written next to the segment for every
+ * batch that raises the maximum timestamp of the segment.
+ * <p>
+ * An entry (timestamp, offset) means that `timestamp` is the maximum timestamp of all records up to the end of the
+ * batch and that `offset` is the first record with this timestamp. Thus, both timestamps and offsets are increasing and
+ * the last entry holds the maximum timestamp of the segment. Records without a timestamp are not indexed.
+ * <p>
+ * <p>
+ * The V2 header also holds the creation time of the segment, so that the age of a reopened segment is measured with the
+ * same clock as the age of a new one.
+ * <p>
+ * Format:
+ * magic: int8 {@link #V1_MAGIC_BYTE} or {@link #V2_MAGIC_BYTE}
+ * createdMs: int64 only in V2
+ * entries: [timestamp: int64, offset: int64]
+ */
+public class SegmentTimeIndex {
+    static final byte V1_MAGIC_BYTE = 0x01;
+    static final byte V2_MAGIC_BYTE = 0x02;
+    private static final int V1_HEADER_SIZE = 1;
+    private static final int V2_HEADER_SIZE = 1 + Long.BYTES;
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    private final Path indexFile;
+    private final FileChannel channel;
+    private final int headerSize;
+    // -1 for V1 indices
+    private final long createdMs;
+    private int entryCount;
+    private long maxTimestamp = -1;
+    private long lastOffset = -1;
+    private final ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+
+    /**
+     * Opens an existing time index or creates a new one created now
+     */
+    SegmentTimeIndex(Path indexFile, FileHandleCache fileHandleCache) throws IOException, SegmentIndex.IndexException {
+        this(indexFile, System.currentTimeMillis(), fileHandleCache);
+    }
+
+    /**
+     * Opens an existing time index or creates a new V2 index
+     *
+     * @param createdMs The creation time of the segment stored in a new index
+     */
+    SegmentTimeIndex(Path indexFile, long createdMs, FileHandleCache fileHandleCache) throws IOException, SegmentIndex.IndexException {
+        this.indexFile = indexFile;
+        if (!Files.isRegularFile(indexFile)) {
+            Files.createFile(indexFile);
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(V2_HEADER_SIZE);
+            header.put(V2_MAGIC_BYTE).putLong(createdMs).flip();
+            writeFully(header, 0);
+        } else {
+            channel = fileHandleCache.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(V2_HEADER_SIZE);
+            header.limit(1);
+            if (!readFully(header, 0)) {
+                throw new SegmentIndex.IndexException("Cannot validate Magic Byte in the beginning of the time index " + indexFile);
+            }
+            if (header.get(0) == V2_MAGIC_BYTE) {
+                header.limit(V2_HEADER_SIZE);
+                if (!readFully(header, 1)) {
+                    throw new SegmentIndex.IndexException("Incomplete header in the time index " + indexFile);
+                }
+                headerSize = V2_HEADER_SIZE;
+                this.createdMs = header.getLong(1);
+            } else if (header.get(0) == V1_MAGIC_BYTE) {
+                headerSize = V1_HEADER_SIZE;
+                this.createdMs = -1;
+            } else {
+                throw new SegmentIndex.IndexException("Cannot validate Magic Byte in the beginning of the time index " + indexFile);
+            }
+            // An incomplete entry at the end of the file is ignored and overwritten by the next entry
+            entryCount = (int) ((channel.size() - headerSize) / ENTRY_SIZE);
+            if (entryCount > 0) {
+                readEntry(entryCount - 1);
+                maxTimestamp = entryBuffer.getLong(0);
+                lastOffset = entryBuffer.getLong(Long.BYTES);
+            }
+        } catch (SegmentIndex.IndexException | IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds an entry if the timestamp is higher than all timestamps in the index
+     */
+    void maybeAppend(long timestamp, long offset) throws IOException, SegmentIndex.IndexException {
+        if (timestamp <= maxTimestamp) {
+            return;
+        }
+        if (offset <= lastOffset) {
+            throw new SegmentIndex.IndexException("Offsets must be always increasing! There is something terribly wrong in your time index " + indexFile + "!");
+        }
+        entryBuffer.clear();
+        entryBuffer.putLong(timestamp).putLong(offset);
+        entryBuffer.flip();
+        writeFully(entryBuffer, entryPosition(entryCount));
+        entryCount++;
+        maxTimestamp = timestamp;
+        lastOffset = offset;
+    }
+
+    /**
+     * Removes the entries of records after the given offset. Used to drop entries of records that were not completely
+     * written to the segment
+     */
+    void truncateAfter(long offset) throws IOException {
+        int entries = entryCount;
+        while (entries > 0) {
+            readEntry(entries - 1);
+            if (entryBuffer.getLong(Long.BYTES) <= offset) {
+                break;
+            }
+            entries--;
+        }
+        if (entries < entryCount) {
+            channel.truncate(entryPosition(entries));
+            entryCount = entries;
+            maxTimestamp = -1;
+            lastOffset = -1;
+            if (entries > 0) {
+                maxTimestamp = entryBuffer.getLong(0);
+                lastOffset = entryBuffer.getLong(Long.BYTES);
+            }
+        }
+    }
+
+    /**
+     * @return the offset of the last entry with a timestamp lower than the given timestamp. All records before this
+     * offset have a lower timestamp. -1 if there is no such entry
+     */
+    long lastOffsetBefore(long timestamp) throws IOException {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            readEntry(mid);
+            if (entryBuffer.getLong(0) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return -1;
+        }
+        readEntry(low - 1);
+        return entryBuffer.getLong(Long.BYTES);
+    }
+
+    /**
+     * @return the creation time of the segment. -1 if the index does not know it (V1)
+     */
+    long createdMs() {
+        return createdMs;
+    }
+
+    /**
+     * @return the maximum timestamp of the records in the segment. -1 if no record has a timestamp
+     */
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    /**
+     * Reads only the last entry of the time index
+     *
+     * @return the maximum timestamp of the records in the segment. -1 if no record has a timestamp. Empty if the
+     * segment has no time index. Segments written by older versions do not have one
+     */
+    public static Optional<Long> maxTimestamp(Path topicDir, String filePrefix, FileHandleCache fileHandleCache) throws IOException, SegmentIndex.IndexException {
+        Path indexFile = SegmentUtils.timeIndexFile(topicDir, filePrefix);
+        if (!Files.isRegularFile(indexFile)) {
+            return Optional.empty();
+        }
+        SegmentTimeIndex timeIndex = new SegmentTimeIndex(indexFile, fileHandleCache);
+        try {
+            return Optional.of(timeIndex.maxTimestamp());
+        } finally {
+            timeIndex.close();
+        }
+    }
+
+    private long entryPosition(int entry) {
+        return headerSize + (long) entry * ENTRY_SIZE;
+    }
+
+    private void readEntry(int entry) throws IOException {
+        entryBuffer.clear();
+        if (!readFully(entryBuffer, entryPosition(entry))) {
+            throw new IOException("Unexpected end of the time index " + indexFile);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
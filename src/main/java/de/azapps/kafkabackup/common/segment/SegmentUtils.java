@@ -1,7 +1,8 @@
 package de.azapps.kafkabackup.common.segment;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.regex.Matcher;
@@ -10,20 +11,38 @@ import java.util.regex.Pattern;
 public class SegmentUtils {
 
     static final byte V1_MAGIC_BYTE = 0x01;
+    // Records are grouped into (compressed) blocks. See SegmentBlock
+    static final byte V2_MAGIC_BYTE = 0x02;
+    // Records are stored as native Kafka RecordBatches. See RecordBatchWriter
+    static final byte V3_MAGIC_BYTE = 0x03;
     private static final Pattern SEGMENT_PATTERN = Pattern.compile("^segment_partition_([0-9]+)_from_offset_([0-9]+)_records$");
 
     public static String filePrefix(int partition, long startOffset) {
         return String.format("segment_partition_%03d_from_offset_%010d", partition, startOffset);
     }
 
-    static void ensureValidSegment(FileInputStream inputStream) throws IOException {
-        inputStream.getChannel().position(0);
-        byte[] v1Validation = new byte[1];
-        if (inputStream.read(v1Validation) != 1 || v1Validation[0] != SegmentUtils.V1_MAGIC_BYTE) {
-            throw new IOException("Cannot validate Magic Byte in the beginning of the Segment");
+    /**
+     * Validates the magic byte of the segment
+     *
+     * @return the version of the segment
+     */
+    static byte segmentVersion(Path recordFile) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(recordFile)) {
+            int magicByte = inputStream.read();
+            if (magicByte != V1_MAGIC_BYTE && magicByte != V2_MAGIC_BYTE && magicByte != V3_MAGIC_BYTE) {
+                throw new IOException("Cannot validate Magic Byte in the beginning of the Segment");
+            }
+            return (byte) magicByte;
         }
     }
 
+    /**
+     * @return the version of the index entries for a segment of the given version. Only V1 segments use V1 entries
+     */
+    static byte indexVersion(byte segmentVersion) {
+        return segmentVersion == V1_MAGIC_BYTE ? SegmentIndex.V1_MAGIC_BYTE : SegmentIndex.V2_MAGIC_BYTE;
+    }
+
     public static Path indexFile(Path topicDir, int partition, long startOffset) {
         return indexFile(topicDir, filePrefix(partition, startOffset));
     }
@@ -32,6 +51,14 @@ public class SegmentUtils {
         return Paths.get(topicDir.toString(), filePrefix + "_index");
     }
 
+    public static Path timeIndexFile(Path topicDir, int partition, long startOffset) {
+        return timeIndexFile(topicDir, filePrefix(partition, startOffset));
+    }
+
+    static Path timeIndexFile(Path topicDir, String filePrefix) {
+        return Paths.get(topicDir.toString(), filePrefix + "_timeindex");
+    }
+
     public static Path recordsFile(Path topicDir, int partition, long startOffset) {
         return recordsFile(topicDir, filePrefix(partition, startOffset));
     }
@@ -1,51 +1,164 @@
 package de.azapps.kafkabackup.common.segment;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.record.Record;
-import de.azapps.kafkabackup.common.record.RecordSerde;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public class SegmentWriter {
+    private static final int MAX_POOLED_BUFFER_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_POOLED_INDEX_ENTRIES = 64 * 1024;
+    // Records are serialized into this buffer and then written with a single write per batch.
+    // The buffer is shared by all writers of a thread to keep the memory footprint low with many partitions
+    private static final ThreadLocal<ByteBufferOutputStream> RECORD_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteBufferOutputStream(64 * 1024));
+    // The index entries of the current batch. Shared the same way as the RECORD_BUFFER
+    private static final ThreadLocal<SegmentIndexEntries> INDEX_ENTRIES = ThreadLocal.withInitial(SegmentIndexEntries::new);
     private final String topic;
     private final int partition;
     private final long startOffset;
     private final SegmentIndex segmentIndex;
-    private final FileOutputStream recordOutputStream;
+    // null for segments written by older versions without a time index
+    private final SegmentTimeIndex timeIndex;
+    private final FileChannel recordChannel;
+    // The position in the record file where the next record will be written
+    private long position;
+    private final byte version;
+    // Groups the records into blocks for V2 segments and into record batches for V3 segments. null for V1 segments,
+    // which are only read
+    private final BlockWriter blockWriter;
+    // The position in the record file of the block currently written by the blockWriter
+    private long currentBlockPosition;
+    // Record bytes appended since the last entry of a sparse index
+    private long bytesSinceLastIndexEntry = 0;
+    // Whether anything was written since the last force()
+    private boolean dirty = false;
+    // Creation time of the segment and the number of records in it. Used to decide when to roll the segment. The
+    // creation time is stored in the time index
+    private final long createdMs;
+    private long recordCount;
+    // The record file is filled with zeros up to this size up front. 0 if the segment is not preallocated
+    private final long preallocateBytes;
+    private static final int ZERO_FILL_CHUNK_SIZE = 1024 * 1024;
 
     public SegmentWriter(String topic, int partition, long startOffset, Path topicDir) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, startOffset, topicDir, CompressionType.NONE);
+    }
+
+    /**
+     * @param compressionType The codec for new records. New segments are written in the block based V2 format with the
+     *                        compact record framing, also without compression. Existing segments keep their format.
+     */
+    public SegmentWriter(String topic, int partition, long startOffset, Path topicDir, CompressionType compressionType) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, startOffset, topicDir, compressionType, 0);
+    }
+
+    /**
+     * @param indexIntervalBytes New segments get a sparse index with an entry roughly every indexIntervalBytes bytes
+     *                           of records if this is positive. Existing segments keep their index mode.
+     */
+    public SegmentWriter(String topic, int partition, long startOffset, Path topicDir, CompressionType compressionType, int indexIntervalBytes) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, false);
+    }
+
+    /**
+     * @param kafkaRecordBatches New segments are written in the V3 format as native Kafka RecordBatches compressed
+     *                           with compressionType. Existing segments keep their format.
+     */
+    public SegmentWriter(String topic, int partition, long startOffset, Path topicDir, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, 0);
+    }
+
+    /**
+     * @param preallocateBytes The record file is filled with zeros up to this size when the segment is opened, so that
+     *                         the file system allocates the blocks up front instead of on every append. It is
+     *                         truncated to the written data when the segment is closed. 0 disables preallocation
+     */
+    public SegmentWriter(String topic, int partition, long startOffset, Path topicDir, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches, long preallocateBytes) throws IOException, SegmentIndex.IndexException {
+        this(topic, partition, startOffset, topicDir, compressionType, indexIntervalBytes, kafkaRecordBatches, preallocateBytes, FileHandleCache.unbounded());
+    }
+
+    /**
+     * @param fileHandleCache The record file and the indices are opened through this cache
+     */
+    public SegmentWriter(String topic, int partition, long startOffset, Path topicDir, CompressionType compressionType, int indexIntervalBytes, boolean kafkaRecordBatches, long preallocateBytes, FileHandleCache fileHandleCache) throws IOException, SegmentIndex.IndexException {
         this.topic = topic;
         this.partition = partition;
         this.startOffset = startOffset;
 
         Path indexFile = SegmentUtils.indexFile(topicDir, partition, startOffset);
-        segmentIndex = new SegmentIndex(indexFile);
-
         Path recordFile = SegmentUtils.recordsFile(topicDir, partition, startOffset);
+        Path timeIndexFile = SegmentUtils.timeIndexFile(topicDir, partition, startOffset);
         if (!Files.isRegularFile(recordFile)) {
+            version = kafkaRecordBatches ? SegmentUtils.V3_MAGIC_BYTE : SegmentUtils.V2_MAGIC_BYTE;
+            segmentIndex = new SegmentIndex(indexFile, SegmentUtils.indexVersion(version), indexIntervalBytes, fileHandleCache);
+            // Left over if the records of a previous segment with the same start offset were deleted
+            Files.deleteIfExists(timeIndexFile);
+            createdMs = System.currentTimeMillis();
+            timeIndex = new SegmentTimeIndex(timeIndexFile, createdMs, fileHandleCache);
             Files.createFile(recordFile);
-            recordOutputStream = new FileOutputStream(recordFile.toFile());
-            recordOutputStream.write(SegmentUtils.V1_MAGIC_BYTE);
+            recordChannel = fileHandleCache.open(recordFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.wrap(new byte[]{version}), 0);
+            position = 1;
+            recordCount = 0;
         } else {
             // Validate Magic Byte
-            FileInputStream inputStream = new FileInputStream(recordFile.toFile());
-            SegmentUtils.ensureValidSegment(inputStream);
-            inputStream.close();
+            version = SegmentUtils.segmentVersion(recordFile);
+            segmentIndex = new SegmentIndex(indexFile, SegmentUtils.indexVersion(version), 0, fileHandleCache);
 
             // move to last committed position of the file
-            recordOutputStream = new FileOutputStream(recordFile.toFile(), true);
+            recordChannel = fileHandleCache.open(recordFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
             Optional<SegmentIndexEntry> optionalPreviousIndexEntry = segmentIndex.lastIndexEntry();
             if (optionalPreviousIndexEntry.isPresent()) {
                 SegmentIndexEntry previousSegmentIndexEntry = optionalPreviousIndexEntry.get();
-                long position = previousSegmentIndexEntry.recordFilePosition() + previousSegmentIndexEntry.recordByteLength();
-                recordOutputStream.getChannel().position(position);
+                if (version == SegmentUtils.V2_MAGIC_BYTE) {
+                    position = SegmentBlock.readHeader(recordChannel, previousSegmentIndexEntry.recordFilePosition()).nextBlockPosition();
+                } else if (version == SegmentUtils.V3_MAGIC_BYTE) {
+                    position = RecordBatchSegmentFileReader.nextBatchPosition(recordChannel, previousSegmentIndexEntry.recordFilePosition());
+                } else {
+                    position = previousSegmentIndexEntry.recordFilePosition() + previousSegmentIndexEntry.recordByteLength();
+                }
+            } else {
+                position = 1;
+            }
+            if (recordChannel.size() > position) {
+                // Left over from a preallocated segment that was not closed or from an incomplete write
+                recordChannel.truncate(position);
+            }
+            if (Files.isRegularFile(timeIndexFile)) {
+                timeIndex = new SegmentTimeIndex(timeIndexFile, fileHandleCache);
+                // Drop the entries of a batch that was not completely written
+                timeIndex.truncateAfter(lastWrittenOffset());
             } else {
-                recordOutputStream.getChannel().position(1);
+                // An index created now would not know the timestamps of the existing records
+                timeIndex = null;
             }
+            // File systems do not keep the creation time reliably. Segments of older versions count as new
+            long storedCreatedMs = timeIndex != null ? timeIndex.createdMs() : -1;
+            createdMs = storedCreatedMs >= 0 ? storedCreatedMs : System.currentTimeMillis();
+            // Sparse indices do not know the number of records. The offset range is an upper bound
+            recordCount = segmentIndex.isSparse() ? Math.max(0, lastWrittenOffset() - startOffset + 1) : segmentIndex.size();
+        }
+        this.preallocateBytes = preallocateBytes;
+        if (preallocateBytes > position) {
+            allocate(position, preallocateBytes);
+        }
+        if (version == SegmentUtils.V2_MAGIC_BYTE) {
+            blockWriter = new SegmentBlockWriter(compressionType);
+        } else if (version == SegmentUtils.V3_MAGIC_BYTE) {
+            blockWriter = new RecordBatchWriter(compressionType);
+        } else {
+            blockWriter = null;
         }
     }
 
@@ -54,6 +167,108 @@ public class SegmentWriter {
     }
 
     public void append(Record record) throws IOException, SegmentIndex.IndexException, SegmentException {
+        appendBatch(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends all records with a single write to the segment and a single write to the index. In V2 and V3 segments
+     * the records are split into blocks of roughly {@link SegmentBlockWriter#TARGET_BLOCK_SIZE} uncompressed bytes.
+     * <p>
+     * If one of the records is invalid, all records before it are written and then a SegmentException is thrown.
+     * <p>
+     * Sparse indices get an entry for the first record of the segment, for the last record of the batch and whenever
+     * at least `indexIntervalBytes` bytes of records were appended since the previous entry. The time index gets an
+     * entry if the batch raises the maximum timestamp of the segment.
+     */
+    public void appendBatch(List<Record> records) throws IOException, SegmentIndex.IndexException, SegmentException {
+        if (blockWriter == null) {
+            throw new SegmentException("Segment " + filePrefix() + " is in the legacy V1 format without checksums. Start a new segment instead of appending to it");
+        }
+        ByteBufferOutputStream recordBuffer = RECORD_BUFFER.get();
+        recordBuffer.position(0);
+        SegmentIndexEntries indexEntries = INDEX_ENTRIES.get();
+        indexEntries.clear();
+        blockWriter.clear();
+        long lastOffset = lastWrittenOffset();
+        SegmentException invalidRecord = null;
+        // Whether the last entry is only in indexEntries because it might be the last record of the batch
+        boolean lastEntryUnindexed = false;
+        int appendedRecords = 0;
+        // The highest timestamp of the batch and the first record with it
+        long maxTimestamp = -1;
+        long maxTimestampOffset = -1;
+        for (Record record : records) {
+            try {
+                validate(record, lastOffset);
+            } catch (SegmentException e) {
+                invalidRecord = e;
+                break;
+            }
+            if (lastEntryUnindexed) {
+                indexEntries.removeLast();
+            }
+            appendToBlock(recordBuffer, record, indexEntries);
+            bytesSinceLastIndexEntry += indexEntries.recordByteLength(indexEntries.size() - 1);
+            lastEntryUnindexed = segmentIndex.isSparse() && lastOffset != -1 && bytesSinceLastIndexEntry < segmentIndex.indexIntervalBytes();
+            if (!lastEntryUnindexed) {
+                bytesSinceLastIndexEntry = 0;
+            }
+            if (record.timestamp() != null && record.timestamp() > maxTimestamp) {
+                maxTimestamp = record.timestamp();
+                maxTimestampOffset = record.kafkaOffset();
+            }
+            lastOffset = record.kafkaOffset();
+            appendedRecords++;
+        }
+        if (lastEntryUnindexed) {
+            // The last record of the batch is always indexed
+            bytesSinceLastIndexEntry = 0;
+        }
+        if (!blockWriter.isEmpty()) {
+            blockWriter.writeTo(recordBuffer);
+        }
+        if (!indexEntries.isEmpty()) {
+            ByteBuffer buffer = recordBuffer.buffer().duplicate();
+            buffer.flip();
+            int length = buffer.remaining();
+            writeFully(buffer, position);
+            position += length;
+            // The time index is written first. After a crash it may only have entries of records that are not in the
+            // index. They are dropped when the segment is opened again
+            if (timeIndex != null && maxTimestampOffset >= 0) {
+                timeIndex.maybeAppend(maxTimestamp, maxTimestampOffset);
+            }
+            segmentIndex.addEntries(indexEntries);
+            recordCount += appendedRecords;
+        }
+        if (recordBuffer.buffer().capacity() > MAX_POOLED_BUFFER_SIZE) {
+            // Do not keep huge buffers around after a batch with very large records
+            RECORD_BUFFER.remove();
+        }
+        if (indexEntries.capacity() > MAX_POOLED_INDEX_ENTRIES) {
+            INDEX_ENTRIES.remove();
+        }
+        if (invalidRecord != null) {
+            throw invalidRecord;
+        }
+    }
+
+    private void appendToBlock(ByteBufferOutputStream recordBuffer, Record record, SegmentIndexEntries indexEntries) throws IOException {
+        if (!blockWriter.canAppend(record)) {
+            blockWriter.writeTo(recordBuffer);
+        }
+        if (blockWriter.isEmpty()) {
+            currentBlockPosition = position + recordBuffer.position();
+        }
+        int uncompressedSize = blockWriter.uncompressedSize();
+        int positionInBlock = blockWriter.append(record);
+        indexEntries.add(record.kafkaOffset(), currentBlockPosition, positionInBlock, blockWriter.uncompressedSize() - uncompressedSize);
+        if (blockWriter.isFull()) {
+            blockWriter.writeTo(recordBuffer);
+        }
+    }
+
+    private void validate(Record record, long lastWrittenOffset) throws SegmentException {
         if (!record.topic().equals(topic)) {
             throw new SegmentException("Trying to append to wrong topic!\n" +
                     "Expected topic: " + topic + " given topic: " + record.topic());
@@ -67,34 +282,94 @@ public class SegmentWriter {
                     "Topic: " + record.topic() + "Partition: " + record.kafkaPartition() + " StartOffset: " + startOffset + " RecordOffset: " + record.kafkaOffset() + "\n" +
                     "You probably forgot to delete a previous Backup\n");
         }
-        if (record.kafkaOffset() <= lastWrittenOffset()) {
+        if (record.kafkaOffset() <= lastWrittenOffset) {
             // We are handling the offsets ourselves. This should never happen!
             throw new SegmentException("Trying to override a written record. There is something terribly wrong in your setup! Please check whether you are trying to override an existing backup" +
-                    "Topic: " + record.topic() + "Partition: " + record.kafkaPartition() + " lastWrittenOffset: " + lastWrittenOffset() + " RecordOffset: " + record.kafkaOffset());
+                    "Topic: " + record.topic() + "Partition: " + record.kafkaPartition() + " lastWrittenOffset: " + lastWrittenOffset + " RecordOffset: " + record.kafkaOffset());
         }
-        long startPosition = recordOutputStream.getChannel().position();
-        RecordSerde.write(recordOutputStream, record);
-        long recordByteLength = recordOutputStream.getChannel().position() - startPosition;
-        SegmentIndexEntry segmentIndexEntry = new SegmentIndexEntry(record.kafkaOffset(), startPosition, recordByteLength);
-        segmentIndex.addEntry(segmentIndexEntry);
+    }
+
+    /**
+     * Writes zeros to the given range of the record file. Only extending the file would create a sparse file whose
+     * blocks are still allocated by the appends
+     */
+    private void allocate(long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(ZERO_FILL_CHUNK_SIZE, to - from));
+        long filePosition = from;
+        while (filePosition < to) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), to - filePosition));
+            writeFully(zeros, filePosition);
+            filePosition += zeros.limit();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        dirty = true;
+        while (buffer.hasRemaining()) {
+            position += recordChannel.write(buffer, position);
+        }
+    }
+
+    byte version() {
+        return version;
+    }
+
+    /**
+     * @return whether the segment was written by an older version in the V1 format. Such segments have no checksums
+     * and cannot be appended to
+     */
+    public boolean isLegacyFormat() {
+        return version == SegmentUtils.V1_MAGIC_BYTE;
     }
 
     public String filePrefix() {
         return SegmentUtils.filePrefix(partition, startOffset);
     }
 
-    public long size() throws IOException {
-        return recordOutputStream.getChannel().size();
+    public long size() {
+        return position;
+    }
+
+    public long recordCount() {
+        return recordCount;
+    }
+
+    public long createdMs() {
+        return createdMs;
     }
 
     public void flush() throws IOException {
-        recordOutputStream.flush();
         segmentIndex.flush();
     }
 
+    /**
+     * Forces the records and the index to the disk. Does nothing if nothing was written since the last call
+     */
+    public void force() throws IOException {
+        if (dirty) {
+            recordChannel.force(false);
+            segmentIndex.force();
+            if (timeIndex != null) {
+                timeIndex.force();
+            }
+            dirty = false;
+        }
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
     public void close() throws IOException {
-        recordOutputStream.close();
+        if (preallocateBytes > 0 && recordChannel.size() > position) {
+            recordChannel.truncate(position);
+        }
+        recordChannel.close();
         segmentIndex.close();
+        if (timeIndex != null) {
+            timeIndex.close();
+        }
     }
 
     public static class SegmentException extends Exception {
@@ -1,33 +1,46 @@
 package de.azapps.kafkabackup.common.segment;
 
 import de.azapps.kafkabackup.common.record.Record;
-import de.azapps.kafkabackup.common.record.RecordSerde;
 
 import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 public class UnverifiedSegmentReader {
-    private String topic;
-    private int partition;
-    private FileInputStream recordInputStream;
+    private final SegmentFileReader recordReader;
 
     public UnverifiedSegmentReader(Path recordFile) throws IOException {
         this(recordFile, "topic", 0);
     }
 
     public UnverifiedSegmentReader(Path recordFile, String topic, int partition) throws IOException {
-        recordInputStream = new FileInputStream(recordFile.toFile());
-        this.topic = topic;
-        this.partition = partition;
-        SegmentUtils.ensureValidSegment(recordInputStream);
+        recordReader = SegmentFileReader.open(recordFile, topic, partition);
     }
 
     public Record read() throws IOException {
-        return RecordSerde.read(topic, partition, recordInputStream);
+        return recordReader.read();
+    }
+
+    /**
+     * Skips the next record without copying its data
+     *
+     * @return the offset of the skipped record
+     */
+    public long skip() throws IOException {
+        return recordReader.skip().getOffset();
+    }
+
+    /**
+     * Skips the next record and returns an index entry pointing to it
+     */
+    SegmentIndexEntry skipEntry() throws IOException {
+        return recordReader.skip();
+    }
+
+    byte version() {
+        return recordReader.version();
     }
 
     public List<Record> readN(int n) throws IOException {
@@ -56,11 +69,14 @@ public class UnverifiedSegmentReader {
         return records;
     }
 
+    /**
+     * @return the position of the next record in the file. For V2 segments the position of the block containing it
+     */
     public long position() throws IOException {
-        return recordInputStream.getChannel().position();
+        return recordReader.position();
     }
 
     public void close() throws IOException {
-        recordInputStream.close();
+        recordReader.close();
     }
 }
@@ -0,0 +1,142 @@
+package de.azapps.kafkabackup.common.segment;
+
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.record.RecordSerde;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads records from a V1 segment file through a {@link FileChannel}.
+ * <p>
+ * The file is read in large chunks into a reusable buffer and the records are decoded directly from that buffer.
+ * Thus, reading a record usually does not need any system call. The buffer grows if a single record does not fit
+ * into it.
+ */
+class V1SegmentFileReader extends SegmentFileReader {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private final String topic;
+    private final int partition;
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    // The position in the file of the first byte in the buffer
+    private long bufferStartPosition;
+
+    V1SegmentFileReader(Path recordFile, String topic, int partition, FileHandleCache fileHandleCache) throws IOException {
+        this.topic = topic;
+        this.partition = partition;
+        this.channel = fileHandleCache.open(recordFile, StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        this.buffer.limit(0);
+        this.bufferStartPosition = 0;
+        try {
+            ensureValidSegment();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void ensureValidSegment() throws IOException {
+        if (!fill() || buffer.get() != SegmentUtils.V1_MAGIC_BYTE) {
+            throw new IOException("Cannot validate Magic Byte in the beginning of the Segment");
+        }
+    }
+
+    @Override
+    byte version() {
+        return SegmentUtils.V1_MAGIC_BYTE;
+    }
+
+    @Override
+    long position() {
+        return bufferStartPosition + buffer.position();
+    }
+
+    @Override
+    void seek(SegmentIndexEntry segmentIndexEntry) {
+        position(segmentIndexEntry.recordFilePosition());
+    }
+
+    private void position(long position) {
+        if (position >= bufferStartPosition && position <= bufferStartPosition + buffer.limit()) {
+            buffer.position((int) (position - bufferStartPosition));
+        } else {
+            buffer.limit(0);
+            bufferStartPosition = position;
+        }
+    }
+
+    @Override
+    Record read() throws IOException {
+        while (true) {
+            int start = buffer.position();
+            try {
+                return RecordSerde.read(topic, partition, buffer);
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                if (!fill()) {
+                    throw new EOFException("Reached end of segment at position " + position());
+                }
+            }
+        }
+    }
+
+    @Override
+    SegmentIndexEntry skip() throws IOException {
+        while (true) {
+            int start = buffer.position();
+            try {
+                long recordPosition = position();
+                long offset = RecordSerde.skip(buffer);
+                return new SegmentIndexEntry(offset, recordPosition, buffer.position() - start);
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                if (!fill()) {
+                    throw new EOFException("Reached end of segment at position " + position());
+                }
+            }
+        }
+    }
+
+    /**
+     * V1 segments do not have checksums. Thus, there is nothing to verify
+     */
+    @Override
+    SegmentReader.Verification verify(long lastBlockPosition) {
+        position(1);
+        return new SegmentReader.Verification(0, 0, 0);
+    }
+
+    /**
+     * Reads more data from the channel into the buffer. Unread data is kept.
+     *
+     * @return false if there is no more data available in the file
+     */
+    private boolean fill() throws IOException {
+        int remaining = buffer.remaining();
+        bufferStartPosition += buffer.position();
+        if (remaining == buffer.capacity()) {
+            // A single record does not fit into the buffer
+            ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        } else {
+            buffer.compact();
+        }
+        int read = channel.read(buffer, bufferStartPosition + buffer.position());
+        buffer.flip();
+        return read > 0;
+    }
+
+    @Override
+    void close() throws IOException {
+        channel.close();
+    }
+}
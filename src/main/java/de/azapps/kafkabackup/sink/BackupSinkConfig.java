@@ -2,8 +2,10 @@ package de.azapps.kafkabackup.sink;
 
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.record.CompressionType;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 class BackupSinkConfig extends AbstractConfig {
@@ -13,14 +15,80 @@ class BackupSinkConfig extends AbstractConfig {
     static final String TARGET_DIR_CONFIG = "target.dir";
     static final String MAX_SEGMENT_SIZE = "max.segment.size.bytes";
     static final String SNAPSHOT = "snapshot";
+    static final String SNAPSHOT_PROGRESS_INTERVAL_MS_CONFIG = "snapshot.progress.interval.ms";
+    static final String COMPRESSION_TYPE_CONFIG = "compression.type";
+    static final String SEGMENT_INDEX_INTERVAL_BYTES_CONFIG = "segment.index.interval.bytes";
+    static final String SEGMENT_MS_CONFIG = "segment.ms";
+    static final String SEGMENT_RECORDS_CONFIG = "segment.records";
+    static final String SEGMENT_PREALLOCATE_CONFIG = "segment.preallocate";
+    static final String WRITER_THREADS_CONFIG = "writer.threads";
+    static final String WRITER_QUEUE_SIZE_CONFIG = "writer.queue.size";
+    static final String OFFSET_SYNC_INTERVAL_MS_CONFIG = "offset.sync.interval.ms";
+    static final String DURABILITY_CONFIG = "durability";
+    static final String DURABILITY_INTERVAL_MS_CONFIG = "durability.interval.ms";
+    static final String DURABILITY_THREADS_CONFIG = "durability.threads";
+    static final String BACKPRESSURE_WRITE_LATENCY_MS_CONFIG = "backpressure.write.latency.ms";
+    static final String BACKPRESSURE_QUEUED_BATCHES_CONFIG = "backpressure.queued.batches";
+    static final String BACKPRESSURE_PAUSE_MS_CONFIG = "backpressure.pause.ms";
+    static final String MAX_OPEN_FILES_CONFIG = "max.open.files";
+    static final String THROTTLE_BYTES_PER_SEC_CONFIG = "throttle.bytes.per.sec";
+    static final String THROTTLE_RECORDS_PER_SEC_CONFIG = "throttle.records.per.sec";
+    static final String THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG = "throttle.partition.bytes.per.sec";
+    static final String THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG = "throttle.partition.records.per.sec";
+    static final String CONNECTOR_NAME = "name";
+    // Set by the connector for each task
+    static final String TASK_ID = "task.id";
 
     static final ConfigDef CONFIG_DEF = new ConfigDef()
             .define(TARGET_DIR_CONFIG, ConfigDef.Type.STRING,
                     ConfigDef.Importance.HIGH, "TargetDir")
-            .define(MAX_SEGMENT_SIZE, ConfigDef.Type.INT, 1024 ^ 3, // 1 GiB
+            .define(MAX_SEGMENT_SIZE, ConfigDef.Type.INT, 1024 ^ 3, ConfigDef.Range.atLeast(1), // 1 GiB
                     ConfigDef.Importance.LOW, "Maximum segment size")
             .define(SNAPSHOT, ConfigDef.Type.BOOLEAN, false,
-                   ConfigDef.Importance.LOW, "Creates a snapshot. Terminates connector when end of all partitions has been reached.");
+                   ConfigDef.Importance.LOW, "Creates a snapshot. Terminates connector when end of all partitions has been reached.")
+            .define(SNAPSHOT_PROGRESS_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, 30000L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Interval in which the progress of a snapshot is logged")
+            .define(COMPRESSION_TYPE_CONFIG, ConfigDef.Type.STRING, CompressionType.NONE.name,
+                    ConfigDef.ValidString.in(CompressionType.NONE.name, CompressionType.GZIP.name, CompressionType.SNAPPY.name,
+                            CompressionType.LZ4.name, CompressionType.ZSTD.name),
+                    ConfigDef.Importance.MEDIUM, "Compression codec for new segments. Segments are written in blocks if a codec other than `none` is configured")
+            .define(SEGMENT_INDEX_INTERVAL_BYTES_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Write sparse segment indices with an entry every n bytes of records. 0 writes an entry for every record")
+            .define(SEGMENT_MS_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Start a new segment when the current one is older than this. 0 disables it")
+            .define(SEGMENT_RECORDS_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Start a new segment when the current one contains this number of records. 0 disables it")
+            .define(SEGMENT_PREALLOCATE_CONFIG, ConfigDef.Type.BOOLEAN, false,
+                    ConfigDef.Importance.LOW, "Preallocate the record files of new segments to the maximum segment size by writing zeros. Costs an extra write of every segment")
+            .define(WRITER_THREADS_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Number of threads writing the partitions. 0 writes on the task thread")
+            .define(WRITER_QUEUE_SIZE_CONFIG, ConfigDef.Type.INT, 16, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Number of batches queued per writer thread before put blocks")
+            .define(OFFSET_SYNC_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, 30000L, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Interval in which the offsets of all consumer groups are synced in the background")
+            .define(DURABILITY_CONFIG, ConfigDef.Type.STRING, "none",
+                    ConfigDef.ValidString.in("none", "flush", "interval"),
+                    ConfigDef.Importance.MEDIUM, "When written records are forced to the disk. `none` leaves it to the operating system, `flush` forces them on every flush of Kafka Connect before the offsets are committed, `interval` forces them at most every durability.interval.ms")
+            .define(DURABILITY_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Interval of the group commits if durability is `interval`")
+            .define(DURABILITY_THREADS_CONFIG, ConfigDef.Type.INT, 4, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Number of partitions forced to the disk in parallel")
+            .define(BACKPRESSURE_WRITE_LATENCY_MS_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Pause a partition if writing a batch to it took longer than this. 0 disables it")
+            .define(BACKPRESSURE_QUEUED_BATCHES_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Pause a partition if this number of its batches wait for a writer thread. 0 disables it")
+            .define(BACKPRESSURE_PAUSE_MS_CONFIG, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Minimum time a partition stays paused. It is resumed afterwards once all its batches are written")
+            .define(MAX_OPEN_FILES_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of files the task keeps open. The least recently used files are closed and opened again when needed. 0 disables the limit")
+            .define(THROTTLE_BYTES_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of key and value bytes the task writes per second. 0 disables the limit")
+            .define(THROTTLE_RECORDS_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of records the task writes per second. 0 disables the limit")
+            .define(THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of key and value bytes written per second to each partition. 0 disables the limit")
+            .define(THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of records written per second to each partition. 0 disables the limit");
 
     BackupSinkConfig(Map<?, ?> props) {
         super(CONFIG_DEF, props, true);
@@ -49,8 +117,102 @@ class BackupSinkConfig extends AbstractConfig {
 
     Boolean snapShotMode() { return getBoolean(SNAPSHOT); }
 
+    long snapshotProgressIntervalMs() {
+        return getLong(SNAPSHOT_PROGRESS_INTERVAL_MS_CONFIG);
+    }
+
+    CompressionType compressionType() {
+        return CompressionType.forName(getString(COMPRESSION_TYPE_CONFIG));
+    }
+
+    int segmentIndexIntervalBytes() {
+        return getInt(SEGMENT_INDEX_INTERVAL_BYTES_CONFIG);
+    }
+
+    long segmentMs() {
+        return getLong(SEGMENT_MS_CONFIG);
+    }
+
+    long segmentRecords() {
+        return getLong(SEGMENT_RECORDS_CONFIG);
+    }
+
+    boolean segmentPreallocate() {
+        return getBoolean(SEGMENT_PREALLOCATE_CONFIG);
+    }
+
+    int writerThreads() {
+        return getInt(WRITER_THREADS_CONFIG);
+    }
+
+    int writerQueueSize() {
+        return getInt(WRITER_QUEUE_SIZE_CONFIG);
+    }
+
+    long offsetSyncIntervalMs() {
+        return getLong(OFFSET_SYNC_INTERVAL_MS_CONFIG);
+    }
+
+    Durability durability() {
+        return Durability.valueOf(getString(DURABILITY_CONFIG).toUpperCase(Locale.ROOT));
+    }
+
+    long durabilityIntervalMs() {
+        return getLong(DURABILITY_INTERVAL_MS_CONFIG);
+    }
+
+    int durabilityThreads() {
+        return getInt(DURABILITY_THREADS_CONFIG);
+    }
+
+    long backpressureWriteLatencyMs() {
+        return getLong(BACKPRESSURE_WRITE_LATENCY_MS_CONFIG);
+    }
+
+    int backpressureQueuedBatches() {
+        return getInt(BACKPRESSURE_QUEUED_BATCHES_CONFIG);
+    }
+
+    long backpressurePauseMs() {
+        return getLong(BACKPRESSURE_PAUSE_MS_CONFIG);
+    }
+
+    int maxOpenFiles() {
+        return getInt(MAX_OPEN_FILES_CONFIG);
+    }
+
+    long throttleBytesPerSec() {
+        return getLong(THROTTLE_BYTES_PER_SEC_CONFIG);
+    }
+
+    long throttleRecordsPerSec() {
+        return getLong(THROTTLE_RECORDS_PER_SEC_CONFIG);
+    }
+
+    long throttlePartitionBytesPerSec() {
+        return getLong(THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG);
+    }
+
+    long throttlePartitionRecordsPerSec() {
+        return getLong(THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG);
+    }
+
+    /**
+     * @return the name of the connector. Used to tag the metrics
+     */
+    String connectorName() {
+        return originalsStrings().getOrDefault(CONNECTOR_NAME, "backup-sink");
+    }
+
+    String taskId() {
+        return originalsStrings().getOrDefault(TASK_ID, "0");
+    }
+
     Map<String, Object> consumerConfig() {
         return new HashMap<>(originalsWithPrefix(CLUSTER_PREFIX));
     }
 
+    enum Durability {
+        NONE, FLUSH, INTERVAL
+    }
 }
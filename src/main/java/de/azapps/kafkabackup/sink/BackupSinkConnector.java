@@ -2,14 +2,22 @@ package de.azapps.kafkabackup.sink;
 
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.connect.connector.Task;
-import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Kafka Connect distributes the partitions of the backed up topics across the tasks. Each task writes only the
+ * partitions assigned to it, including their consumer group offsets. Snapshots are taken by a single task as every
+ * task would terminate the worker when its own partitions are complete.
+ */
 public class BackupSinkConnector extends SinkConnector {
+    private static final Logger log = LoggerFactory.getLogger(BackupSinkConnector.class);
     private Map<String, String> config;
 
     @Override
@@ -24,11 +32,17 @@ public class BackupSinkConnector extends SinkConnector {
 
     @Override
     public List<Map<String, String>> taskConfigs(int maxTasks) {
-        if (maxTasks > 1) {
-            throw new ConnectException("kafka-backup can currently handle only one task.");
+        int tasks = maxTasks;
+        if (tasks > 1 && Boolean.parseBoolean(config.get(BackupSinkConfig.SNAPSHOT))) {
+            log.warn("Snapshots are taken with one task. Ignoring tasks.max={}", maxTasks);
+            tasks = 1;
         }
         List<Map<String, String>> configs = new ArrayList<>();
-        configs.add(config);
+        for (int i = 0; i < tasks; i++) {
+            Map<String, String> taskConfig = new HashMap<>(config);
+            taskConfig.put(BackupSinkConfig.TASK_ID, String.valueOf(i));
+            configs.add(taskConfig);
+        }
         return configs;
     }
 
@@ -1,7 +1,11 @@
 package de.azapps.kafkabackup.sink;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.MetricsUtils;
+import de.azapps.kafkabackup.common.Throttle;
 import de.azapps.kafkabackup.common.offset.EndOffsetReader;
 import de.azapps.kafkabackup.common.offset.OffsetSink;
+import de.azapps.kafkabackup.common.offset.OffsetSyncWorker;
 import de.azapps.kafkabackup.common.partition.PartitionIndex;
 import de.azapps.kafkabackup.common.partition.PartitionWriter;
 import de.azapps.kafkabackup.common.record.Record;
@@ -10,6 +14,7 @@ import de.azapps.kafkabackup.common.segment.SegmentWriter;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.apache.kafka.connect.sink.SinkTaskContext;
@@ -28,11 +33,29 @@ public class BackupSinkTask extends SinkTask {
     private Map<TopicPartition, PartitionWriter> partitionWriters = new HashMap<>();
     private long maxSegmentSizeBytes;
     private OffsetSink offsetSink;
+    private OffsetSyncWorker offsetSyncWorker;
+    private Metrics metrics;
+    // null if the durability is NONE
+    private PartitionForcer partitionForcer;
+    private long nextForceMs = 0;
     private BackupSinkConfig config;
-    private Map<TopicPartition, Long> endOffsets;
-    private Map<TopicPartition, Long> currentOffsets = new HashMap<>();
+    // null if not in snapshot mode
+    private SnapshotProgress snapshotProgress;
     private EndOffsetReader endOffsetReader;
     private java.util.function.Consumer<Integer> exitFunction;
+    // null if the records are written on the task thread
+    private PartitionWriterPool writerPool;
+    // The partitions by topic and partition number. put() looks them up without allocating a TopicPartition per
+    // record and reuses their record lists
+    private final Map<String, PartitionBatch[]> partitionBatches = new HashMap<>();
+    // null if no backpressure threshold is configured
+    private PartitionBackpressure backpressure;
+    // The partitions with records in the current put()
+    private final List<PartitionBatch> pendingBatches = new ArrayList<>();
+    private FileHandleCache fileHandleCache;
+    private SinkMetrics sinkMetrics;
+    // null if no rate limit is configured
+    private Throttle throttle;
 
     @Override
     public String version() {
@@ -65,6 +88,23 @@ public class BackupSinkTask extends SinkTask {
                 offsetSink = new OffsetSink(adminClient, targetDir);
             }
 
+            metrics = MetricsUtils.createMetrics();
+            Map<String, String> metricTags = new LinkedHashMap<>();
+            metricTags.put("connector", config.connectorName());
+            metricTags.put("task", config.taskId());
+            fileHandleCache = new FileHandleCache(config.maxOpenFiles(), metrics, metricTags);
+            sinkMetrics = new SinkMetrics(metrics, metricTags);
+            if (Throttle.isEnabled(config.throttleBytesPerSec(), config.throttleRecordsPerSec(),
+                    config.throttlePartitionBytesPerSec(), config.throttlePartitionRecordsPerSec())) {
+                throttle = new Throttle(config.throttleBytesPerSec(), config.throttleRecordsPerSec(),
+                        config.throttlePartitionBytesPerSec(), config.throttlePartitionRecordsPerSec(), metrics, metricTags);
+            }
+            offsetSyncWorker = new OffsetSyncWorker(offsetSink, config.offsetSyncIntervalMs(), metrics, metricTags);
+            offsetSyncWorker.start();
+            if (config.durability() != BackupSinkConfig.Durability.NONE) {
+                partitionForcer = new PartitionForcer(config.durabilityThreads(), metrics, metricTags);
+            }
+
             if (overrideEndOffsetReader != null) {
                 this.endOffsetReader = overrideEndOffsetReader;
             } else {
@@ -77,68 +117,155 @@ public class BackupSinkTask extends SinkTask {
                 this.exitFunction = System::exit;
             }
 
-            log.debug("Initialized BackupSinkTask with target dir {}", targetDir);
+            if (config.writerThreads() > 0) {
+                writerPool = new PartitionWriterPool(config.writerThreads(), config.writerQueueSize());
+            }
+            if (config.snapShotMode()) {
+                snapshotProgress = new SnapshotProgress(config.snapshotProgressIntervalMs(), metrics, metricTags);
+            }
+            if (config.backpressureWriteLatencyMs() > 0 || config.backpressureQueuedBatches() > 0) {
+                backpressure = new PartitionBackpressure(config.backpressureWriteLatencyMs(), config.backpressureQueuedBatches(),
+                        config.backpressurePauseMs(), context, metrics, metricTags);
+            }
+
+            log.debug("Initialized BackupSinkTask {} with target dir {}", config.taskId(), targetDir);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Check for end-offsets. Terminate if all offsets >= end-offsets
+     * Terminate if all partitions are backed up up to their end offsets
      */
     private void terminateIfCompleted() {
-        boolean terminate = true;
-        for (Map.Entry<TopicPartition, Long> partitionOffset : endOffsets.entrySet()) {
-            Long endOffset = partitionOffset.getValue();
-            Long currentOffset = currentOffsets.getOrDefault(partitionOffset.getKey(), -1L);
-
-            if (currentOffset < endOffset - 1) {
-                return;
-            }
+        if (!snapshotProgress.isComplete()) {
+            snapshotProgress.maybeLogProgress();
+            return;
         }
-        if (terminate) {
-            log.debug("Snapshot complete. Terminating kafka connect.");
-            stop(); // seems that this is not called when using System.exit()
-            exitFunction.accept(0);
+        log.info("Snapshot complete. Terminating kafka connect.");
+        try {
+            // Store the current offsets of the consumer groups with the snapshot
+            offsetSyncWorker.sync();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        stop(); // seems that this is not called when using System.exit()
+        exitFunction.accept(0);
     }
 
     @Override
     public void put(Collection<SinkRecord> records) {
         try {
+            // Group the records by partition so that each partition writer can write its records in one go
             for (SinkRecord sinkRecord : records) {
-                TopicPartition topicPartition = new TopicPartition(sinkRecord.topic(), sinkRecord.kafkaPartition());
-                PartitionWriter partition = partitionWriters.get(topicPartition);
-                partition.append(Record.fromSinkRecord(sinkRecord));
-                if (sinkRecord.kafkaOffset() % 100 == 0) {
-                    log.debug("Backed up Topic {}, Partition {}, up to offset {}", sinkRecord.topic(), sinkRecord.kafkaPartition(), sinkRecord.kafkaOffset());
+                PartitionBatch batch = partitionBatch(sinkRecord.topic(), sinkRecord.kafkaPartition());
+                if (batch.records.isEmpty()) {
+                    pendingBatches.add(batch);
                 }
-                if (config.snapShotMode()) {
-                    currentOffsets.put(topicPartition, sinkRecord.kafkaOffset());
+                batch.records.add(Record.fromSinkRecord(sinkRecord));
+            }
+            for (int i = 0; i < pendingBatches.size(); i++) {
+                PartitionBatch batch = pendingBatches.get(i);
+                List<Record> partitionRecords = batch.records;
+                long lastOffset = partitionRecords.get(partitionRecords.size() - 1).kafkaOffset();
+                long bytes = payloadBytes(partitionRecords);
+                if (batch.load != null) {
+                    batch.load.batchQueued();
                 }
+                if (writerPool != null) {
+                    // The writer thread owns the list until it is done with it
+                    List<Record> queuedRecords = new ArrayList<>(partitionRecords);
+                    writerPool.append(batch.topicPartition, batch.partitionWriter, queuedRecords, batch.throttle,
+                            appendTimeNanos -> batch.batchWritten(queuedRecords, bytes, appendTimeNanos));
+                } else {
+                    if (batch.throttle != null) {
+                        batch.throttle.acquire(partitionRecords);
+                    }
+                    long start = System.nanoTime();
+                    batch.partitionWriter.appendBatch(partitionRecords);
+                    batch.batchWritten(partitionRecords, bytes, System.nanoTime() - start);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Backed up Topic {}, Partition {}, up to offset {}", batch.topicPartition.topic(), batch.topicPartition.partition(), lastOffset);
+                }
+                if (snapshotProgress != null) {
+                    snapshotProgress.update(batch.topicPartition, lastOffset, partitionRecords.size(), bytes);
+                }
+            }
+
+            if (config.durability() == BackupSinkConfig.Durability.INTERVAL) {
+                forceIfIntervalElapsed();
             }
 
-            // Todo: refactor to own worker. E.g. using the scheduler of MM2
-            offsetSink.syncConsumerGroups();
-            offsetSink.syncOffsets();
+            if (backpressure != null) {
+                backpressure.update();
+            }
 
             if (config.snapShotMode()) {
                 terminateIfCompleted();
             }
-        } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException | SegmentWriter.SegmentException e) {
+        } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException | SegmentWriter.SegmentException
+                | PartitionWriterPool.WriterException e) {
             throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            for (int i = 0; i < pendingBatches.size(); i++) {
+                pendingBatches.get(i).records.clear();
+            }
+            pendingBatches.clear();
         }
     }
 
+    private static long payloadBytes(List<Record> records) {
+        long bytes = 0;
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            bytes += (record.key() != null ? record.key().length : 0) + (record.value() != null ? record.value().length : 0);
+        }
+        return bytes;
+    }
 
+    private PartitionBatch partitionBatch(String topic, int partition) {
+        PartitionBatch[] batches = partitionBatches.get(topic);
+        if (batches == null || partition >= batches.length || batches[partition] == null) {
+            throw new IllegalStateException("Got a record for Topic " + topic + ", Partition " + partition + " which is not assigned to this task");
+        }
+        return batches[partition];
+    }
+
+    private void addPartitionBatch(TopicPartition topicPartition, PartitionWriter partitionWriter) {
+        PartitionBackpressure.PartitionLoad load = backpressure != null ? backpressure.addPartition(topicPartition) : null;
+        PartitionBatch[] batches = partitionBatches.get(topicPartition.topic());
+        if (batches == null || topicPartition.partition() >= batches.length) {
+            batches = batches == null ? new PartitionBatch[topicPartition.partition() + 1] : Arrays.copyOf(batches, topicPartition.partition() + 1);
+            partitionBatches.put(topicPartition.topic(), batches);
+        }
+        batches[topicPartition.partition()] = new PartitionBatch(topicPartition, partitionWriter, load,
+                sinkMetrics.addPartition(topicPartition, partitionWriter), throttle != null ? throttle.partition() : null);
+    }
+
+    private void removePartitionBatch(TopicPartition topicPartition) {
+        PartitionBatch[] batches = partitionBatches.get(topicPartition.topic());
+        if (batches != null && topicPartition.partition() < batches.length) {
+            batches[topicPartition.partition()] = null;
+        }
+        if (backpressure != null) {
+            backpressure.removePartition(topicPartition);
+        }
+        sinkMetrics.removePartition(topicPartition);
+    }
 
     public void open(Collection<TopicPartition> partitions) {
         super.open(partitions);
         try {
+            Map<TopicPartition, Long> lastWrittenOffsets = new HashMap<>();
             for (TopicPartition topicPartition : partitions) {
                 Path topicDir = Paths.get(targetDir.toString(), topicPartition.topic());
                 Files.createDirectories(topicDir);
-                PartitionWriter partitionWriter = new PartitionWriter(topicPartition.topic(), topicPartition.partition(), topicDir, maxSegmentSizeBytes);
+                PartitionWriter partitionWriter = new PartitionWriter(topicPartition.topic(), topicPartition.partition(), topicDir, maxSegmentSizeBytes, config.compressionType(), config.segmentIndexIntervalBytes(),
+                        false, config.segmentMs(), config.segmentRecords(), config.segmentPreallocate(), fileHandleCache);
                 long lastWrittenOffset = partitionWriter.lastWrittenOffset();
 
                 // Note that we must *always* request that we seek to an offset here. Currently the
@@ -167,10 +294,16 @@ public class BackupSinkTask extends SinkTask {
                 }
 
                 this.partitionWriters.put(topicPartition, partitionWriter);
-                this.currentOffsets.put(topicPartition, lastWrittenOffset);
+                addPartitionBatch(topicPartition, partitionWriter);
+                lastWrittenOffsets.put(topicPartition, lastWrittenOffset);
             }
-            if ( config.snapShotMode() ) {
-                this.endOffsets = endOffsetReader.getEndOffsets(partitions);
+            // Other tasks may back up other partitions of the same topics
+            offsetSink.addPartitions(partitions);
+            if (snapshotProgress != null) {
+                // Empty partitions have no end offset and are complete
+                for (Map.Entry<TopicPartition, Long> endOffset : endOffsetReader.getEndOffsets(partitions).entrySet()) {
+                    snapshotProgress.addPartition(endOffset.getKey(), endOffset.getValue(), lastWrittenOffsets.get(endOffset.getKey()));
+                }
                 this.terminateIfCompleted();
             }
             if (partitions.isEmpty()) {
@@ -184,16 +317,31 @@ public class BackupSinkTask extends SinkTask {
     public void close(Collection<TopicPartition> partitions) {
         super.close(partitions);
         try {
+            // The writer threads must not use the writers anymore
+            if (writerPool != null) {
+                writerPool.drain();
+            }
+            if (partitionForcer != null) {
+                List<PartitionWriter> closingWriters = new ArrayList<>();
+                for (TopicPartition topicPartition : partitions) {
+                    if (partitionWriters.containsKey(topicPartition)) {
+                        closingWriters.add(partitionWriters.get(topicPartition));
+                    }
+                }
+                partitionForcer.force(closingWriters);
+            }
             for (TopicPartition topicPartition : partitions) {
                 PartitionWriter partitionWriter = partitionWriters.get(topicPartition);
                 if (partitionWriter != null) {
                     partitionWriter.close();
                 }
                 partitionWriters.remove(topicPartition);
+                removePartitionBatch(topicPartition);
                 log.debug("Closed BackupSinkTask for Topic {}, Partition {}"
                         , topicPartition.topic(), topicPartition.partition());
             }
-        } catch (IOException e) {
+            offsetSink.removePartitions(partitions);
+        } catch (IOException | PartitionWriterPool.WriterException e) {
             throw new RuntimeException(e);
         }
     }
@@ -201,28 +349,102 @@ public class BackupSinkTask extends SinkTask {
     @Override
     public void stop() {
         try {
+            offsetSyncWorker.close();
+            if (writerPool != null) {
+                writerPool.close();
+                writerPool = null;
+            }
+            if (partitionForcer != null) {
+                partitionForcer.force(partitionWriters.values());
+                partitionForcer.close();
+                partitionForcer = null;
+            }
             for (PartitionWriter partition : partitionWriters.values()) {
                 partition.close();
             }
             offsetSink.close();
+            metrics.close();
             log.info("Stopped BackupSinkTask");
-        } catch (IOException e) {
+        } catch (IOException | PartitionWriterPool.WriterException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Group commit of all partitions if durability.interval.ms passed since the last one. With writer threads, the
+     * commit is queued behind the records of each thread and the task thread does not wait for it
+     */
+    private void forceIfIntervalElapsed() throws IOException, PartitionWriterPool.WriterException {
+        long now = System.currentTimeMillis();
+        if (now < nextForceMs) {
+            return;
+        }
+        if (writerPool != null) {
+            writerPool.force(partitionWriters, partitionForcer);
+        } else {
+            partitionForcer.force(partitionWriters.values());
+        }
+        nextForceMs = now + config.durabilityIntervalMs();
+    }
+
     @Override
     public void flush(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        long start = System.nanoTime();
         try {
-            for (PartitionWriter partitionWriter : partitionWriters.values()) {
-                partitionWriter.flush();
-                log.debug("Flushed Topic {}, Partition {}"
-                        , partitionWriter.topic(), partitionWriter.partition());
+            if (writerPool != null) {
+                // Waits for all queued records
+                writerPool.flush(partitionWriters);
+                log.debug("Flushed {} partitions", partitionWriters.size());
+            } else {
+                for (PartitionWriter partitionWriter : partitionWriters.values()) {
+                    partitionWriter.flush();
+                    log.debug("Flushed Topic {}, Partition {}"
+                            , partitionWriter.topic(), partitionWriter.partition());
+                }
+            }
+            if (config.durability() == BackupSinkConfig.Durability.FLUSH) {
+                // The offsets are committed after flush returns
+                partitionForcer.force(partitionWriters.values());
+            } else if (config.durability() == BackupSinkConfig.Durability.INTERVAL) {
+                forceIfIntervalElapsed();
             }
             offsetSink.flush();
-        } catch (IOException e) {
+            sinkMetrics.flushed(System.nanoTime() - start);
+        } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException | PartitionWriterPool.WriterException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static class PartitionBatch {
+        private final TopicPartition topicPartition;
+        private final PartitionWriter partitionWriter;
+        private final List<Record> records = new ArrayList<>();
+        // null if backpressure is disabled
+        private final PartitionBackpressure.PartitionLoad load;
+        private final SinkMetrics.PartitionMetrics metrics;
+        // null if no rate limit is configured
+        private final Throttle.Partition throttle;
+
+        PartitionBatch(TopicPartition topicPartition, PartitionWriter partitionWriter, PartitionBackpressure.PartitionLoad load,
+                       SinkMetrics.PartitionMetrics metrics, Throttle.Partition throttle) {
+            this.topicPartition = topicPartition;
+            this.partitionWriter = partitionWriter;
+            this.load = load;
+            this.metrics = metrics;
+            this.throttle = throttle;
+        }
+
+        /**
+         * Called after the records were written. Possibly by a writer thread
+         */
+        void batchWritten(List<Record> records, long payloadBytes, long appendTimeNanos) {
+            if (load != null) {
+                load.batchWritten(appendTimeNanos);
+            }
+            metrics.batchWritten(records, payloadBytes, appendTimeNanos);
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package de.azapps.kafkabackup.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pauses the partitions whose writes fall behind, so that Kafka Connect stops delivering records for them instead of
+ * the task blocking until it times out. A partition is paused if writing its last batch took longer than
+ * maxWriteLatencyMs or if maxQueuedBatches of its batches wait for a writer thread. It is resumed after at least
+ * pauseMs once all its queued batches are written.
+ * <p>
+ * The loads are updated by the threads writing the partitions. All other methods must be called by the task thread.
+ */
+class PartitionBackpressure {
+    private static final Logger log = LoggerFactory.getLogger(PartitionBackpressure.class);
+    static final String METRIC_GROUP = "backpressure-metrics";
+    // 0 disables the threshold
+    private final long maxWriteLatencyMs;
+    private final int maxQueuedBatches;
+    private final long pauseMs;
+    private final SinkTaskContext context;
+    private final Map<TopicPartition, PartitionLoad> loads = new HashMap<>();
+    // Written by the task thread, read by the metrics
+    private volatile int pausedPartitions = 0;
+    private final Sensor pauses;
+    private final Sensor pausedTime;
+
+    PartitionBackpressure(long maxWriteLatencyMs, int maxQueuedBatches, long pauseMs, SinkTaskContext context, Metrics metrics, Map<String, String> tags) {
+        this.maxWriteLatencyMs = maxWriteLatencyMs;
+        this.maxQueuedBatches = maxQueuedBatches;
+        this.pauseMs = pauseMs;
+        this.context = context;
+
+        metrics.addMetric(metrics.metricName("paused-partitions", METRIC_GROUP, "Number of partitions currently paused", tags),
+                (Measurable) (config, now) -> pausedPartitions);
+        pauses = metrics.sensor("partition-pauses");
+        pauses.add(metrics.metricName("pause-total", METRIC_GROUP, "Number of times a partition was paused", tags), new CumulativeCount());
+        pausedTime = metrics.sensor("partition-paused-time");
+        pausedTime.add(metrics.metricName("paused-time-ms-total", METRIC_GROUP, "Total time partitions were paused. Recorded when they are resumed", tags), new CumulativeSum());
+        pausedTime.add(metrics.metricName("paused-time-ms-avg", METRIC_GROUP, "Average time a partition was paused", tags), new Avg());
+        pausedTime.add(metrics.metricName("paused-time-ms-max", METRIC_GROUP, "Maximum time a partition was paused", tags), new Max());
+    }
+
+    /**
+     * @return the load of the partition. It must be updated for every batch written to the partition
+     */
+    PartitionLoad addPartition(TopicPartition topicPartition) {
+        PartitionLoad load = new PartitionLoad();
+        loads.put(topicPartition, load);
+        return load;
+    }
+
+    /**
+     * Forgets the partition. Kafka Connect drops the pause of revoked partitions itself
+     */
+    void removePartition(TopicPartition topicPartition) {
+        PartitionLoad load = loads.remove(topicPartition);
+        if (load != null && load.pausedSinceMs >= 0) {
+            pausedTime.record(System.currentTimeMillis() - load.pausedSinceMs);
+            pausedPartitions--;
+        }
+    }
+
+    /**
+     * Pauses the overloaded partitions and resumes the drained ones
+     */
+    void update() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<TopicPartition, PartitionLoad> entry : loads.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            PartitionLoad load = entry.getValue();
+            if (load.pausedSinceMs < 0) {
+                if (isOverloaded(load)) {
+                    context.pause(topicPartition);
+                    load.pausedSinceMs = now;
+                    pausedPartitions++;
+                    pauses.record();
+                    log.debug("Paused Topic {}, Partition {}. Last write took {} ms, {} batches queued",
+                            topicPartition.topic(), topicPartition.partition(), load.lastWriteLatencyMs, load.queuedBatches.get());
+                }
+            } else if (now - load.pausedSinceMs >= pauseMs && load.queuedBatches.get() == 0) {
+                context.resume(topicPartition);
+                pausedTime.record(now - load.pausedSinceMs);
+                load.pausedSinceMs = -1;
+                // The latency is measured again with the next batch
+                load.lastWriteLatencyMs = 0;
+                pausedPartitions--;
+                log.debug("Resumed Topic {}, Partition {}", topicPartition.topic(), topicPartition.partition());
+            }
+        }
+    }
+
+    int pausedPartitions() {
+        return pausedPartitions;
+    }
+
+    private boolean isOverloaded(PartitionLoad load) {
+        return (maxWriteLatencyMs > 0 && load.lastWriteLatencyMs > maxWriteLatencyMs)
+                || (maxQueuedBatches > 0 && load.queuedBatches.get() >= maxQueuedBatches);
+    }
+
+    static class PartitionLoad {
+        private final AtomicInteger queuedBatches = new AtomicInteger();
+        private volatile long lastWriteLatencyMs = 0;
+        // -1 if the partition is not paused. Only used by the task thread
+        private long pausedSinceMs = -1;
+
+        void batchQueued() {
+            queuedBatches.incrementAndGet();
+        }
+
+        void batchWritten(long writeTimeNanos) {
+            lastWriteLatencyMs = TimeUnit.NANOSECONDS.toMillis(writeTimeNanos);
+            queuedBatches.decrementAndGet();
+        }
+    }
+}
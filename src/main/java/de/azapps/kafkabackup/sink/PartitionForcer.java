@@ -0,0 +1,108 @@
+package de.azapps.kafkabackup.sink;
+
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forces the partition writers to the disk as a group commit: all dirty partitions are forced in parallel so that
+ * their fsync latencies overlap. The latency of each fsync and of the whole group commit is reported in the metrics.
+ * <p>
+ * The writers must not be used by other threads while they are forced.
+ */
+class PartitionForcer {
+    static final String METRIC_GROUP = "fsync-metrics";
+    // Percentiles of latencies up to 1 second in 10000 buckets of 0.1 ms, so that the sub-millisecond fsyncs of SSDs
+    // are distinguished. Longer fsyncs are counted in the last bucket
+    private static final int PERCENTILES_SIZE_IN_BYTES = 40000;
+    private static final double PERCENTILES_MAX_MS = 1000;
+    private final ExecutorService executor;
+    private final Sensor fsyncTime;
+    private final Sensor groupCommitTime;
+
+    PartitionForcer(int threads, Metrics metrics, Map<String, String> tags) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kafka-backup-fsync-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        fsyncTime = metrics.sensor("fsync-time");
+        fsyncTime.add(metrics.metricName("fsync-time-ms-avg", METRIC_GROUP, "Average time to force a partition to the disk", tags), new Avg());
+        fsyncTime.add(metrics.metricName("fsync-time-ms-max", METRIC_GROUP, "Maximum time to force a partition to the disk", tags), new Max());
+        fsyncTime.add(metrics.metricName("fsync-total", METRIC_GROUP, "Number of partitions forced to the disk", tags), new CumulativeCount());
+        fsyncTime.add(new Percentiles(PERCENTILES_SIZE_IN_BYTES, PERCENTILES_MAX_MS, Percentiles.BucketSizing.CONSTANT,
+                new Percentile(metrics.metricName("fsync-time-ms-p50", METRIC_GROUP, "Median time to force a partition to the disk", tags), 50),
+                new Percentile(metrics.metricName("fsync-time-ms-p99", METRIC_GROUP, "99th percentile of the time to force a partition to the disk", tags), 99),
+                new Percentile(metrics.metricName("fsync-time-ms-p999", METRIC_GROUP, "99.9th percentile of the time to force a partition to the disk", tags), 99.9)));
+
+        groupCommitTime = metrics.sensor("group-commit-time");
+        groupCommitTime.add(metrics.metricName("group-commit-time-ms-avg", METRIC_GROUP, "Average time to force all dirty partitions", tags), new Avg());
+        groupCommitTime.add(metrics.metricName("group-commit-time-ms-max", METRIC_GROUP, "Maximum time to force all dirty partitions", tags), new Max());
+        groupCommitTime.add(metrics.metricName("group-commit-total", METRIC_GROUP, "Number of group commits", tags), new CumulativeCount());
+    }
+
+    /**
+     * Forces all dirty partition writers and waits until they are synced
+     */
+    void force(Collection<PartitionWriter> partitionWriters) throws IOException {
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (PartitionWriter partitionWriter : partitionWriters) {
+            if (partitionWriter.isDirty()) {
+                futures.add(executor.submit(() -> {
+                    long fsyncStart = System.nanoTime();
+                    partitionWriter.force();
+                    fsyncTime.record(millisSince(fsyncStart));
+                    return null;
+                }));
+            }
+        }
+        if (futures.isEmpty()) {
+            return;
+        }
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while forcing the partitions to the disk");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        groupCommitTime.record(millisSince(start));
+    }
+
+    void close() {
+        executor.shutdown();
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,225 @@
+package de.azapps.kafkabackup.sink;
+
+import de.azapps.kafkabackup.common.Throttle;
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongConsumer;
+
+/**
+ * Appends records to the partition writers on a fixed number of writer threads. Every partition is assigned to one
+ * thread so that its records are written in order. The queues of the threads are bounded so that submitting blocks
+ * if the disks cannot keep up.
+ * <p>
+ * A partition writer must only be used by the pool between submitting records or a force for it and the next
+ * {@link #drain()} or {@link #flush(Map)}. After a write failed, all further writes are skipped and the failure is thrown by the next
+ * call to the pool.
+ */
+class PartitionWriterPool {
+    private static final Logger log = LoggerFactory.getLogger(PartitionWriterPool.class);
+    private static final Task STOP = () -> {
+    };
+    private final List<Worker> workers = new ArrayList<>();
+    private volatile Throwable failure;
+
+    PartitionWriterPool(int threads, int queueCapacity) {
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker("kafka-backup-writer-" + i, queueCapacity);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues the records to be appended to the partition writer. Blocks if the queue of the writer thread is full
+     *
+     * @param throttle  The writer thread waits for it before appending the records. May be null
+     * @param onWritten Called on the writer thread with the time it took to append the records in nanoseconds,
+     *                  without the time throttled. Not called if the records were not written. May be null
+     */
+    void append(TopicPartition topicPartition, PartitionWriter partitionWriter, List<Record> records, Throttle.Partition throttle,
+                LongConsumer onWritten) throws WriterException {
+        checkFailure();
+        worker(topicPartition).submit(() -> {
+            if (failure != null) {
+                return;
+            }
+            if (throttle != null) {
+                throttle.acquire(records);
+            }
+            long start = System.nanoTime();
+            partitionWriter.appendBatch(records);
+            if (onWritten != null) {
+                onWritten.accept(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Waits until all queued records are written and flushes the given partition writers. Each writer is flushed on
+     * the thread that writes its partition
+     */
+    void flush(Map<TopicPartition, PartitionWriter> partitionWriters) throws WriterException {
+        List<List<PartitionWriter>> writersPerWorker = writersPerWorker(partitionWriters);
+        CountDownLatch done = new CountDownLatch(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            List<PartitionWriter> writers = writersPerWorker.get(i);
+            workers.get(i).submit(() -> {
+                try {
+                    if (failure == null) {
+                        for (PartitionWriter partitionWriter : writers) {
+                            partitionWriter.flush();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        await(done);
+        checkFailure();
+    }
+
+    /**
+     * Queues a group commit of the given partition writers after the records queued so far. Each writer thread forces
+     * its partitions with the forcer. Does not wait for it. A failure is thrown by the next call to the pool
+     */
+    void force(Map<TopicPartition, PartitionWriter> partitionWriters, PartitionForcer partitionForcer) throws WriterException {
+        checkFailure();
+        List<List<PartitionWriter>> writersPerWorker = writersPerWorker(partitionWriters);
+        for (int i = 0; i < workers.size(); i++) {
+            List<PartitionWriter> writers = writersPerWorker.get(i);
+            if (!writers.isEmpty()) {
+                workers.get(i).submit(() -> {
+                    if (failure == null) {
+                        partitionForcer.force(writers);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Waits until all queued records are written
+     */
+    void drain() throws WriterException {
+        CountDownLatch done = new CountDownLatch(workers.size());
+        for (Worker worker : workers) {
+            worker.submit(done::countDown);
+        }
+        await(done);
+        checkFailure();
+    }
+
+    /**
+     * Writes the queued records and stops the writer threads
+     */
+    void close() throws WriterException {
+        try {
+            for (Worker worker : workers) {
+                worker.submit(STOP);
+            }
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriterException("Interrupted while stopping the writer threads", e);
+        }
+        checkFailure();
+    }
+
+    private List<List<PartitionWriter>> writersPerWorker(Map<TopicPartition, PartitionWriter> partitionWriters) {
+        List<List<PartitionWriter>> writersPerWorker = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            writersPerWorker.add(new ArrayList<>());
+        }
+        for (Map.Entry<TopicPartition, PartitionWriter> entry : partitionWriters.entrySet()) {
+            writersPerWorker.get(workerIndex(entry.getKey())).add(entry.getValue());
+        }
+        return writersPerWorker;
+    }
+
+    private Worker worker(TopicPartition topicPartition) {
+        return workers.get(workerIndex(topicPartition));
+    }
+
+    private int workerIndex(TopicPartition topicPartition) {
+        return Math.floorMod(topicPartition.hashCode(), workers.size());
+    }
+
+    private void await(CountDownLatch latch) throws WriterException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriterException("Interrupted while waiting for the writer threads", e);
+        }
+    }
+
+    private void checkFailure() throws WriterException {
+        if (failure != null) {
+            throw new WriterException("Writing records failed", failure);
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private class Worker extends Thread {
+        private final BlockingQueue<Task> queue;
+
+        Worker(String name, int queueCapacity) {
+            super(name);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        void submit(Task task) throws WriterException {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WriterException("Interrupted while queueing records", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Task task = queue.take();
+                    if (task == STOP) {
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        log.error("Writing records failed", e);
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static class WriterException extends Exception {
+        WriterException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package de.azapps.kafkabackup.sink;
+
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, latencies and segment metrics of the sink task and its partitions.
+ * <p>
+ * The sensors are recorded once per batch, not per record. The per-partition counters are {@link LongAdder}s that are
+ * only summed up when the metrics are read. Batches are recorded once they are written, possibly on the writer
+ * threads. Batches that failed to be written are not recorded.
+ */
+class SinkMetrics {
+    static final String METRIC_GROUP = "sink-metrics";
+    static final String PARTITION_METRIC_GROUP = "sink-partition-metrics";
+    // Percentiles of latencies up to 1 second in 10000 buckets of 0.1 ms. Longer latencies are counted in the last
+    // bucket
+    private static final int PERCENTILES_SIZE_IN_BYTES = 40000;
+    private static final double PERCENTILES_MAX_MS = 1000;
+    private final Metrics metrics;
+    private final Map<String, String> tags;
+    private final Map<TopicPartition, PartitionMetrics> partitions = new ConcurrentHashMap<>();
+    // Segment rolls of the partitions that were removed
+    private final LongAdder removedSegmentRolls = new LongAdder();
+    private final Sensor records;
+    private final Sensor bytes;
+    private final Sensor appendTime;
+    private final Sensor flushTime;
+    private final Sensor recordLag;
+
+    SinkMetrics(Metrics metrics, Map<String, String> tags) {
+        this.metrics = metrics;
+        this.tags = tags;
+
+        records = metrics.sensor("records-written");
+        records.add(new Meter(metrics.metricName("records-per-sec", METRIC_GROUP, "Number of records written per second", tags),
+                metrics.metricName("records-total", METRIC_GROUP, "Number of records written", tags)));
+        bytes = metrics.sensor("bytes-written");
+        bytes.add(new Meter(metrics.metricName("bytes-per-sec", METRIC_GROUP, "Number of key and value bytes written per second", tags),
+                metrics.metricName("bytes-total", METRIC_GROUP, "Number of key and value bytes written", tags)));
+
+        appendTime = latencySensor("append-time", "append a batch of records to a partition");
+        flushTime = latencySensor("flush-time", "flush all partitions");
+
+        recordLag = metrics.sensor("record-lag");
+        recordLag.add(metrics.metricName("record-lag-ms-avg", METRIC_GROUP, "Average time between the timestamp of the last record of a batch and the end of writing the batch", tags), new Avg());
+        recordLag.add(metrics.metricName("record-lag-ms-max", METRIC_GROUP, "Maximum time between the timestamp of the last record of a batch and the end of writing the batch", tags), new Max());
+
+        metrics.addMetric(metrics.metricName("segment-roll-total", METRIC_GROUP, "Number of segments started", tags),
+                (Measurable) (config, now) -> segmentRolls());
+        metrics.addMetric(metrics.metricName("open-segments", METRIC_GROUP, "Number of open segments", tags),
+                (Measurable) (config, now) -> openSegments());
+        metrics.addMetric(metrics.metricName("partitions", METRIC_GROUP, "Number of partitions written by the task", tags),
+                (Measurable) (config, now) -> partitions.size());
+    }
+
+    private Sensor latencySensor(String name, String description) {
+        Sensor sensor = metrics.sensor(name);
+        sensor.add(metrics.metricName(name + "-ms-avg", METRIC_GROUP, "Average time to " + description, tags), new Avg());
+        sensor.add(metrics.metricName(name + "-ms-max", METRIC_GROUP, "Maximum time to " + description, tags), new Max());
+        sensor.add(new Percentiles(PERCENTILES_SIZE_IN_BYTES, PERCENTILES_MAX_MS, Percentiles.BucketSizing.CONSTANT,
+                new Percentile(metrics.metricName(name + "-ms-p50", METRIC_GROUP, "Median time to " + description, tags), 50),
+                new Percentile(metrics.metricName(name + "-ms-p99", METRIC_GROUP, "99th percentile of the time to " + description, tags), 99),
+                new Percentile(metrics.metricName(name + "-ms-p999", METRIC_GROUP, "99.9th percentile of the time to " + description, tags), 99.9)));
+        return sensor;
+    }
+
+    PartitionMetrics addPartition(TopicPartition topicPartition, PartitionWriter partitionWriter) {
+        removePartition(topicPartition);
+        PartitionMetrics partitionMetrics = new PartitionMetrics(topicPartition, partitionWriter);
+        partitions.put(topicPartition, partitionMetrics);
+        return partitionMetrics;
+    }
+
+    void removePartition(TopicPartition topicPartition) {
+        PartitionMetrics partitionMetrics = partitions.remove(topicPartition);
+        if (partitionMetrics != null) {
+            removedSegmentRolls.add(partitionMetrics.partitionWriter.segmentRolls());
+            for (MetricName metricName : partitionMetrics.metricNames) {
+                metrics.removeMetric(metricName);
+            }
+        }
+    }
+
+    void flushed(long flushTimeNanos) {
+        flushTime.record(toMillis(flushTimeNanos));
+    }
+
+    private long segmentRolls() {
+        long segmentRolls = removedSegmentRolls.sum();
+        for (PartitionMetrics partitionMetrics : partitions.values()) {
+            segmentRolls += partitionMetrics.partitionWriter.segmentRolls();
+        }
+        return segmentRolls;
+    }
+
+    private long openSegments() {
+        long openSegments = 0;
+        for (PartitionMetrics partitionMetrics : partitions.values()) {
+            openSegments += partitionMetrics.partitionWriter.openSegments();
+        }
+        return openSegments;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    class PartitionMetrics {
+        private final PartitionWriter partitionWriter;
+        private final List<MetricName> metricNames = new ArrayList<>();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        // -1 if unknown
+        private volatile long recordLagMs = -1;
+
+        private PartitionMetrics(TopicPartition topicPartition, PartitionWriter partitionWriter) {
+            this.partitionWriter = partitionWriter;
+            Map<String, String> partitionTags = new LinkedHashMap<>(tags);
+            partitionTags.put("topic", topicPartition.topic());
+            partitionTags.put("partition", String.valueOf(topicPartition.partition()));
+            addMetric(metrics.metricName("records-total", PARTITION_METRIC_GROUP, "Number of records written", partitionTags),
+                    (config, now) -> records.sum());
+            addMetric(metrics.metricName("bytes-total", PARTITION_METRIC_GROUP, "Number of key and value bytes written", partitionTags),
+                    (config, now) -> bytes.sum());
+            addMetric(metrics.metricName("record-lag-ms", PARTITION_METRIC_GROUP, "Time between the timestamp of the last record of the last batch and the end of writing the batch. -1 if unknown", partitionTags),
+                    (config, now) -> recordLagMs);
+            addMetric(metrics.metricName("segment-roll-total", PARTITION_METRIC_GROUP, "Number of segments started", partitionTags),
+                    (config, now) -> partitionWriter.segmentRolls());
+            addMetric(metrics.metricName("open-segments", PARTITION_METRIC_GROUP, "Number of open segments", partitionTags),
+                    (config, now) -> partitionWriter.openSegments());
+        }
+
+        private void addMetric(MetricName metricName, Measurable measurable) {
+            metrics.addMetric(metricName, measurable);
+            metricNames.add(metricName);
+        }
+
+        /**
+         * Records a batch written to the partition and the time it took to append it. Called by the thread that wrote
+         * the batch
+         *
+         * @param payloadBytes The number of key and value bytes of the records
+         */
+        void batchWritten(List<Record> batch, long payloadBytes, long appendTimeNanos) {
+            records.add(batch.size());
+            bytes.add(payloadBytes);
+            SinkMetrics.this.records.record(batch.size());
+            SinkMetrics.this.bytes.record(payloadBytes);
+            appendTime.record(toMillis(appendTimeNanos));
+            Record last = batch.get(batch.size() - 1);
+            if (last.timestamp() != null && last.timestampType() != TimestampType.NO_TIMESTAMP_TYPE) {
+                // Includes the time queued, throttled and appended
+                long lagMs = Math.max(0, System.currentTimeMillis() - last.timestamp());
+                recordLagMs = lagMs;
+                recordLag.record(lagMs);
+            }
+        }
+    }
+}
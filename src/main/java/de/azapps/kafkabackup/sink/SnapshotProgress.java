@@ -0,0 +1,166 @@
+package de.azapps.kafkabackup.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the progress of a snapshot. The completed partitions and the remaining records are updated incrementally with
+ * every written batch, so checking whether the snapshot is complete does not depend on the number of partitions.
+ * <p>
+ * The remaining bytes are estimated from the average size of the records written so far. The throughput is the average
+ * since the snapshot started.
+ * <p>
+ * All methods must be called by the task thread. The metrics are read by the metrics reporters on other threads.
+ */
+class SnapshotProgress {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotProgress.class);
+    static final String METRIC_GROUP = "snapshot-metrics";
+    private final Map<TopicPartition, PartitionProgress> partitions = new ConcurrentHashMap<>();
+    private final long logIntervalMs;
+    private final long startMs;
+    private long nextLogMs;
+    // Written by the task thread, read by the metrics
+    private volatile int completedPartitions = 0;
+    private volatile long remainingRecords = 0;
+    private volatile long writtenRecords = 0;
+    private volatile long writtenBytes = 0;
+
+    SnapshotProgress(long logIntervalMs, Metrics metrics, Map<String, String> tags) {
+        this.logIntervalMs = logIntervalMs;
+        this.startMs = System.currentTimeMillis();
+        this.nextLogMs = startMs + logIntervalMs;
+
+        metrics.addMetric(metrics.metricName("snapshot-partitions", METRIC_GROUP, "Number of partitions of the snapshot", tags),
+                (Measurable) (config, now) -> partitions.size());
+        metrics.addMetric(metrics.metricName("snapshot-partitions-completed", METRIC_GROUP, "Number of partitions backed up up to their end offset", tags),
+                (Measurable) (config, now) -> completedPartitions);
+        metrics.addMetric(metrics.metricName("snapshot-records-remaining", METRIC_GROUP, "Number of records left to back up", tags),
+                (Measurable) (config, now) -> remainingRecords);
+        metrics.addMetric(metrics.metricName("snapshot-bytes-remaining", METRIC_GROUP, "Estimated number of key and value bytes left to back up", tags),
+                (Measurable) (config, now) -> remainingBytes());
+        metrics.addMetric(metrics.metricName("snapshot-records-per-sec", METRIC_GROUP, "Average number of records backed up per second", tags),
+                (Measurable) (config, now) -> recordsPerSecond(now));
+        metrics.addMetric(metrics.metricName("snapshot-bytes-per-sec", METRIC_GROUP, "Average number of key and value bytes backed up per second", tags),
+                (Measurable) (config, now) -> bytesPerSecond(now));
+        metrics.addMetric(metrics.metricName("snapshot-eta-ms", METRIC_GROUP, "Estimated time until the snapshot is complete. -1 if unknown", tags),
+                (Measurable) (config, now) -> etaMs(now));
+    }
+
+    /**
+     * @param endOffset        The end offset of the partition at the start of the snapshot
+     * @param lastWrittenOffset The last offset already in the backup. -1 if there is none
+     */
+    void addPartition(TopicPartition topicPartition, long endOffset, long lastWrittenOffset) {
+        // The partition may be assigned again after a rebalance
+        removePartition(topicPartition);
+        PartitionProgress progress = new PartitionProgress(endOffset, lastWrittenOffset);
+        partitions.put(topicPartition, progress);
+        remainingRecords += progress.remainingRecords();
+        if (progress.isComplete()) {
+            completedPartitions++;
+        }
+    }
+
+    private void removePartition(TopicPartition topicPartition) {
+        PartitionProgress progress = partitions.remove(topicPartition);
+        if (progress != null) {
+            remainingRecords -= progress.remainingRecords();
+            if (progress.isComplete()) {
+                completedPartitions--;
+            }
+        }
+    }
+
+    /**
+     * Records a batch written to the partition. Partitions that are not part of the snapshot are ignored
+     */
+    void update(TopicPartition topicPartition, long lastOffset, int records, long bytes) {
+        writtenRecords += records;
+        writtenBytes += bytes;
+        PartitionProgress progress = partitions.get(topicPartition);
+        if (progress == null || progress.isComplete()) {
+            return;
+        }
+        long previouslyRemaining = progress.remainingRecords();
+        progress.lastOffset = lastOffset;
+        // A single update so that the metrics do not see an intermediate value
+        remainingRecords += progress.remainingRecords() - previouslyRemaining;
+        if (progress.isComplete()) {
+            completedPartitions++;
+        }
+    }
+
+    boolean isComplete() {
+        return completedPartitions == partitions.size();
+    }
+
+    int completedPartitions() {
+        return completedPartitions;
+    }
+
+    long remainingRecords() {
+        return remainingRecords;
+    }
+
+    /**
+     * Logs the progress if the log interval passed since it was logged the last time
+     */
+    void maybeLogProgress() {
+        long now = System.currentTimeMillis();
+        if (now < nextLogMs) {
+            return;
+        }
+        nextLogMs = now + logIntervalMs;
+        log.info("Snapshot progress: {}/{} partitions complete, {} records ({} bytes) remaining, {} records/s ({} bytes/s), ETA {} s",
+                completedPartitions, partitions.size(), remainingRecords, remainingBytes(), Math.round(recordsPerSecond(now)),
+                Math.round(bytesPerSecond(now)), etaMs(now) / 1000);
+    }
+
+    private long remainingBytes() {
+        if (writtenRecords == 0) {
+            return 0;
+        }
+        // The product of the counters overflows for large snapshots
+        return (long) (remainingRecords * ((double) writtenBytes / writtenRecords));
+    }
+
+    private double recordsPerSecond(long now) {
+        return now > startMs ? writtenRecords * 1000.0 / (now - startMs) : 0;
+    }
+
+    private double bytesPerSecond(long now) {
+        return now > startMs ? writtenBytes * 1000.0 / (now - startMs) : 0;
+    }
+
+    private long etaMs(long now) {
+        if (remainingRecords == 0) {
+            return 0;
+        }
+        double recordsPerSecond = recordsPerSecond(now);
+        return recordsPerSecond > 0 ? Math.round(remainingRecords * 1000 / recordsPerSecond) : -1;
+    }
+
+    private static class PartitionProgress {
+        private final long endOffset;
+        private long lastOffset;
+
+        PartitionProgress(long endOffset, long lastOffset) {
+            this.endOffset = endOffset;
+            this.lastOffset = lastOffset;
+        }
+
+        boolean isComplete() {
+            return lastOffset >= endOffset - 1;
+        }
+
+        long remainingRecords() {
+            return Math.max(0, endOffset - 1 - lastOffset);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package de.azapps.kafkabackup.source;
 
 import de.azapps.kafkabackup.common.BackupConfig;
+import de.azapps.kafkabackup.common.offset.OffsetSource;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 class BackupSourceConfig extends BackupConfig {
     private static final String CLUSTER_KEY_DESERIALIZER = CLUSTER_PREFIX + "key.deserializer";
@@ -15,6 +19,22 @@ class BackupSourceConfig extends BackupConfig {
     private static final String BATCH_SIZE_CONFIG = "batch.size";
     private static final String SOURCE_DIR_CONFIG = "source.dir";
     private static final String TOPICS_CONFIG = "topics";
+    private static final String MAX_OPEN_FILES_CONFIG = "max.open.files";
+    private static final String PREFETCH_THREADS_CONFIG = "prefetch.threads";
+    private static final String PREFETCH_BUFFER_BYTES_CONFIG = "prefetch.buffer.bytes";
+    private static final String OFFSET_COMMITTERS_CONFIG = "offset.committers";
+    private static final String THROTTLE_BYTES_PER_SEC_CONFIG = "throttle.bytes.per.sec";
+    private static final String THROTTLE_RECORDS_PER_SEC_CONFIG = "throttle.records.per.sec";
+    private static final String THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG = "throttle.partition.bytes.per.sec";
+    private static final String THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG = "throttle.partition.records.per.sec";
+    private static final String RESTORE_START_TIMESTAMP_CONFIG = "restore.start.timestamp";
+    private static final String RESTORE_END_TIMESTAMP_CONFIG = "restore.end.timestamp";
+    private static final String RESTORE_START_OFFSETS_CONFIG = "restore.start.offsets";
+    private static final String RESTORE_END_OFFSETS_CONFIG = "restore.end.offsets";
+    private static final String CONNECTOR_NAME = "name";
+    // Set by the connector for each task
+    static final String TASK_ID = "task.id";
+    static final String TASK_PARTITIONS = "task.partitions";
     static final String ALLOW_OLD_KAFKA_CONNECT_VERSION = "allow.old.kafka.connect.version.unsafe";
 
 
@@ -24,7 +44,31 @@ class BackupSourceConfig extends BackupConfig {
             .define(BATCH_SIZE_CONFIG, ConfigDef.Type.INT, 100,
                     ConfigDef.Importance.LOW, "Batch size per partition")
             .define(TOPICS_CONFIG, ConfigDef.Type.STRING,
-                    ConfigDef.Importance.HIGH, "Topics to restore");
+                    ConfigDef.Importance.HIGH, "Topics to restore")
+            .define(MAX_OPEN_FILES_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of files the task keeps open. 0 disables the limit")
+            .define(PREFETCH_THREADS_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Number of threads reading the partitions ahead of Kafka Connect. 0 reads on the task thread")
+            .define(PREFETCH_BUFFER_BYTES_CONFIG, ConfigDef.Type.LONG, 64L * 1024 * 1024, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Maximum number of key and value bytes read ahead")
+            .define(OFFSET_COMMITTERS_CONFIG, ConfigDef.Type.INT, OffsetSource.DEFAULT_MAX_COMMITTERS, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Number of consumer groups whose offset committers are kept open between the offset commits")
+            .define(THROTTLE_BYTES_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of key and value bytes the task restores per second. 0 disables the limit")
+            .define(THROTTLE_RECORDS_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of records the task restores per second. 0 disables the limit")
+            .define(THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of key and value bytes restored per second to each partition. 0 disables the limit")
+            .define(THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum number of records restored per second to each partition. 0 disables the limit")
+            .define(RESTORE_START_TIMESTAMP_CONFIG, ConfigDef.Type.LONG, -1L, ConfigDef.Range.atLeast(-1),
+                    ConfigDef.Importance.MEDIUM, "Restore each partition from the first record with this timestamp (ms since epoch) or later. -1 restores from the beginning")
+            .define(RESTORE_END_TIMESTAMP_CONFIG, ConfigDef.Type.LONG, -1L, ConfigDef.Range.atLeast(-1),
+                    ConfigDef.Importance.MEDIUM, "Stop restoring a partition at the first record with a timestamp (ms since epoch) after this one. -1 restores until the end")
+            .define(RESTORE_START_OFFSETS_CONFIG, ConfigDef.Type.STRING, "",
+                    ConfigDef.Importance.MEDIUM, "Offsets to start restoring the partitions at. Comma separated list of topic:partition=offset")
+            .define(RESTORE_END_OFFSETS_CONFIG, ConfigDef.Type.STRING, "",
+                    ConfigDef.Importance.MEDIUM, "Offsets to stop restoring the partitions before. Comma separated list of topic:partition=offset");
 
     BackupSourceConfig(Map<?, ?> props) {
         super(CONFIG_DEF, props);
@@ -40,6 +84,16 @@ class BackupSourceConfig extends BackupConfig {
         if (!props.containsKey(CLUSTER_VALUE_DESERIALIZER)) {
             throw new RuntimeException("Missing Configuration Variable: " + CLUSTER_VALUE_DESERIALIZER);
         }
+        if (restoreStartTimestamp() != -1 && restoreEndTimestamp() != -1 && restoreStartTimestamp() > restoreEndTimestamp()) {
+            throw new RuntimeException(RESTORE_START_TIMESTAMP_CONFIG + " must not be after " + RESTORE_END_TIMESTAMP_CONFIG);
+        }
+        Map<TopicPartition, Long> endOffsets = restoreEndOffsets();
+        for (Map.Entry<TopicPartition, Long> startOffset : restoreStartOffsets().entrySet()) {
+            Long endOffset = endOffsets.get(startOffset.getKey());
+            if (endOffset != null && startOffset.getValue() > endOffset) {
+                throw new RuntimeException(RESTORE_START_OFFSETS_CONFIG + " must not be after " + RESTORE_END_OFFSETS_CONFIG + " for " + startOffset.getKey());
+            }
+        }
     }
 
     Map<String, Object> consumerConfig() {
@@ -58,6 +112,134 @@ class BackupSourceConfig extends BackupConfig {
         return Arrays.asList(getString(TOPICS_CONFIG).split("\\s*,\\s*"));
     }
 
+    int maxOpenFiles() {
+        return getInt(MAX_OPEN_FILES_CONFIG);
+    }
+
+    int prefetchThreads() {
+        return getInt(PREFETCH_THREADS_CONFIG);
+    }
+
+    long prefetchBufferBytes() {
+        return getLong(PREFETCH_BUFFER_BYTES_CONFIG);
+    }
+
+    int offsetCommitters() {
+        return getInt(OFFSET_COMMITTERS_CONFIG);
+    }
+
+    long throttleBytesPerSec() {
+        return getLong(THROTTLE_BYTES_PER_SEC_CONFIG);
+    }
+
+    long throttleRecordsPerSec() {
+        return getLong(THROTTLE_RECORDS_PER_SEC_CONFIG);
+    }
+
+    long throttlePartitionBytesPerSec() {
+        return getLong(THROTTLE_PARTITION_BYTES_PER_SEC_CONFIG);
+    }
+
+    long throttlePartitionRecordsPerSec() {
+        return getLong(THROTTLE_PARTITION_RECORDS_PER_SEC_CONFIG);
+    }
+
+    /**
+     * @return the timestamp to start the restore at. -1 if the partitions are restored from the beginning
+     */
+    long restoreStartTimestamp() {
+        return getLong(RESTORE_START_TIMESTAMP_CONFIG);
+    }
+
+    /**
+     * @return the timestamp to stop the restore after. -1 if the partitions are restored until the end
+     */
+    long restoreEndTimestamp() {
+        return getLong(RESTORE_END_TIMESTAMP_CONFIG);
+    }
+
+    /**
+     * @return the offset to start the restore at for each partition with a start offset. The other partitions are
+     * restored from the beginning (or from the start timestamp)
+     */
+    Map<TopicPartition, Long> restoreStartOffsets() {
+        return parseOffsets(RESTORE_START_OFFSETS_CONFIG);
+    }
+
+    /**
+     * @return the offset to stop the restore before for each partition with an end offset
+     */
+    Map<TopicPartition, Long> restoreEndOffsets() {
+        return parseOffsets(RESTORE_END_OFFSETS_CONFIG);
+    }
+
+    private Map<TopicPartition, Long> parseOffsets(String name) {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (String entry : getString(name).split("\\s*,\\s*")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int offsetSeparator = entry.lastIndexOf('=');
+            // Topic names cannot contain a colon
+            int partitionSeparator = entry.lastIndexOf(':', offsetSeparator);
+            if (offsetSeparator < 0 || partitionSeparator < 0) {
+                throw new RuntimeException("Invalid entry " + entry + " in " + name + ". Expected topic:partition=offset");
+            }
+            try {
+                offsets.put(new TopicPartition(entry.substring(0, partitionSeparator),
+                                Integer.parseInt(entry.substring(partitionSeparator + 1, offsetSeparator).trim())),
+                        Long.parseLong(entry.substring(offsetSeparator + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid entry " + entry + " in " + name + ". Expected topic:partition=offset", e);
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the name of the connector. Used to tag the metrics
+     */
+    String connectorName() {
+        return originalsStrings().getOrDefault(CONNECTOR_NAME, "backup-source");
+    }
+
+    String taskId() {
+        return originalsStrings().getOrDefault(TASK_ID, "0");
+    }
+
+    /**
+     * @return the partitions assigned to the task by the connector. Empty if the task restores all partitions of the
+     * topics
+     */
+    Optional<List<TopicPartition>> taskPartitions() {
+        String taskPartitions = originalsStrings().get(TASK_PARTITIONS);
+        if (taskPartitions == null) {
+            return Optional.empty();
+        }
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (String topicPartition : taskPartitions.split(",")) {
+            if (topicPartition.isEmpty()) {
+                continue;
+            }
+            // Topic names cannot contain a colon
+            int separator = topicPartition.lastIndexOf(':');
+            partitions.add(new TopicPartition(topicPartition.substring(0, separator),
+                    Integer.parseInt(topicPartition.substring(separator + 1))));
+        }
+        return Optional.of(partitions);
+    }
+
+    static String formatTaskPartitions(List<TopicPartition> partitions) {
+        StringBuilder builder = new StringBuilder();
+        for (TopicPartition topicPartition : partitions) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(topicPartition.topic()).append(':').append(topicPartition.partition());
+        }
+        return builder.toString();
+    }
+
 
 }
 
@@ -1,18 +1,33 @@
 package de.azapps.kafkabackup.source;
 
+import de.azapps.kafkabackup.common.partition.PartitionUtils;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.source.SourceConnector;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.kafka.connect.source.SourceTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Splits the partitions of the restored topics across the tasks. Each task restores only the partitions assigned to
+ * it and tracks their source offsets. The partitions are assigned round robin, so the partitions of each topic are
+ * spread evenly across the tasks.
+ */
 public class BackupSourceConnector extends SourceConnector {
+    private static final Logger log = LoggerFactory.getLogger(BackupSourceConnector.class);
     private Map<String, String> config;
 
 
@@ -35,14 +50,46 @@ public class BackupSourceConnector extends SourceConnector {
 
     @Override
     public List<Map<String, String>> taskConfigs(int maxTasks) {
-        if (maxTasks > 1) {
-            throw new ConnectException("kafka-backup can currently handle only one task.");
+        List<TopicPartition> partitions;
+        try {
+            partitions = findPartitions(new BackupSourceConfig(config));
+        } catch (IOException e) {
+            throw new ConnectException("Cannot list the partitions in the backup", e);
+        }
+        // At least one task which logs that the restore is complete
+        int tasks = Math.max(1, Math.min(maxTasks, partitions.size()));
+        List<List<TopicPartition>> taskPartitions = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            taskPartitions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < partitions.size(); i++) {
+            taskPartitions.get(i % tasks).add(partitions.get(i));
         }
         List<Map<String, String>> configs = new ArrayList<>();
-        configs.add(config);
+        for (int i = 0; i < tasks; i++) {
+            Map<String, String> taskConfig = new HashMap<>(config);
+            taskConfig.put(BackupSourceConfig.TASK_ID, String.valueOf(i));
+            taskConfig.put(BackupSourceConfig.TASK_PARTITIONS, BackupSourceConfig.formatTaskPartitions(taskPartitions.get(i)));
+            configs.add(taskConfig);
+        }
+        log.info("Restoring {} partitions with {} tasks", partitions.size(), tasks);
         return configs;
     }
 
+    private static List<TopicPartition> findPartitions(BackupSourceConfig sourceConfig) throws IOException {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (String topic : sourceConfig.topics()) {
+            Path topicDir = Paths.get(sourceConfig.sourceDir(), topic);
+            if (!Files.isDirectory(topicDir)) {
+                throw new ConnectException("Missing directory for topic " + topic);
+            }
+            for (int partition : PartitionUtils.partitions(topicDir)) {
+                partitions.add(new TopicPartition(topic, partition));
+            }
+        }
+        return partitions;
+    }
+
     @Override
     public void stop() {
 
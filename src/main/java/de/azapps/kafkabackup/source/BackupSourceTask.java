@@ -1,5 +1,8 @@
 package de.azapps.kafkabackup.source;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
+import de.azapps.kafkabackup.common.MetricsUtils;
+import de.azapps.kafkabackup.common.Throttle;
 import de.azapps.kafkabackup.common.offset.OffsetSource;
 import de.azapps.kafkabackup.common.partition.PartitionIndex;
 import de.azapps.kafkabackup.common.partition.PartitionReader;
@@ -9,6 +12,7 @@ import de.azapps.kafkabackup.common.segment.SegmentIndex;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.header.ConnectHeaders;
 import org.apache.kafka.connect.source.SourceRecord;
@@ -33,6 +37,12 @@ public class BackupSourceTask extends SourceTask {
     private int batchSize = 100;
     private OffsetSource offsetSource;
     private List<String> topics;
+    private FileHandleCache fileHandleCache;
+    // null if the partitions are read on the task thread
+    private PartitionPrefetcher prefetcher;
+    private Metrics metrics;
+    // Empty if no rate limit is configured
+    private final Map<TopicPartition, Throttle.Partition> throttles = new HashMap<>();
 
     @Override
     public String version() {
@@ -45,13 +55,29 @@ public class BackupSourceTask extends SourceTask {
         sourceDir = Paths.get(config.sourceDir());
         batchSize = config.batchSize();
         topics = config.topics();
+        metrics = MetricsUtils.createMetrics();
+        Map<String, String> metricTags = new LinkedHashMap<>();
+        metricTags.put("connector", config.connectorName());
+        metricTags.put("task", config.taskId());
+        fileHandleCache = new FileHandleCache(config.maxOpenFiles(), metrics, metricTags);
         try {
-            findPartitions();
-            offsetSource = new OffsetSource(sourceDir, topics, config.consumerConfig());
+            Optional<List<TopicPartition>> taskPartitions = config.taskPartitions();
+            if (taskPartitions.isPresent()) {
+                for (TopicPartition topicPartition : taskPartitions.get()) {
+                    registerPartition(topicPartition);
+                }
+                offsetSource = new OffsetSource(sourceDir, taskPartitions.get(), config.consumerConfig(), config.offsetCommitters());
+            } else {
+                findPartitions();
+                offsetSource = new OffsetSource(sourceDir, topics, config.consumerConfig(), config.offsetCommitters());
+            }
+            log.info("BackupSourceTask {} restores {} partitions", config.taskId(), partitionReaders.size());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        Map<TopicPartition, Long> startOffsets = config.restoreStartOffsets();
+        Map<TopicPartition, Long> endOffsets = config.restoreEndOffsets();
         for (Map.Entry<TopicPartition, PartitionReader> entry : partitionReaders.entrySet()) {
             TopicPartition topicPartition = entry.getKey();
             PartitionReader partitionReader = entry.getValue();
@@ -71,44 +97,85 @@ public class BackupSourceTask extends SourceTask {
                 } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException e) {
                     throw new RuntimeException(e);
                 }
+            } else if (startOffsets.containsKey(topicPartition)) {
+                try {
+                    if (partitionReader.hasMoreData()) {
+                        partitionReader.seek(Math.max(startOffsets.get(topicPartition), partitionReader.firstOffset()));
+                    }
+                } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException e) {
+                    throw new RuntimeException(e);
+                }
+            } else if (config.restoreStartTimestamp() != -1) {
+                try {
+                    if (!partitionReader.seekToTimestamp(config.restoreStartTimestamp())) {
+                        log.info("Topic {} partition {} has no records at or after the start timestamp", topicPartition.topic(), topicPartition.partition());
+                    }
+                } catch (IOException | SegmentIndex.IndexException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (config.restoreEndTimestamp() != -1) {
+                partitionReader.setEndTimestamp(config.restoreEndTimestamp());
+            }
+            if (endOffsets.containsKey(topicPartition)) {
+                partitionReader.setEndOffset(endOffsets.get(topicPartition));
+            }
+        }
+
+        if (Throttle.isEnabled(config.throttleBytesPerSec(), config.throttleRecordsPerSec(),
+                config.throttlePartitionBytesPerSec(), config.throttlePartitionRecordsPerSec())) {
+            Throttle throttle = new Throttle(config.throttleBytesPerSec(), config.throttleRecordsPerSec(),
+                    config.throttlePartitionBytesPerSec(), config.throttlePartitionRecordsPerSec(), metrics, metricTags);
+            for (TopicPartition topicPartition : partitionReaders.keySet()) {
+                throttles.put(topicPartition, throttle.partition());
+            }
+        }
+
+        if (config.prefetchThreads() > 0) {
+            prefetcher = new PartitionPrefetcher(config.prefetchThreads(), config.prefetchBufferBytes(), batchSize, this::toSourceRecord);
+            for (Map.Entry<TopicPartition, PartitionReader> entry : partitionReaders.entrySet()) {
+                prefetcher.addPartition(entry.getKey(), entry.getValue(), throttles.get(entry.getKey()));
             }
         }
     }
 
+    /**
+     * Registers all partitions of the topics. Used if the connector did not assign partitions to the task
+     */
     private void findPartitions() throws IOException {
         for (String topic : topics) {
             Path topicDir = Paths.get(sourceDir.toString(), topic);
             if (!Files.isDirectory(topicDir)) {
                 throw new RuntimeException("Missing directory for topic " + topic);
             }
-            Files.list(topicDir).forEach((Path f) -> {
-                Optional<Integer> partition = PartitionUtils.isPartitionIndex(f);
-                if (partition.isPresent()) {
-                    TopicPartition topicPartition = new TopicPartition(topic, partition.get());
-                    PartitionReader partitionReader;
-                    try {
-                        partitionReader = new PartitionReader(topic, partition.get(), topicDir);
-                    } catch (IOException | PartitionIndex.IndexException | PartitionReader.PartitionException | SegmentIndex.IndexException e) {
-                        throw new RuntimeException(e);
-                    }
-                    partitionReaders.put(topicPartition, partitionReader);
-                    log.info("Registered topic {} partition {}", topic, partition);
-                }
-            });
+            for (int partition : PartitionUtils.partitions(topicDir)) {
+                registerPartition(new TopicPartition(topic, partition));
+            }
+        }
+    }
+
+    private void registerPartition(TopicPartition topicPartition) throws IOException {
+        Path topicDir = Paths.get(sourceDir.toString(), topicPartition.topic());
+        PartitionReader partitionReader;
+        try {
+            partitionReader = new PartitionReader(topicPartition.topic(), topicPartition.partition(), topicDir, fileHandleCache);
+        } catch (PartitionIndex.IndexException | PartitionReader.PartitionException | SegmentIndex.IndexException e) {
+            throw new RuntimeException(e);
         }
+        partitionReaders.put(topicPartition, partitionReader);
+        log.info("Registered topic {} partition {}", topicPartition.topic(), topicPartition.partition());
     }
 
     long lastPrint = 0;
 
     @Override
     public List<SourceRecord> poll() {
+        if (prefetcher != null) {
+            return pollPrefetched();
+        }
         List<SourceRecord> sourceRecords = new ArrayList<>();
         if (finishedPartitions.equals(partitionReaders.keySet())) {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastPrint > 5000) {
-                log.info("All records read. Restore was successful");
-                lastPrint = currentTime;
-            }
+            logRestoreCompleted();
             return new ArrayList<>();
         }
         try {
@@ -117,6 +184,10 @@ public class BackupSourceTask extends SourceTask {
                 PartitionReader partitionReader = entry.getValue();
 
                 List<Record> records = partitionReader.readBytesBatch(batchSize);
+                Throttle.Partition throttle = throttles.get(topicPartition);
+                if (throttle != null) {
+                    throttle.acquire(records);
+                }
                 if (records.size() > 0) {
                     log.info("Read {} record(s) from topic {} partition {}. Current offset: {}",
                             records.size(), records.get(0).topic(), records.get(0).kafkaPartition(), records.get(records.size() - 1).kafkaOffset());
@@ -130,10 +201,35 @@ public class BackupSourceTask extends SourceTask {
             }
         } catch (IOException | SegmentIndex.IndexException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         return sourceRecords;
     }
 
+    private List<SourceRecord> pollPrefetched() {
+        try {
+            List<SourceRecord> sourceRecords = prefetcher.poll();
+            if (sourceRecords.isEmpty() && prefetcher.isFinished()) {
+                logRestoreCompleted();
+            }
+            return sourceRecords;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        } catch (PartitionPrefetcher.PrefetchException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void logRestoreCompleted() {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastPrint > 5000) {
+            log.info("All records read. Restore was successful");
+            lastPrint = currentTime;
+        }
+    }
+
     private SourceRecord toSourceRecord(Record record) {
         Map<String, String> sourcePartition = new HashMap<>();
         sourcePartition.put(SOURCE_PARTITION_PARTITION, record.kafkaPartition().toString());
@@ -158,8 +254,23 @@ public class BackupSourceTask extends SourceTask {
         offsetSource.syncGroupForOffset(topicPartition, sourceOffset, targetOffset);
     }
 
+    /**
+     * Commits the consumer group offsets translated since the last commit. Called periodically by Kafka Connect
+     */
+    @Override
+    public void commit() {
+        offsetSource.flush();
+    }
+
     @Override
     public void stop() {
+        if (prefetcher != null) {
+            try {
+                prefetcher.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         for (PartitionReader partitionReader : partitionReaders.values()) {
             try {
                 partitionReader.close();
@@ -167,6 +278,12 @@ public class BackupSourceTask extends SourceTask {
                 e.printStackTrace();
             }
         }
+        if (offsetSource != null) {
+            offsetSource.close();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
         log.info("Stopped BackupSourceTask");
     }
 }
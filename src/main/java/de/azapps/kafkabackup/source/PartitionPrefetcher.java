@@ -0,0 +1,207 @@
+package de.azapps.kafkabackup.source;
+
+import de.azapps.kafkabackup.common.Throttle;
+import de.azapps.kafkabackup.common.partition.PartitionReader;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Reads and converts the records of the partitions on a pool of reader threads ahead of {@link #poll()}. Disk reads and
+ * decoding thus overlap with Kafka Connect producing the previous records.
+ * <p>
+ * Each partition is read by at most one thread at a time so that its records stay in order. A partition reads its next
+ * batch as long as less than maxBufferedBytes of key and value bytes are buffered in total. The buffer may exceed the
+ * limit by one batch per reader thread.
+ */
+class PartitionPrefetcher {
+    private static final Logger log = LoggerFactory.getLogger(PartitionPrefetcher.class);
+    private static final long POLL_TIMEOUT_MS = 100;
+    private final ExecutorService executor;
+    private final long maxBufferedBytes;
+    private final long batchSize;
+    private final Function<Record, SourceRecord> converter;
+    // Guarded by `this`
+    private final List<PartitionQueue> partitions = new ArrayList<>();
+    private long bufferedBytes = 0;
+    private int readyBatches = 0;
+    private int finishedPartitions = 0;
+    private Throwable failure;
+    private volatile boolean closed = false;
+
+    /**
+     * @param batchSize The number of key and value bytes read from a partition at once
+     * @param converter Converts the records on the reader threads
+     */
+    PartitionPrefetcher(int threads, long maxBufferedBytes, long batchSize, Function<Record, SourceRecord> converter) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.batchSize = batchSize;
+        this.converter = converter;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kafka-backup-reader-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts reading the partition at the current position of the reader. The reader must not be used by anyone else
+     * afterwards
+     *
+     * @param throttle The reader thread waits for it after reading a batch. May be null
+     */
+    synchronized void addPartition(TopicPartition topicPartition, PartitionReader partitionReader, Throttle.Partition throttle) {
+        PartitionQueue partition = new PartitionQueue(topicPartition, partitionReader, throttle);
+        partitions.add(partition);
+        schedule(partition);
+    }
+
+    /**
+     * Waits a short time for records and returns all records read so far. The records of each partition are in order
+     *
+     * @return the records. Empty if there are none yet or if all partitions are finished
+     */
+    synchronized List<SourceRecord> poll() throws InterruptedException, PrefetchException {
+        long deadline = System.currentTimeMillis() + POLL_TIMEOUT_MS;
+        while (failure == null && readyBatches == 0 && finishedPartitions < partitions.size()) {
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                break;
+            }
+            wait(remainingMs);
+        }
+        if (failure != null) {
+            throw new PrefetchException("Reading the backup failed", failure);
+        }
+        List<SourceRecord> records = new ArrayList<>();
+        for (PartitionQueue partition : partitions) {
+            Batch batch;
+            while ((batch = partition.batches.poll()) != null) {
+                records.addAll(batch.records);
+                bufferedBytes -= batch.bytes;
+                readyBatches--;
+            }
+        }
+        // Continue the partitions that stopped at the buffer limit
+        for (PartitionQueue partition : partitions) {
+            if (!partition.scheduled && !partition.finished) {
+                schedule(partition);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return whether all records of all partitions were returned by {@link #poll()}
+     */
+    synchronized boolean isFinished() {
+        return finishedPartitions == partitions.size() && readyBatches == 0;
+    }
+
+    /**
+     * Stops the reader threads. The partition readers can be closed afterwards
+     */
+    void close() throws InterruptedException {
+        closed = true;
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Reader threads did not stop in time");
+        }
+    }
+
+    private void schedule(PartitionQueue partition) {
+        if (bufferedBytes < maxBufferedBytes && !closed) {
+            partition.scheduled = true;
+            executor.execute(() -> read(partition));
+        }
+    }
+
+    private void read(PartitionQueue partition) {
+        if (closed) {
+            return;
+        }
+        try {
+            List<Record> records = partition.partitionReader.readBytesBatch(batchSize);
+            if (partition.throttle != null) {
+                partition.throttle.acquire(records);
+            }
+            List<SourceRecord> sourceRecords = new ArrayList<>(records.size());
+            long bytes = 0;
+            for (Record record : records) {
+                sourceRecords.add(converter.apply(record));
+                bytes += (record.key() != null ? record.key().length : 0) + (record.value() != null ? record.value().length : 0);
+            }
+            boolean finished = !partition.partitionReader.hasMoreData();
+            synchronized (this) {
+                if (!sourceRecords.isEmpty()) {
+                    partition.batches.add(new Batch(sourceRecords, bytes));
+                    bufferedBytes += bytes;
+                    readyBatches++;
+                }
+                partition.scheduled = false;
+                if (finished) {
+                    partition.finished = true;
+                    finishedPartitions++;
+                    log.debug("Read all records of topic {} partition {}", partition.topicPartition.topic(), partition.topicPartition.partition());
+                } else {
+                    schedule(partition);
+                }
+                notifyAll();
+            }
+        } catch (Throwable e) {
+            log.error("Reading topic {} partition {} failed", partition.topicPartition.topic(), partition.topicPartition.partition(), e);
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static class PartitionQueue {
+        private final TopicPartition topicPartition;
+        private final PartitionReader partitionReader;
+        // null if no rate limit is configured
+        private final Throttle.Partition throttle;
+        private final Queue<Batch> batches = new ArrayDeque<>();
+        // Whether a reader thread reads or is about to read the partition
+        private boolean scheduled = false;
+        private boolean finished = false;
+
+        PartitionQueue(TopicPartition topicPartition, PartitionReader partitionReader, Throttle.Partition throttle) {
+            this.topicPartition = topicPartition;
+            this.partitionReader = partitionReader;
+            this.throttle = throttle;
+        }
+    }
+
+    private static class Batch {
+        private final List<SourceRecord> records;
+        private final long bytes;
+
+        Batch(List<SourceRecord> records, long bytes) {
+            this.records = records;
+            this.bytes = bytes;
+        }
+    }
+
+    static class PrefetchException extends Exception {
+        PrefetchException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package de.azapps.kafkabackup.standalone;
+
+import de.azapps.kafkabackup.common.MetricsUtils;
+import de.azapps.kafkabackup.common.offset.OffsetSink;
+import de.azapps.kafkabackup.common.offset.OffsetSyncWorker;
+import de.azapps.kafkabackup.common.partition.PartitionIndex;
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.segment.SegmentIndex;
+import de.azapps.kafkabackup.common.segment.SegmentWriter;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Backs up topics with a plain KafkaConsumer instead of Kafka Connect. This is a re-batching engine, not a passthrough:
+ * the consumer decompresses the fetched batches and deserializes every record with byte array keys and values. The
+ * records are then encoded again into Kafka RecordBatches (V3 segments) and compressed with the configured codec.
+ * Thus, the batches and the compression of the producer are not kept, and every record is decompressed and compressed
+ * again. Compared to the sink connector, only the conversion to and from Connect records is saved.
+ * <p>
+ * The backup is the source of truth for the offsets: assigned partitions continue after the last written record. The
+ * consumer offsets are committed only after the records are flushed so that the lag of the consumer group shows the
+ * progress of the backup.
+ */
+public class StandaloneBackup implements ConsumerRebalanceListener {
+    private static final Logger log = LoggerFactory.getLogger(StandaloneBackup.class);
+    private final StandaloneBackupConfig config;
+    private final Consumer<byte[], byte[]> consumer;
+    private final OffsetSink offsetSink;
+    private final Metrics metrics;
+    private final OffsetSyncWorker offsetSyncWorker;
+    private final Path targetDir;
+    private final Map<TopicPartition, PartitionWriter> partitionWriters = new HashMap<>();
+    private volatile boolean running = true;
+
+    public StandaloneBackup(Map<?, ?> props) throws IOException {
+        this(new StandaloneBackupConfig(props));
+    }
+
+    private StandaloneBackup(StandaloneBackupConfig config) throws IOException {
+        this(config,
+                new KafkaConsumer<>(config.consumerConfig(), new ByteArrayDeserializer(), new ByteArrayDeserializer()),
+                new OffsetSink(AdminClient.create(config.adminConfig()), Paths.get(config.targetDir())));
+    }
+
+    StandaloneBackup(StandaloneBackupConfig config, Consumer<byte[], byte[]> consumer, OffsetSink offsetSink) throws IOException {
+        this.config = config;
+        this.consumer = consumer;
+        this.offsetSink = offsetSink;
+        this.targetDir = Paths.get(config.targetDir());
+        Files.createDirectories(targetDir);
+        this.metrics = MetricsUtils.createMetrics();
+        this.offsetSyncWorker = new OffsetSyncWorker(offsetSink, config.offsetSyncIntervalMs(), metrics,
+                Collections.singletonMap("group", config.groupId()));
+    }
+
+    public void subscribe() {
+        consumer.subscribe(config.topics(), this);
+        offsetSyncWorker.start();
+        log.debug("Subscribed to topics {}", config.topics());
+    }
+
+    /**
+     * Backs up records until {@link #stop()} is called. Closes the backup afterwards
+     */
+    public void run() {
+        subscribe();
+        try {
+            while (running) {
+                pollOnce();
+            }
+        } catch (WakeupException e) {
+            // Thrown by stop()
+            if (running) {
+                throw e;
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Polls once and writes the records of each partition with a single append
+     */
+    void pollOnce() {
+        ConsumerRecords<byte[], byte[]> consumerRecords = consumer.poll(Duration.ofMillis(config.pollTimeoutMs()));
+        if (consumerRecords.isEmpty()) {
+            return;
+        }
+        try {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (TopicPartition topicPartition : consumerRecords.partitions()) {
+                List<ConsumerRecord<byte[], byte[]>> partitionRecords = consumerRecords.records(topicPartition);
+                List<Record> records = new ArrayList<>(partitionRecords.size());
+                for (ConsumerRecord<byte[], byte[]> consumerRecord : partitionRecords) {
+                    records.add(Record.fromConsumerRecord(consumerRecord));
+                }
+                PartitionWriter partitionWriter = partitionWriters.get(topicPartition);
+                partitionWriter.appendBatch(records);
+                partitionWriter.flush();
+                long lastOffset = records.get(records.size() - 1).kafkaOffset();
+                offsets.put(topicPartition, new OffsetAndMetadata(lastOffset + 1));
+                log.debug("Backed up Topic {}, Partition {}, up to offset {}", topicPartition.topic(), topicPartition.partition(), lastOffset);
+            }
+            consumer.commitSync(offsets);
+        } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException | SegmentWriter.SegmentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        try {
+            for (TopicPartition topicPartition : partitions) {
+                Path topicDir = Paths.get(targetDir.toString(), topicPartition.topic());
+                Files.createDirectories(topicDir);
+                PartitionWriter partitionWriter = new PartitionWriter(topicPartition.topic(), topicPartition.partition(), topicDir,
+                        config.maxSegmentSizeBytes(), config.compressionType(), config.segmentIndexIntervalBytes(), true,
+                        config.segmentMs(), config.segmentRecords(), config.segmentPreallocate());
+                long lastWrittenOffset = partitionWriter.lastWrittenOffset();
+                if (lastWrittenOffset >= 0) {
+                    consumer.seek(topicPartition, lastWrittenOffset + 1);
+                    log.debug("Initialized Topic {}, Partition {}. Last written offset: {}"
+                            , topicPartition.topic(), topicPartition.partition(), lastWrittenOffset);
+                } else {
+                    log.info("Resetting offset for {} based upon existing consumer group offsets or, if "
+                            + "there are none, the consumer's 'auto.offset.reset' value.", topicPartition);
+                }
+                partitionWriters.put(topicPartition, partitionWriter);
+            }
+            offsetSink.addPartitions(partitions);
+        } catch (IOException | SegmentIndex.IndexException | PartitionIndex.IndexException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        try {
+            for (TopicPartition topicPartition : partitions) {
+                PartitionWriter partitionWriter = partitionWriters.remove(topicPartition);
+                if (partitionWriter != null) {
+                    partitionWriter.close();
+                }
+                log.debug("Closed Topic {}, Partition {}", topicPartition.topic(), topicPartition.partition());
+            }
+            offsetSink.removePartitions(partitions);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops {@link #run()}. Can be called from any thread
+     */
+    public void stop() {
+        running = false;
+        consumer.wakeup();
+    }
+
+    public void close() {
+        try {
+            offsetSyncWorker.close();
+            for (PartitionWriter partitionWriter : partitionWriters.values()) {
+                partitionWriter.close();
+            }
+            partitionWriters.clear();
+            offsetSink.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            consumer.close();
+            metrics.close();
+        }
+        log.info("Stopped StandaloneBackup");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: StandaloneBackup <config.properties>");
+            System.exit(-1);
+        }
+        StandaloneBackup backup = new StandaloneBackup(Utils.loadProps(args[0]));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            backup.stop();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            backup.run();
+        } finally {
+            stopped.countDown();
+        }
+    }
+}
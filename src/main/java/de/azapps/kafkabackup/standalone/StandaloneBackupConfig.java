@@ -0,0 +1,123 @@
+package de.azapps.kafkabackup.standalone;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class StandaloneBackupConfig extends AbstractConfig {
+    static final String CLUSTER_PREFIX = "cluster.";
+    static final String CLUSTER_BOOTSTRAP_SERVERS = CLUSTER_PREFIX + "bootstrap.servers";
+    static final String ADMIN_CLIENT_PREFIX = "admin.";
+    static final String TARGET_DIR_CONFIG = "target.dir";
+    static final String TOPICS_CONFIG = "topics";
+    static final String MAX_SEGMENT_SIZE = "max.segment.size.bytes";
+    static final String COMPRESSION_TYPE_CONFIG = "compression.type";
+    static final String SEGMENT_INDEX_INTERVAL_BYTES_CONFIG = "segment.index.interval.bytes";
+    static final String SEGMENT_MS_CONFIG = "segment.ms";
+    static final String SEGMENT_RECORDS_CONFIG = "segment.records";
+    static final String SEGMENT_PREALLOCATE_CONFIG = "segment.preallocate";
+    static final String POLL_TIMEOUT_MS_CONFIG = "poll.timeout.ms";
+    static final String OFFSET_SYNC_INTERVAL_MS_CONFIG = "offset.sync.interval.ms";
+    static final String DEFAULT_GROUP_ID = "kafka-backup-standalone";
+
+    static final ConfigDef CONFIG_DEF = new ConfigDef()
+            .define(TARGET_DIR_CONFIG, ConfigDef.Type.STRING,
+                    ConfigDef.Importance.HIGH, "TargetDir")
+            .define(TOPICS_CONFIG, ConfigDef.Type.LIST,
+                    ConfigDef.Importance.HIGH, "Topics to back up")
+            .define(MAX_SEGMENT_SIZE, ConfigDef.Type.INT, 1024 * 1024 * 1024, ConfigDef.Range.atLeast(1), // 1 GiB
+                    ConfigDef.Importance.LOW, "Maximum segment size")
+            .define(COMPRESSION_TYPE_CONFIG, ConfigDef.Type.STRING, CompressionType.NONE.name,
+                    ConfigDef.ValidString.in(CompressionType.NONE.name, CompressionType.GZIP.name, CompressionType.SNAPPY.name,
+                            CompressionType.LZ4.name, CompressionType.ZSTD.name),
+                    ConfigDef.Importance.MEDIUM, "Compression codec of the record batches in new segments. The consumed records are compressed again with it")
+            .define(SEGMENT_INDEX_INTERVAL_BYTES_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Write sparse segment indices with an entry every n bytes of records. 0 writes an entry for every record")
+            .define(SEGMENT_MS_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Start a new segment when the current one is older than this. 0 disables it")
+            .define(SEGMENT_RECORDS_CONFIG, ConfigDef.Type.LONG, 0L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Start a new segment when the current one contains this number of records. 0 disables it")
+            .define(SEGMENT_PREALLOCATE_CONFIG, ConfigDef.Type.BOOLEAN, false,
+                    ConfigDef.Importance.LOW, "Preallocate the record files of new segments to the maximum segment size by writing zeros. Costs an extra write of every segment")
+            .define(POLL_TIMEOUT_MS_CONFIG, ConfigDef.Type.LONG, 1000L, ConfigDef.Range.atLeast(0),
+                    ConfigDef.Importance.LOW, "Maximum time to block in a single poll")
+            .define(OFFSET_SYNC_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, 30000L, ConfigDef.Range.atLeast(1),
+                    ConfigDef.Importance.LOW, "Interval in which the offsets of all consumer groups are synced in the background");
+
+    StandaloneBackupConfig(Map<?, ?> props) {
+        super(CONFIG_DEF, props, true);
+        if (!props.containsKey(CLUSTER_BOOTSTRAP_SERVERS)) {
+            throw new RuntimeException("Missing Configuration Variable: " + CLUSTER_BOOTSTRAP_SERVERS);
+        }
+    }
+
+    long segmentMs() {
+        return getLong(SEGMENT_MS_CONFIG);
+    }
+
+    long segmentRecords() {
+        return getLong(SEGMENT_RECORDS_CONFIG);
+    }
+
+    boolean segmentPreallocate() {
+        return getBoolean(SEGMENT_PREALLOCATE_CONFIG);
+    }
+
+    long offsetSyncIntervalMs() {
+        return getLong(OFFSET_SYNC_INTERVAL_MS_CONFIG);
+    }
+
+    String targetDir() {
+        return getString(TARGET_DIR_CONFIG);
+    }
+
+    List<String> topics() {
+        return getList(TOPICS_CONFIG);
+    }
+
+    int maxSegmentSizeBytes() {
+        return getInt(MAX_SEGMENT_SIZE);
+    }
+
+    CompressionType compressionType() {
+        return CompressionType.forName(getString(COMPRESSION_TYPE_CONFIG));
+    }
+
+    int segmentIndexIntervalBytes() {
+        return getInt(SEGMENT_INDEX_INTERVAL_BYTES_CONFIG);
+    }
+
+    long pollTimeoutMs() {
+        return getLong(POLL_TIMEOUT_MS_CONFIG);
+    }
+
+    Map<String, Object> adminConfig() {
+        Map<String, Object> props = new HashMap<>();
+        props.putAll(originalsWithPrefix(CLUSTER_PREFIX));
+        props.putAll(originalsWithPrefix(ADMIN_CLIENT_PREFIX));
+        return props;
+    }
+
+    String groupId() {
+        return String.valueOf(consumerConfig().get(ConsumerConfig.GROUP_ID_CONFIG));
+    }
+
+    /**
+     * Keys and values are deserialized as byte arrays. Offsets are committed only after the records are written
+     */
+    Map<String, Object> consumerConfig() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, DEFAULT_GROUP_ID);
+        props.putAll(originalsWithPrefix(CLUSTER_PREFIX));
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return props;
+    }
+}
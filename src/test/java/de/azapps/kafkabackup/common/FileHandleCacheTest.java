@@ -0,0 +1,141 @@
+package de.azapps.kafkabackup.common;
+
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileHandleCacheTest {
+    private static final Path TEMP_DIR = TestUtils.getTestDir("FileHandleCacheTest");
+    private static final Map<String, String> TAGS = Collections.singletonMap("test", "FileHandleCacheTest");
+
+    @Test
+    public void evictionTest() throws Exception {
+        FileHandleCache fileHandleCache = new FileHandleCache(2);
+        FileChannel[] channels = new FileChannel[3];
+        for (int i = 0; i < 3; i++) {
+            channels[i] = fileHandleCache.open(TEMP_DIR.resolve("eviction-" + i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        assertEquals(2, fileHandleCache.openFiles());
+        assertEquals(1, fileHandleCache.evictions());
+
+        // Every write opens the file again and continues at the position of the channel
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                channels[i].write(ByteBuffer.wrap(new byte[]{(byte) i, (byte) round}));
+                assertEquals(2 * (round + 1), channels[i].position());
+            }
+        }
+        assertEquals(2, fileHandleCache.openFiles());
+
+        for (int i = 0; i < 3; i++) {
+            channels[i].force(true);
+            assertEquals(6, channels[i].size());
+            channels[i].position(2);
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            assertEquals(4, channels[i].read(buffer));
+            assertEquals(-1, channels[i].read(ByteBuffer.allocate(1)));
+            byte[] expected = {(byte) i, 1, (byte) i, 2};
+            assertEquals(ByteBuffer.wrap(expected), buffer.flip());
+            channels[i].close();
+            assertFalse(channels[i].isOpen());
+            assertThrows(ClosedChannelException.class, () -> channels[0].size());
+        }
+        assertEquals(0, fileHandleCache.openFiles());
+        assertEquals(6, Files.size(TEMP_DIR.resolve("eviction-0")));
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        Metrics metrics = new Metrics();
+        FileHandleCache fileHandleCache = new FileHandleCache(1, metrics, TAGS);
+        FileChannel first = fileHandleCache.open(TEMP_DIR.resolve("metrics-0"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileChannel second = fileHandleCache.open(TEMP_DIR.resolve("metrics-1"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // second is open
+        second.write(ByteBuffer.wrap(new byte[1]));
+        // first is opened again
+        first.write(ByteBuffer.wrap(new byte[1]));
+        first.write(ByteBuffer.wrap(new byte[1]));
+
+        assertEquals(1, metricValue(metrics, "open-files"));
+        assertEquals(2, metricValue(metrics, "file-handle-hit-total"));
+        assertEquals(3, metricValue(metrics, "file-handle-miss-total"));
+        assertEquals(2, metricValue(metrics, "file-handle-eviction-total"));
+        first.close();
+        second.close();
+        metrics.close();
+    }
+
+    @Test
+    public void concurrentAccessTest() throws Exception {
+        FileHandleCache fileHandleCache = new FileHandleCache(2);
+        int threads = 4;
+        int writes = 500;
+        FileChannel[] channels = new FileChannel[3];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = fileHandleCache.open(TEMP_DIR.resolve("concurrent-" + i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        // Every thread writes its own bytes of every file
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < writes; i++) {
+                    long position = (long) i * threads + thread;
+                    channels[i % channels.length].write(ByteBuffer.wrap(new byte[]{(byte) thread}), position);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        // Files in use are not closed. So the limit is only kept once the files are not accessed concurrently anymore
+        assertTrue(fileHandleCache.evictions() > 0);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < writes; i++) {
+                ByteBuffer buffer = ByteBuffer.allocate(1);
+                assertEquals(1, channels[i % channels.length].read(buffer, (long) i * threads + t));
+                assertEquals(t, buffer.get(0));
+            }
+        }
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+        assertEquals(0, fileHandleCache.openFiles());
+    }
+
+    @Test
+    public void unboundedTest() throws Exception {
+        FileChannel channel = FileHandleCache.unbounded().open(TEMP_DIR.resolve("unbounded"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.wrap(new byte[3]));
+        assertEquals(3, channel.position());
+        assertEquals(0, FileHandleCache.unbounded().openFiles());
+        channel.close();
+    }
+
+    private double metricValue(Metrics metrics, String name) {
+        return ((Number) metrics.metric(metrics.metricName(name, FileHandleCache.METRIC_GROUP, TAGS)).metricValue()).doubleValue();
+    }
+}
@@ -0,0 +1,61 @@
+package de.azapps.kafkabackup.common;
+
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThrottleTest {
+    private static final Map<String, String> TAGS = Collections.singletonMap("test", "ThrottleTest");
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static double metricValue(Metrics metrics, String name) {
+        return ((Number) metrics.metric(metrics.metricName(name, Throttle.METRIC_GROUP, TAGS)).metricValue()).doubleValue();
+    }
+
+    @Test
+    public void tokenBucket() {
+        TokenBucket bucket = new TokenBucket(100);
+        long now = System.nanoTime();
+        // The bucket starts full
+        assertEquals(0, bucket.reserve(100, now));
+        // Half a second of debt
+        assertEquals(SECOND / 2, bucket.reserve(50, now));
+        // The debt is paid off after half a second
+        assertEquals(0, bucket.reserve(0, now + SECOND / 2));
+        // Batches larger than the bucket pass after waiting
+        assertEquals(2 * SECOND, bucket.reserve(200, now + SECOND / 2));
+        // The bucket holds at most one second worth of tokens
+        assertEquals(SECOND / 2, bucket.reserve(150, now + 10 * SECOND));
+    }
+
+    @Test
+    public void throttleBatches() throws Exception {
+        Metrics metrics = new Metrics();
+        // The partition limit is lower than the limit of the task
+        Throttle throttle = new Throttle(0, 1000, 0, 20, metrics, TAGS);
+        Throttle.Partition partition = throttle.partition();
+        List<Record> batch = Collections.nCopies(20, new Record("test-topic", 0, null, new byte[10], 0));
+
+        partition.acquire(batch);
+        assertEquals(0, metricValue(metrics, "throttled-total"));
+
+        // Waits for 2 records
+        long start = System.nanoTime();
+        partition.acquire(batch.subList(0, 2));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertEquals(1, metricValue(metrics, "throttled-total"));
+        assertTrue(metricValue(metrics, "throttle-time-ms-total") >= 90);
+
+        // Other partitions have their own limit
+        throttle.partition().acquire(batch);
+        assertEquals(1, metricValue(metrics, "throttled-total"));
+        metrics.close();
+    }
+}
@@ -0,0 +1,101 @@
+package de.azapps.kafkabackup.common.offset;
+
+import de.azapps.kafkabackup.common.TestUtils;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffsetSourceTest {
+    private static final Path TEMP_DIR = TestUtils.getTestDir("OffsetSourceTest");
+    private static final TopicPartition PARTITION0 = new TopicPartition("test-topic", 0);
+    private static final TopicPartition PARTITION1 = new TopicPartition("test-topic", 1);
+
+    private static class RecordingOffsetSource extends OffsetSource {
+        private final List<String> commits = new ArrayList<>();
+        private final Map<String, Map<TopicPartition, OffsetAndMetadata>> committed = new HashMap<>();
+        private boolean fail = false;
+
+        RecordingOffsetSource() throws Exception {
+            super(TEMP_DIR, Arrays.asList(PARTITION0, PARTITION1), Collections.emptyMap());
+        }
+
+        @Override
+        protected void commitGroupOffsets(String group, Map<TopicPartition, OffsetAndMetadata> offsets) {
+            if (fail) {
+                throw new TimeoutException("Commit failed");
+            }
+            commits.add(group);
+            committed.computeIfAbsent(group, g -> new HashMap<>()).putAll(offsets);
+        }
+    }
+
+    private static void writeOffsetStore(TopicPartition topicPartition, String json) throws Exception {
+        Path offsetStoreFile = OffsetUtils.offsetStoreFile(TEMP_DIR, topicPartition);
+        Files.createDirectories(offsetStoreFile.getParent());
+        Files.write(offsetStoreFile, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void batchedCommits() throws Exception {
+        writeOffsetStore(PARTITION0, "{\"group-a\": 5, \"group-b\": 5, \"group-c\": 10}");
+        writeOffsetStore(PARTITION1, "{\"group-a\": 3}");
+        RecordingOffsetSource offsetSource = new RecordingOffsetSource();
+
+        // Records are only buffered
+        offsetSource.syncGroupForOffset(PARTITION0, 4, 104);
+        offsetSource.syncGroupForOffset(PARTITION0, 9, 109);
+        offsetSource.syncGroupForOffset(PARTITION1, 2, 202);
+        offsetSource.syncGroupForOffset(PARTITION1, 7, 207);
+        // No offsets for this partition in the backup
+        offsetSource.syncGroupForOffset(new TopicPartition("other-topic", 0), 4, 4);
+        assertTrue(offsetSource.commits.isEmpty());
+
+        // One commit per group
+        offsetSource.flush();
+        assertEquals(3, offsetSource.commits.size());
+        Map<TopicPartition, OffsetAndMetadata> groupA = new HashMap<>();
+        groupA.put(PARTITION0, new OffsetAndMetadata(105));
+        groupA.put(PARTITION1, new OffsetAndMetadata(203));
+        assertEquals(groupA, offsetSource.committed.get("group-a"));
+        assertEquals(Collections.singletonMap(PARTITION0, new OffsetAndMetadata(105)), offsetSource.committed.get("group-b"));
+        assertEquals(Collections.singletonMap(PARTITION0, new OffsetAndMetadata(110)), offsetSource.committed.get("group-c"));
+
+        // Nothing to commit
+        offsetSource.flush();
+        assertEquals(3, offsetSource.commits.size());
+    }
+
+    @Test
+    public void failedCommitsAreRetried() throws Exception {
+        writeOffsetStore(PARTITION0, "{\"group-a\": 5}");
+        writeOffsetStore(PARTITION1, "{\"group-a\": 3}");
+        RecordingOffsetSource offsetSource = new RecordingOffsetSource();
+
+        offsetSource.syncGroupForOffset(PARTITION0, 4, 104);
+        offsetSource.fail = true;
+        offsetSource.flush();
+        assertTrue(offsetSource.commits.isEmpty());
+
+        offsetSource.fail = false;
+        offsetSource.syncGroupForOffset(PARTITION1, 2, 202);
+        offsetSource.close();
+        assertEquals(Collections.singletonList("group-a"), offsetSource.commits);
+        Map<TopicPartition, OffsetAndMetadata> groupA = new HashMap<>();
+        groupA.put(PARTITION0, new OffsetAndMetadata(105));
+        groupA.put(PARTITION1, new OffsetAndMetadata(203));
+        assertEquals(groupA, offsetSource.committed.get("group-a"));
+    }
+}
@@ -0,0 +1,74 @@
+package de.azapps.kafkabackup.common.offset;
+
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffsetSyncWorkerTest {
+    private static final Map<String, String> TAGS = Collections.singletonMap("connector", "test");
+
+    private static class CountingOffsetSink extends OffsetSink {
+        private final AtomicInteger syncs = new AtomicInteger();
+
+        CountingOffsetSink() {
+            super(null, null);
+        }
+
+        @Override
+        public void syncConsumerGroups() {
+            // Every second sync fails
+            if (syncs.incrementAndGet() % 2 == 0) {
+                throw new RetriableException("Sync failed");
+            }
+        }
+
+        @Override
+        public void syncOffsets() {
+        }
+    }
+
+    private static double metricValue(Metrics metrics, String name) {
+        return (double) metrics.metric(metrics.metricName(name, OffsetSyncWorker.METRIC_GROUP, TAGS)).metricValue();
+    }
+
+    @Test
+    public void syncInBackground() throws Exception {
+        CountingOffsetSink offsetSink = new CountingOffsetSink();
+        Metrics metrics = new Metrics();
+        OffsetSyncWorker worker = new OffsetSyncWorker(offsetSink, 10, metrics, TAGS);
+        worker.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        // Failed syncs are retried
+        while (offsetSink.syncs.get() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        worker.close();
+        int syncs = offsetSink.syncs.get();
+        assertTrue(syncs >= 4);
+        assertEquals(syncs / 2, (int) metricValue(metrics, "offset-sync-failed-total"));
+        assertEquals(syncs - syncs / 2, (int) metricValue(metrics, "offset-sync-total"));
+
+        // No syncs after close
+        Thread.sleep(50);
+        assertEquals(syncs, offsetSink.syncs.get());
+        metrics.close();
+    }
+
+    @Test
+    public void firstSyncAfterOneInterval() throws Exception {
+        CountingOffsetSink offsetSink = new CountingOffsetSink();
+        Metrics metrics = new Metrics();
+        OffsetSyncWorker worker = new OffsetSyncWorker(offsetSink, 60000, metrics, TAGS);
+        worker.start();
+        Thread.sleep(50);
+        worker.close();
+        assertEquals(0, offsetSink.syncs.get());
+        metrics.close();
+    }
+}
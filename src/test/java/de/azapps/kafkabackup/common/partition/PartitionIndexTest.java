@@ -49,6 +49,24 @@ public class PartitionIndexTest {
         b.close();
     }
 
+    @Test
+    public void seekTest() throws Exception {
+        PartitionIndex index = new PartitionIndex(Paths.get(TEMP_DIR.toString(), "seekTestIndex"));
+        assertThrows(PartitionIndex.IndexException.class, () -> index.seek(0));
+        for (int i = 0; i < 100; i++) {
+            index.appendSegment("s" + (10 + i * 10), 10 + i * 10);
+        }
+        assertThrows(PartitionIndex.IndexException.class, () -> index.seek(9));
+        for (long offset = 10; offset < 1050; offset++) {
+            index.seek(offset);
+            assertEquals("s" + Math.min(1000, offset / 10 * 10), index.readFileName());
+        }
+        index.seek(Long.MAX_VALUE);
+        assertEquals("s1000", index.readFileName());
+        assertFalse(index.hasMoreData());
+        index.close();
+    }
+
 
     @Test
     public void testReadV1Index() throws Exception {
@@ -1,23 +1,34 @@
 package de.azapps.kafkabackup.common.partition;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.TestUtils;
 import de.azapps.kafkabackup.common.record.Record;
 import de.azapps.kafkabackup.common.segment.SegmentReader;
 import de.azapps.kafkabackup.common.segment.SegmentUtils;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.header.ConnectHeaders;
 import org.apache.kafka.connect.header.Headers;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PartitionSerdeTest {
     private static final String TOPIC = "test-topic";
@@ -123,4 +134,322 @@ public class PartitionSerdeTest {
         PartitionReader reader = new PartitionReader(TOPIC, partition, TEMP_DIR);
         assertEquals(expected, reader.readFully());
     }
+
+    @Test
+    public void appendBatchTest() throws Exception {
+        int partition = 3;
+        int otherPartition = 4;
+
+        List<Record> records = new ArrayList<>();
+        List<Record> otherRecords = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i, null, TimestampType.NO_TIMESTAMP_TYPE, HEADERS));
+            otherRecords.add(new Record(TOPIC, otherPartition, KEY_BYTES, VALUE_BYTES, i, null, TimestampType.NO_TIMESTAMP_TYPE, HEADERS));
+        }
+
+        // Batches must be split into segments exactly like single appends. Sizes differ by the block headers, so the
+        // segments are rolled by record count
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, 0, 3, false);
+        partitionWriter.appendBatch(records.subList(0, 15));
+        partitionWriter.appendBatch(records.subList(15, 20));
+        partitionWriter.close();
+        PartitionWriter otherPartitionWriter = new PartitionWriter(TOPIC, otherPartition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, 0, 3, false);
+        for (Record record : otherRecords) {
+            otherPartitionWriter.append(record);
+        }
+        otherPartitionWriter.close();
+
+        PartitionIndex index = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, partition));
+        PartitionIndex otherIndex = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, otherPartition));
+        assertTrue(index.index().size() > 1);
+        assertEquals(
+                otherIndex.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()),
+                index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertEquals(records, partitionReader.readFully());
+    }
+
+    @Test
+    public void forceTest() throws Exception {
+        int partition = 5;
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 100);
+        assertTrue(partitionWriter.isDirty());
+        partitionWriter.force();
+        assertFalse(partitionWriter.isDirty());
+        // Rolls several segments
+        partitionWriter.appendBatch(records.subList(0, 10));
+        assertTrue(partitionWriter.isDirty());
+        partitionWriter.force();
+        assertFalse(partitionWriter.isDirty());
+        // Flush forces the rolled segments. The new files are forced with the next force
+        partitionWriter.appendBatch(records.subList(10, 20));
+        partitionWriter.flush();
+        assertTrue(partitionWriter.isDirty());
+        partitionWriter.force();
+        assertFalse(partitionWriter.isDirty());
+        partitionWriter.close();
+
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertEquals(records, partitionReader.readFully());
+        List<Path> segments = Files.list(TEMP_DIR).filter(f -> SegmentUtils.isSegment(f) && f.getFileName().toString().startsWith("segment_partition_005")).collect(Collectors.toList());
+        assertTrue(segments.size() > 2);
+    }
+
+    @Test
+    public void segmentRollTriggersTest() throws Exception {
+        int partition = 6;
+        int timePartition = 7;
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        // segment.records
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, 0, 7, false);
+        partitionWriter.appendBatch(records.subList(0, 5));
+        partitionWriter.appendBatch(records.subList(5, 20));
+        partitionWriter.close();
+        PartitionIndex index = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, partition));
+        assertEquals(Arrays.asList(0L, 7L, 14L), index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+        index.close();
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertEquals(records, partitionReader.readFully());
+
+        // segment.ms. Idle partitions are rolled on flush
+        PartitionWriter timePartitionWriter = new PartitionWriter(TOPIC, timePartition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, 1, 0, false);
+        timePartitionWriter.flush();
+        timePartitionWriter.append(new Record(TOPIC, timePartition, KEY_BYTES, VALUE_BYTES, 0));
+        Thread.sleep(10);
+        timePartitionWriter.flush();
+        timePartitionWriter.close();
+        PartitionIndex timeIndex = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, timePartition));
+        assertEquals(Arrays.asList(0L, 1L), timeIndex.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+        timeIndex.close();
+    }
+
+    @Test
+    public void tinySegmentSizeTest() {
+        int partition = 15;
+        List<Record> records = new ArrayList<>();
+        for (int offset = 0; offset < 3; offset++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, offset));
+        }
+        // Every record goes to a segment of its own
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 0);
+            partitionWriter.appendBatch(records);
+            partitionWriter.close();
+        });
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            PartitionIndex index = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, partition));
+            assertEquals(Arrays.asList(0L, 1L, 2L), index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+            index.close();
+            PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+            assertEquals(records, partitionReader.readFully());
+            partitionReader.close();
+        });
+    }
+
+    @Test
+    public void segmentMsAfterRestartTest() throws Exception {
+        int partition = 14;
+        long hour = 60 * 60 * 1000;
+        // A backup of old records
+        long timestamp = System.currentTimeMillis() - 24 * hour;
+        List<Record> records = new ArrayList<>();
+        for (int offset = 0; offset < 4; offset++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, offset, timestamp, TimestampType.CREATE_TIME, new RecordHeaders()));
+        }
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, hour, 0, false);
+        partitionWriter.appendBatch(records.subList(0, 2));
+        partitionWriter.close();
+
+        // The age of the segment does not depend on the timestamps of its records
+        partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, hour, 0, false);
+        partitionWriter.append(records.get(2));
+        partitionWriter.close();
+        PartitionIndex index = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, partition));
+        assertEquals(Arrays.asList(0L), index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+        index.close();
+
+        // The creation time is kept after a restart. The segment was created two hours ago
+        try (FileChannel channel = FileChannel.open(SegmentUtils.timeIndexFile(TEMP_DIR, partition, 0), StandardOpenOption.WRITE)) {
+            ByteBuffer createdMs = ByteBuffer.allocate(Long.BYTES).putLong(System.currentTimeMillis() - 2 * hour);
+            createdMs.flip();
+            channel.write(createdMs, 1);
+        }
+        partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 1000000, CompressionType.NONE, 0, false, hour, 0, false);
+        partitionWriter.append(records.get(3));
+        partitionWriter.close();
+        index = new PartitionIndex(PartitionUtils.indexFile(TEMP_DIR, partition));
+        assertEquals(Arrays.asList(0L, 3L), index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+        index.close();
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertEquals(records, partitionReader.readFully());
+        partitionReader.close();
+    }
+
+    @Test
+    public void preallocateTest() throws Exception {
+        int partition = 8;
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 10000, CompressionType.LZ4, 0, false, 0, 0, true);
+        Path recordsFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+        assertEquals(10000, Files.size(recordsFile));
+        partitionWriter.appendBatch(records.subList(0, 10));
+        partitionWriter.close();
+        long size = Files.size(recordsFile);
+        assertTrue(size < 10000);
+
+        // Reopening preallocates again
+        partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 10000, CompressionType.LZ4, 0, false, 0, 0, true);
+        assertEquals(10000, Files.size(recordsFile));
+        partitionWriter.appendBatch(records.subList(10, 20));
+        partitionWriter.flush();
+        // Readers ignore the preallocated space
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertEquals(records, partitionReader.readFully());
+        partitionWriter.close();
+        assertTrue(Files.size(recordsFile) > size);
+        assertTrue(Files.size(recordsFile) < 10000);
+    }
+
+    @Test
+    public void fileHandleCacheTest() throws Exception {
+        // Two file handles for three partitions with five files each
+        FileHandleCache fileHandleCache = new FileHandleCache(2);
+        CompressionType[] compressionTypes = {CompressionType.NONE, CompressionType.GZIP, CompressionType.NONE};
+        boolean[] kafkaRecordBatches = {false, false, true};
+        List<List<Record>> records = new ArrayList<>();
+        List<PartitionWriter> partitionWriters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int partition = 9 + i;
+            records.add(new ArrayList<>());
+            partitionWriters.add(new PartitionWriter(TOPIC, partition, TEMP_DIR, 200, compressionTypes[i], 0,
+                    kafkaRecordBatches[i], 0, 0, false, fileHandleCache));
+        }
+        for (int offset = 0; offset < 30; offset++) {
+            for (int i = 0; i < 3; i++) {
+                Record record = new Record(TOPIC, 9 + i, KEY_BYTES, VALUE_BYTES, offset, (long) offset, TimestampType.CREATE_TIME, new RecordHeaders());
+                records.get(i).add(record);
+                partitionWriters.get(i).append(record);
+            }
+        }
+        for (PartitionWriter partitionWriter : partitionWriters) {
+            partitionWriter.close();
+        }
+        assertTrue(fileHandleCache.evictions() > 0);
+
+        for (int i = 0; i < 3; i++) {
+            PartitionReader partitionReader = new PartitionReader(TOPIC, 9 + i, TEMP_DIR, fileHandleCache);
+            assertEquals(records.get(i), partitionReader.readFully());
+            partitionReader.seek(17);
+            assertEquals(records.get(i).get(17), partitionReader.read());
+        }
+        assertTrue(fileHandleCache.openFiles() <= 2);
+    }
+
+    @Test
+    public void seekToTimestampTest() throws Exception {
+        int partition = 12;
+        List<Record> records = new ArrayList<>();
+        for (int offset = 0; offset < 30; offset++) {
+            // Record 15 is older than its neighbours
+            long timestamp = offset == 15 ? 1000 : 1000 + offset * 10;
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, offset, timestamp, TimestampType.CREATE_TIME, new RecordHeaders()));
+        }
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 200);
+        for (int offset = 0; offset < 30; offset += 5) {
+            partitionWriter.appendBatch(records.subList(offset, offset + 5));
+        }
+        partitionWriter.close();
+
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        assertTrue(partitionReader.seekToTimestamp(1105));
+        assertEquals(records.get(11), partitionReader.read());
+        assertTrue(partitionReader.seekToTimestamp(0));
+        assertEquals(records.get(0), partitionReader.read());
+        assertTrue(partitionReader.seekToTimestamp(1290));
+        assertEquals(records.subList(29, 30), partitionReader.readFully());
+        assertFalse(partitionReader.seekToTimestamp(1291));
+        assertFalse(partitionReader.hasMoreData());
+
+        // Stops at the first newer record, including the older record 15
+        partitionReader.setEndTimestamp(1200);
+        assertTrue(partitionReader.seekToTimestamp(1105));
+        assertEquals(records.subList(11, 21), partitionReader.readFully());
+        assertFalse(partitionReader.hasMoreData());
+        partitionReader.seek(3);
+        assertEquals(records.subList(3, 8), partitionReader.readN(5));
+        partitionReader.close();
+    }
+
+    @Test
+    public void endOffsetTest() throws Exception {
+        int partition = 13;
+        List<Record> records = new ArrayList<>();
+        for (int offset = 0; offset < 30; offset++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, offset));
+        }
+        // Five records per segment
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, TEMP_DIR, 200, CompressionType.NONE, 0,
+                false, 0, 5, false, FileHandleCache.unbounded());
+        partitionWriter.appendBatch(records);
+        partitionWriter.close();
+
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, TEMP_DIR);
+        partitionReader.setEndOffset(17);
+        partitionReader.seek(12);
+        assertEquals(records.subList(12, 17), partitionReader.readBytesBatch(Long.MAX_VALUE));
+        assertFalse(partitionReader.hasMoreData());
+        // Ends at a segment boundary
+        partitionReader.setEndOffset(20);
+        partitionReader.seek(0);
+        assertEquals(records.subList(0, 20), partitionReader.readFully());
+        assertFalse(partitionReader.hasMoreData());
+        partitionReader.close();
+    }
+
+    @Test
+    public void legacySegmentTest() throws Exception {
+        int partition = 0;
+        Path topicDir = Files.createDirectories(TEMP_DIR.resolve("legacySegmentTest"));
+        for (Path file : new Path[]{SegmentUtils.recordsFile(topicDir, partition, 0), SegmentUtils.indexFile(topicDir, partition, 0)}) {
+            Files.copy(Paths.get("src/test/assets/v1/segments").resolve(file.getFileName()), file);
+        }
+        PartitionIndex partitionIndex = new PartitionIndex(PartitionUtils.indexFile(topicDir, partition));
+        partitionIndex.appendSegment(SegmentUtils.filePrefix(partition, 0), 0);
+        partitionIndex.close();
+
+        // The V1 segment is not appended to
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, topicDir, 1000);
+        Record record = new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 11);
+        partitionWriter.append(record);
+        partitionWriter.close();
+
+        PartitionIndex index = new PartitionIndex(PartitionUtils.indexFile(topicDir, partition));
+        assertEquals(Arrays.asList(0L, 11L), index.index().stream().map(PartitionIndexEntry::startOffset).collect(Collectors.toList()));
+        index.close();
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, topicDir, 11);
+        assertTrue(segmentReader.verify().checkedBlocks() > 0);
+        segmentReader.close();
+        PartitionReader partitionReader = new PartitionReader(TOPIC, partition, topicDir);
+        List<Record> records = partitionReader.readFully();
+        assertEquals(5, records.size());
+        assertEquals(record, records.get(4));
+        partitionReader.close();
+    }
 }
@@ -5,10 +5,12 @@ import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class RecordSerdeTest {
 
@@ -89,6 +91,63 @@ public class RecordSerdeTest {
         assertNotEquals(EMPTY_RECORD, headerRecord); // just to make sure!
     }
 
+    @Test
+    public void roundtripBuffer() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RecordSerde.write(outputStream, SIMPLE_RECORD);
+        RecordSerde.write(outputStream, NULL_RECORD);
+        RecordSerde.write(outputStream, EMPTY_RECORD);
+        RecordSerde.write(outputStream, NULL_TIMESTAMP_RECORD);
+        RecordSerde.write(outputStream, HEADER_RECORD);
+        ByteBuffer buffer = ByteBuffer.wrap(outputStream.toByteArray());
+
+        assertEquals(SIMPLE_RECORD, RecordSerde.read(TOPIC, PARTITION, buffer));
+        assertEquals(NULL_RECORD, RecordSerde.read(TOPIC, PARTITION, buffer));
+        assertEquals(EMPTY_RECORD, RecordSerde.read(TOPIC, PARTITION, buffer));
+        assertEquals(NULL_TIMESTAMP_RECORD, RecordSerde.read(TOPIC, PARTITION, buffer));
+        assertEquals(HEADER_RECORD, RecordSerde.read(TOPIC, PARTITION, buffer));
+        assertFalse(buffer.hasRemaining());
+
+        // Skipping must consume exactly the same bytes as reading
+        buffer.rewind();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(OFFSET, RecordSerde.skip(buffer));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void serializedSize() throws Exception {
+        Record timestampRecord = new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, OFFSET, 1000L, TimestampType.LOG_APPEND_TIME);
+        for (Record record : new Record[]{SIMPLE_RECORD, NULL_RECORD, EMPTY_RECORD, NULL_TIMESTAMP_RECORD, HEADER_RECORD, timestampRecord}) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            RecordSerde.write(outputStream, record);
+            assertEquals(outputStream.size(), RecordSerde.serializedSize(record));
+        }
+    }
+
+    @Test
+    public void incompleteBuffer() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RecordSerde.write(outputStream, HEADER_RECORD);
+        byte[] data = outputStream.toByteArray();
+        for (int length = 0; length < data.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(data, 0, length);
+            assertThrows(BufferUnderflowException.class, () -> RecordSerde.read(TOPIC, PARTITION, truncated));
+            ByteBuffer truncatedSkip = ByteBuffer.wrap(data, 0, length);
+            assertThrows(BufferUnderflowException.class, () -> RecordSerde.skip(truncatedSkip));
+        }
+    }
+
+    @Test
+    public void readV1FromBuffer() throws Exception {
+        File v1Directory = new File("src/test/assets/v1/records");
+        assertEquals(SIMPLE_RECORD, readFromBuffer(new File(v1Directory, SIMPLE_RECORD_FILE)));
+        assertEquals(NULL_RECORD, readFromBuffer(new File(v1Directory, NULL_RECORD_FILE)));
+        assertEquals(EMPTY_RECORD, readFromBuffer(new File(v1Directory, EMPTY_RECORD_FILE)));
+        assertEquals(HEADER_RECORD, readFromBuffer(new File(v1Directory, HEADER_RECORD_FILE)));
+    }
+
     // UTILS
 
     private Record writeAndReadRecord(Record record) throws IOException {
@@ -98,6 +157,10 @@ public class RecordSerdeTest {
         return RecordSerde.read(TOPIC, PARTITION, new ByteArrayInputStream(data));
     }
 
+    private static Record readFromBuffer(File file) throws IOException {
+        return RecordSerde.read(TOPIC, PARTITION, ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
     private static Record readFromFile(File file) throws IOException {
         FileInputStream inputStream = new FileInputStream(file);
         return RecordSerde.read(TOPIC, PARTITION, inputStream);
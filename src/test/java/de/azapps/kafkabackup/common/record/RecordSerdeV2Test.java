@@ -0,0 +1,88 @@
+package de.azapps.kafkabackup.common.record;
+
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordSerdeV2Test {
+
+    private static final String TOPIC = "test-topic";
+    private static final int PARTITION = 42;
+    private static final long BASE_OFFSET = 100;
+    private static final long BASE_TIMESTAMP = 1_500_000_000_000L;
+    private static final byte[] KEY_BYTES = "test-key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE_BYTES = "test-value".getBytes(StandardCharsets.UTF_8);
+    private static final Record[] RECORDS;
+
+    static {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("", new byte[0]);
+        headers.add("null", null);
+        headers.add("välue", VALUE_BYTES);
+        RECORDS = new Record[]{
+                new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, BASE_OFFSET),
+                new Record(TOPIC, PARTITION, null, null, BASE_OFFSET + 1),
+                new Record(TOPIC, PARTITION, new byte[0], new byte[0], BASE_OFFSET + 2),
+                new Record(TOPIC, PARTITION, KEY_BYTES, null, BASE_OFFSET + 3, null, TimestampType.CREATE_TIME),
+                new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, BASE_OFFSET + 4, null, TimestampType.NO_TIMESTAMP_TYPE, headers),
+                new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, BASE_OFFSET + 1000, BASE_TIMESTAMP + 5, TimestampType.CREATE_TIME),
+                // Timestamps before the base timestamp
+                new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, BASE_OFFSET + Integer.MAX_VALUE, 0L, TimestampType.LOG_APPEND_TIME),
+        };
+    }
+
+    @Test
+    public void roundtripTest() {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(16);
+        for (Record record : RECORDS) {
+            int start = outputStream.position();
+            RecordSerdeV2.write(outputStream, record, BASE_OFFSET, BASE_TIMESTAMP);
+            assertEquals(outputStream.position() - start, RecordSerdeV2.serializedSize(record, BASE_OFFSET, BASE_TIMESTAMP));
+        }
+        ByteBuffer buffer = outputStream.buffer().duplicate();
+        buffer.flip();
+
+        for (Record record : RECORDS) {
+            assertEquals(record, RecordSerdeV2.read(TOPIC, PARTITION, buffer, BASE_OFFSET, BASE_TIMESTAMP));
+        }
+        assertFalse(buffer.hasRemaining());
+
+        // Skipping must consume exactly the same bytes as reading
+        buffer.rewind();
+        for (Record record : RECORDS) {
+            assertEquals(record.kafkaOffset(), RecordSerdeV2.skip(buffer, BASE_OFFSET));
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void incompleteBuffer() {
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(16);
+        RecordSerdeV2.write(outputStream, RECORDS[4], BASE_OFFSET, BASE_TIMESTAMP);
+        byte[] data = new byte[outputStream.position()];
+        ByteBuffer written = outputStream.buffer().duplicate();
+        written.flip();
+        written.get(data);
+        for (int length = 0; length < data.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(data, 0, length);
+            assertThrows(BufferUnderflowException.class, () -> RecordSerdeV2.read(TOPIC, PARTITION, truncated, BASE_OFFSET, BASE_TIMESTAMP));
+            ByteBuffer truncatedSkip = ByteBuffer.wrap(data, 0, length);
+            assertThrows(BufferUnderflowException.class, () -> RecordSerdeV2.skip(truncatedSkip, BASE_OFFSET));
+        }
+    }
+
+    @Test
+    public void smallerThanV1() {
+        Record record = new Record(TOPIC, PARTITION, KEY_BYTES, VALUE_BYTES, BASE_OFFSET + 10, BASE_TIMESTAMP + 10, TimestampType.CREATE_TIME);
+        // 8 bytes key + 10 bytes value + 7 bytes of framing instead of 32
+        assertEquals(25, RecordSerdeV2.serializedSize(record, BASE_OFFSET, BASE_TIMESTAMP));
+        assertEquals(50, RecordSerde.serializedSize(record));
+    }
+}
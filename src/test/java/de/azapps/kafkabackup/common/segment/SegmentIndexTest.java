@@ -2,9 +2,11 @@ package de.azapps.kafkabackup.common.segment;
 
 import de.azapps.kafkabackup.common.TestUtils;
 import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.Test;
 
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -70,7 +72,9 @@ public class SegmentIndexTest {
         long fileLength = SegmentUtils.recordsFile(TEMP_DIR, partition, 0).toFile().length();
         //noinspection OptionalGetWithoutIsPresent
         SegmentIndexEntry entry = i2.lastIndexEntry().get();
-        assertEquals(fileLength, entry.recordFilePosition() + entry.recordByteLength());
+        try (FileChannel channel = FileChannel.open(SegmentUtils.recordsFile(TEMP_DIR, partition, 0))) {
+            assertEquals(fileLength, SegmentBlock.readHeader(channel, entry.recordFilePosition()).nextBlockPosition());
+        }
     }
 
     @Test
@@ -96,6 +100,60 @@ public class SegmentIndexTest {
         assertEquals(a.index(), b.index());
     }
 
+    @Test
+    public void restoreCompressedTest() throws Exception {
+        int partition = 2;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i, (long) i, TimestampType.CREATE_TIME));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.LZ4);
+        segmentWriter.appendBatch(records);
+        segmentWriter.close();
+        Path indexFile = SegmentUtils.indexFile(TEMP_DIR, partition, 0);
+        SegmentIndex a = new SegmentIndex(indexFile);
+        assertEquals(SegmentIndex.V2_MAGIC_BYTE, a.version());
+        // The records are spread over multiple blocks
+        assertNotEquals(a.index().get(0).recordFilePosition(), a.index().get(records.size() - 1).recordFilePosition());
+        Files.delete(indexFile);
+        SegmentIndexRestore restore = new SegmentIndexRestore(SegmentUtils.recordsFile(TEMP_DIR, partition, 0));
+        restore.restore();
+        SegmentIndex b = new SegmentIndex(indexFile);
+        assertEquals(SegmentIndex.V2_MAGIC_BYTE, b.version());
+        assertEquals(a.index(), b.index());
+    }
+
+    @Test
+    public void restoreSparseTest() throws Exception {
+        int partition = 3;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter.appendBatch(records);
+        segmentWriter.close();
+        Path indexFile = SegmentUtils.indexFile(TEMP_DIR, partition, 0);
+        Files.delete(indexFile);
+        SegmentIndexRestore restore = new SegmentIndexRestore(SegmentUtils.recordsFile(TEMP_DIR, partition, 0), 512);
+        restore.restore();
+        SegmentIndex b = new SegmentIndex(indexFile);
+        assertTrue(b.isSparse());
+        assertTrue(b.size() < records.size() / 10);
+        assertEquals(Optional.of(0L), b.getByPosition(0).map(SegmentIndexEntry::getOffset));
+        assertEquals(Optional.of(999L), b.lastIndexEntry().map(SegmentIndexEntry::getOffset));
+        assertEquals(Optional.of(b.index().get(1)), b.findLatestEntryWithLowerOrEqualOffset(b.index().get(2).getOffset() - 1));
+        b.close();
+
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(records, segmentReader.readFully());
+        segmentReader.seek(555);
+        assertEquals(records.get(555), segmentReader.read());
+        segmentReader.close();
+    }
+
     @Test
     public void incrementingIndex() throws Exception {
         String indexFile = "incrementingIndex";
@@ -109,6 +167,50 @@ public class SegmentIndexTest {
         index.close();
     }
 
+    @Test
+    public void binarySearchTest() throws Exception {
+        String indexFile = "binarySearchTest";
+        SegmentIndex index = new SegmentIndex(Paths.get(TEMP_DIR.toString(), indexFile));
+        List<SegmentIndexEntry> entries = new ArrayList<>();
+        // Only even offsets
+        for (int i = 0; i < 10000; i++) {
+            entries.add(new SegmentIndexEntry(2 * i, 1 + 10 * i, 10));
+        }
+        index.addEntries(entries);
+        index.close();
+
+        SegmentIndex b = new SegmentIndex(Paths.get(TEMP_DIR.toString(), indexFile));
+        assertEquals(entries.size(), b.size());
+        assertEquals(entries, b.index());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(Optional.of(entries.get(i).recordFilePosition()), b.findByOffset(2 * i));
+            assertEquals(Optional.empty(), b.findByOffset(2 * i + 1));
+            assertEquals(Optional.of(entries.get(i)), b.findEarliestEntryWithHigherOrEqualOffset(2 * i - 1));
+        }
+        assertEquals(Optional.of(entries.get(0)), b.findEarliestEntryWithHigherOrEqualOffset(-100));
+        assertEquals(Optional.empty(), b.findEarliestEntryWithHigherOrEqualOffset(2 * entries.size()));
+        assertEquals(Optional.empty(), b.findByOffset(-1));
+        b.close();
+    }
+
+    @Test
+    public void readWhileWritingTest() throws Exception {
+        String indexFile = "readWhileWritingTest";
+        SegmentIndex index = new SegmentIndex(Paths.get(TEMP_DIR.toString(), indexFile));
+        assertEquals(Optional.empty(), index.findEarliestEntryWithHigherOrEqualOffset(0));
+        index.addEntry(ENTRY1);
+        index.addEntry(ENTRY2);
+        assertEquals(Optional.of(ENTRY2), index.findEarliestEntryWithHigherOrEqualOffset(1));
+        assertEquals(Optional.empty(), index.findEarliestEntryWithHigherOrEqualOffset(5));
+        // The index must see the new entries after they were written
+        index.addEntry(ENTRY3);
+        index.addEntry(ENTRY4);
+        assertEquals(Optional.of(ENTRY3), index.findEarliestEntryWithHigherOrEqualOffset(2));
+        assertEquals(Optional.of(ENTRY4.recordFilePosition()), index.findByOffset(6));
+        assertEquals(Optional.of(ENTRY4), index.getByPosition(3));
+        index.close();
+    }
+
     @Test
     public void emptyIndexTest() throws Exception {
         String indexFile = "emptyIndexTest";
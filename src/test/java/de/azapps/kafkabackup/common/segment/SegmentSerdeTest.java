@@ -1,18 +1,29 @@
 package de.azapps.kafkabackup.common.segment;
 
+import de.azapps.kafkabackup.common.FileHandleCache;
 import de.azapps.kafkabackup.common.TestUtils;
 import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.record.RecordSerde;
 import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.Test;
 
 import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -161,6 +172,500 @@ public class SegmentSerdeTest {
         assertEquals(records.get(0), segmentReader.read());
     }
 
+    @Test
+    public void recordsLargerThanReadBuffer() throws Exception {
+        int partition = 6;
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // Mix small records with records that are larger than the read buffer of the readers
+            byte[] value = new byte[i % 5 == 0 ? 200 * 1024 : 3000];
+            value[value.length - 1] = (byte) i;
+            records.add(new Record(TOPIC, partition, KEY_BYTES, value, i));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        for (Record record : records) {
+            segmentWriter.append(record);
+        }
+        segmentWriter.close();
+
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(records, segmentReader.readFully());
+        segmentReader.seek(15);
+        assertEquals(records.get(15), segmentReader.read());
+        segmentReader.seek(3);
+        assertEquals(records.subList(3, 20), segmentReader.readFully());
+        segmentReader.close();
+
+        UnverifiedSegmentReader unverifiedSegmentReader = new UnverifiedSegmentReader(SegmentUtils.recordsFile(TEMP_DIR, partition, 0), TOPIC, partition);
+        assertEquals(records, unverifiedSegmentReader.readFully());
+        unverifiedSegmentReader.close();
+    }
+
+    @Test
+    public void appendBatch() throws Exception {
+        int partition = 7;
+
+        List<Record> records = new ArrayList<>();
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 0));
+        records.add(new Record(TOPIC, partition, null, null, 1));
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 5, null, TimestampType.NO_TIMESTAMP_TYPE, HEADERS));
+        List<Record> records2 = new ArrayList<>();
+        records2.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 6));
+        records2.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 4)); // invalid offset!
+        records2.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 7));
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter.appendBatch(records);
+        assertEquals(5, segmentWriter.lastWrittenOffset());
+        // Records before the invalid one are written
+        assertThrows(SegmentWriter.SegmentException.class, () -> segmentWriter.appendBatch(records2));
+        assertEquals(6, segmentWriter.lastWrittenOffset());
+        segmentWriter.close();
+
+        // Continue writing after reopening the segment
+        SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter2.appendBatch(records2.subList(2, 3));
+        segmentWriter2.close();
+
+        List<Record> expected = new ArrayList<>(records);
+        expected.add(records2.get(0));
+        expected.add(records2.get(2));
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(expected, segmentReader.readFully());
+        segmentReader.seek(5);
+        assertEquals(expected.subList(2, 5), segmentReader.readFully());
+    }
+
+    @Test
+    public void compressedRoundtrip() throws Exception {
+        int partition = 10;
+        for (CompressionType compressionType : CompressionType.values()) {
+            partition++;
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                byte[] value = String.format("{\"id\": %d, \"name\": \"some repetitive json\"}", i).getBytes(StandardCharsets.UTF_8);
+                if (i % 7 == 0) {
+                    records.add(new Record(TOPIC, partition, null, null, 2 * i));
+                } else if (i % 11 == 0) {
+                    records.add(new Record(TOPIC, partition, KEY_BYTES, value, 2 * i, null, TimestampType.NO_TIMESTAMP_TYPE, HEADERS));
+                } else {
+                    records.add(new Record(TOPIC, partition, KEY_BYTES, value, 2 * i, 1000L + i, TimestampType.CREATE_TIME));
+                }
+            }
+
+            SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType);
+            for (int i = 0; i < 2000; i += 100) {
+                segmentWriter.appendBatch(records.subList(i, i + 100));
+            }
+            segmentWriter.close();
+            // Continue writing after reopening the segment. The format of the segment must not change
+            SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType);
+            segmentWriter2.appendBatch(records.subList(2000, 3000));
+            segmentWriter2.close();
+
+            Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+            byte expectedVersion = SegmentUtils.V2_MAGIC_BYTE;
+            assertEquals(expectedVersion, SegmentUtils.segmentVersion(recordFile));
+            // Existing segments keep their format regardless of the configured codec
+            SegmentWriter otherCodecWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR,
+                    compressionType == CompressionType.NONE ? CompressionType.ZSTD : CompressionType.NONE);
+            assertEquals(expectedVersion, otherCodecWriter.version());
+            otherCodecWriter.close();
+            if (compressionType != CompressionType.NONE) {
+                long uncompressedSize = records.stream().mapToLong(RecordSerde::serializedSize).sum();
+                assertTrue(Files.size(recordFile) * 3 < uncompressedSize, compressionType.name);
+            }
+
+            SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+            assertEquals(records, segmentReader.readFully(), compressionType.name);
+            assertFalse(segmentReader.hasMoreData());
+            segmentReader.seek(4001);
+            assertEquals(records.subList(2001, 2005), segmentReader.readN(4));
+            segmentReader.seek(10);
+            assertEquals(records.get(5), segmentReader.read());
+            segmentReader.seek(5998);
+            assertEquals(records.get(2999), segmentReader.read());
+            assertFalse(segmentReader.hasMoreData());
+            segmentReader.seek(6000);
+            assertFalse(segmentReader.hasMoreData());
+            segmentReader.close();
+
+            UnverifiedSegmentReader unverifiedSegmentReader = new UnverifiedSegmentReader(recordFile, TOPIC, partition);
+            assertEquals(records, unverifiedSegmentReader.readFully(), compressionType.name);
+            unverifiedSegmentReader.close();
+        }
+    }
+
+    @Test
+    public void uncompressedSegmentSize() throws Exception {
+        int partition = 60;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i, 1000L + i, TimestampType.CREATE_TIME, new RecordHeaders()));
+        }
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        for (int i = 0; i < records.size(); i += 100) {
+            segmentWriter.appendBatch(records.subList(i, i + 100));
+        }
+        segmentWriter.close();
+
+        // Uncompressed segments use the compact record framing of V2 blocks, not the fixed-width V1 records
+        Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+        assertEquals(SegmentUtils.V2_MAGIC_BYTE, SegmentUtils.segmentVersion(recordFile));
+        long v1Size = records.stream().mapToLong(RecordSerde::serializedSize).sum();
+        assertTrue(Files.size(recordFile) * 3 < v1Size * 2, "Segment size " + Files.size(recordFile) + ", V1 size " + v1Size);
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(records, segmentReader.readFully());
+        segmentReader.close();
+    }
+
+    @Test
+    public void sparseIndex() throws Exception {
+        int partition = 20;
+        for (CompressionType compressionType : new CompressionType[]{CompressionType.NONE, CompressionType.LZ4}) {
+            partition++;
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 10 + 2 * i));
+            }
+
+            SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType, 1024);
+            for (int i = 0; i < 2000; i += 500) {
+                segmentWriter.appendBatch(records.subList(i, i + 500));
+            }
+            segmentWriter.close();
+            // Existing segments keep their index mode
+            SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType, 0);
+            segmentWriter2.appendBatch(records.subList(2000, 3000));
+            segmentWriter2.close();
+
+            SegmentIndex segmentIndex = new SegmentIndex(SegmentUtils.indexFile(TEMP_DIR, partition, 0));
+            assertTrue(segmentIndex.isSparse());
+            assertEquals(1024, segmentIndex.indexIntervalBytes());
+            assertTrue(segmentIndex.size() * 10 < records.size(), compressionType.name);
+            assertEquals(Optional.of(records.get(0).kafkaOffset()), segmentIndex.getByPosition(0).map(SegmentIndexEntry::getOffset));
+            //noinspection OptionalGetWithoutIsPresent
+            assertEquals(records.get(2999).kafkaOffset(), segmentIndex.lastIndexEntry().get().getOffset());
+            segmentIndex.close();
+
+            SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+            assertEquals(records, segmentReader.readFully(), compressionType.name);
+            assertFalse(segmentReader.hasMoreData());
+            for (int i = 0; i < records.size(); i += 37) {
+                segmentReader.seek(records.get(i).kafkaOffset());
+                assertEquals(records.get(i), segmentReader.read());
+                segmentReader.seek(records.get(i).kafkaOffset() - 1);
+                assertEquals(records.get(i), segmentReader.read());
+            }
+            segmentReader.seek(0);
+            assertEquals(records.subList(0, 3), segmentReader.readN(3));
+            segmentReader.seek(records.get(2999).kafkaOffset());
+            assertEquals(records.get(2999), segmentReader.read());
+            assertFalse(segmentReader.hasMoreData());
+            segmentReader.seek(records.get(2999).kafkaOffset() + 1);
+            assertFalse(segmentReader.hasMoreData());
+            segmentReader.close();
+        }
+    }
+
+    @Test
+    public void timeIndex() throws Exception {
+        int partition = 50;
+        long[] timestamps = {100, 300, 200, 250, -1, 400, 500};
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < timestamps.length; i++) {
+            Long timestamp = timestamps[i] == -1 ? null : timestamps[i];
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i, timestamp,
+                    timestamp == null ? TimestampType.NO_TIMESTAMP_TYPE : TimestampType.CREATE_TIME, new RecordHeaders()));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter.appendBatch(records.subList(0, 3));
+        // Does not raise the maximum timestamp
+        segmentWriter.appendBatch(records.subList(3, 5));
+        segmentWriter.appendBatch(records.subList(5, 6));
+        segmentWriter.close();
+        SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter2.appendBatch(records.subList(6, 7));
+        segmentWriter2.close();
+
+        SegmentTimeIndex timeIndex = new SegmentTimeIndex(SegmentUtils.timeIndexFile(TEMP_DIR, partition, 0), FileHandleCache.unbounded());
+        assertEquals(3, timeIndex.size());
+        assertEquals(500, timeIndex.maxTimestamp());
+        assertEquals(-1, timeIndex.lastOffsetBefore(300));
+        assertEquals(1, timeIndex.lastOffsetBefore(301));
+        assertEquals(5, timeIndex.lastOffsetBefore(500));
+        assertEquals(6, timeIndex.lastOffsetBefore(1000));
+        timeIndex.close();
+        assertEquals(Optional.of(500L), SegmentTimeIndex.maxTimestamp(TEMP_DIR, SegmentUtils.filePrefix(partition, 0), FileHandleCache.unbounded()));
+
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertTrue(segmentReader.seekToTimestamp(0));
+        assertEquals(records.get(0), segmentReader.read());
+        assertTrue(segmentReader.seekToTimestamp(250));
+        assertEquals(records.subList(1, 7), segmentReader.readFully());
+        assertTrue(segmentReader.seekToTimestamp(300));
+        assertEquals(records.get(1), segmentReader.read());
+        assertTrue(segmentReader.seekToTimestamp(450));
+        assertEquals(records.get(6), segmentReader.read());
+        assertFalse(segmentReader.seekToTimestamp(501));
+        assertFalse(segmentReader.hasMoreData());
+        segmentReader.close();
+
+        SegmentTimeIndex timeIndex2 = new SegmentTimeIndex(SegmentUtils.timeIndexFile(TEMP_DIR, partition, 0), FileHandleCache.unbounded());
+        timeIndex2.truncateAfter(4);
+        assertEquals(1, timeIndex2.size());
+        assertEquals(300, timeIndex2.maxTimestamp());
+        timeIndex2.close();
+
+        // Segments without a time index are scanned
+        Files.delete(SegmentUtils.timeIndexFile(TEMP_DIR, partition, 0));
+        assertEquals(Optional.empty(), SegmentTimeIndex.maxTimestamp(TEMP_DIR, SegmentUtils.filePrefix(partition, 0), FileHandleCache.unbounded()));
+        SegmentReader segmentReader2 = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertTrue(segmentReader2.seekToTimestamp(350));
+        assertEquals(records.get(5), segmentReader2.read());
+        assertFalse(segmentReader2.seekToTimestamp(501));
+        segmentReader2.close();
+    }
+
+    @Test
+    public void kafkaRecordBatches() throws Exception {
+        int partition = 30;
+        for (CompressionType compressionType : new CompressionType[]{CompressionType.NONE, CompressionType.LZ4, CompressionType.ZSTD}) {
+            for (int indexIntervalBytes : new int[]{0, 1024}) {
+                partition++;
+                List<Record> records = new ArrayList<>();
+                for (int i = 0; i < 3000; i++) {
+                    byte[] value = String.format("{\"id\": %d, \"name\": \"some repetitive json\"}", i).getBytes(StandardCharsets.UTF_8);
+                    if (i % 7 == 0) {
+                        records.add(new Record(TOPIC, partition, null, null, 2 * i, null, TimestampType.CREATE_TIME));
+                    } else if (i >= 1000 && i < 1100) {
+                        // Starts new batches
+                        records.add(new Record(TOPIC, partition, KEY_BYTES, value, 2 * i, 5000L + i / 10, TimestampType.LOG_APPEND_TIME, HEADERS));
+                    } else {
+                        records.add(new Record(TOPIC, partition, KEY_BYTES, value, 2 * i, 1000L + i, TimestampType.CREATE_TIME));
+                    }
+                }
+
+                SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType, indexIntervalBytes, true);
+                for (int i = 0; i < 2000; i += 100) {
+                    segmentWriter.appendBatch(records.subList(i, i + 100));
+                }
+                segmentWriter.close();
+                // Continue writing after reopening the segment. The format of the segment must not change
+                SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+                assertEquals(SegmentUtils.V3_MAGIC_BYTE, segmentWriter2.version());
+                segmentWriter2.close();
+                SegmentWriter segmentWriter3 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, compressionType, indexIntervalBytes, true);
+                segmentWriter3.appendBatch(records.subList(2000, 3000));
+                segmentWriter3.close();
+
+                // The segment consists of native Kafka record batches
+                Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+                byte[] segment = Files.readAllBytes(recordFile);
+                assertEquals(SegmentUtils.V3_MAGIC_BYTE, segment[0]);
+                int recordCount = 0;
+                for (MutableRecordBatch batch : MemoryRecords.readableRecords(ByteBuffer.wrap(segment, 1, segment.length - 1).slice()).batches()) {
+                    batch.ensureValid();
+                    assertEquals(RecordBatch.MAGIC_VALUE_V2, batch.magic());
+                    assertEquals(compressionType, batch.compressionType());
+                    recordCount += batch.countOrNull();
+                }
+                assertEquals(records.size(), recordCount);
+
+                SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+                assertEquals(records, segmentReader.readFully(), compressionType.name);
+                assertFalse(segmentReader.hasMoreData());
+                for (int i = 1; i < records.size(); i += 37) {
+                    segmentReader.seek(records.get(i).kafkaOffset());
+                    assertEquals(records.get(i), segmentReader.read());
+                    segmentReader.seek(records.get(i).kafkaOffset() - 1);
+                    assertEquals(records.get(i), segmentReader.read());
+                    assertEquals(records.get(i + 1), segmentReader.read());
+                }
+                segmentReader.seek(5998);
+                assertEquals(records.get(2999), segmentReader.read());
+                assertFalse(segmentReader.hasMoreData());
+                segmentReader.close();
+
+                UnverifiedSegmentReader unverifiedSegmentReader = new UnverifiedSegmentReader(recordFile, TOPIC, partition);
+                assertEquals(records, unverifiedSegmentReader.readFully(), compressionType.name);
+                unverifiedSegmentReader.close();
+            }
+        }
+    }
+
+    @Test
+    public void truncatedRecordBatch() throws Exception {
+        int partition = 9;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i, 1000L + i, TimestampType.CREATE_TIME));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.GZIP, 0, true);
+        segmentWriter.appendBatch(records.subList(0, 5));
+        segmentWriter.close();
+        // Simulate a crash while writing a batch: the batch is written only partially and is not in the index
+        Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+        byte[] segment = Files.readAllBytes(recordFile);
+        Files.write(recordFile, Arrays.copyOfRange(segment, 1, 30), StandardOpenOption.APPEND);
+
+        UnverifiedSegmentReader unverifiedSegmentReader = new UnverifiedSegmentReader(recordFile, TOPIC, partition);
+        assertEquals(records.subList(0, 5), unverifiedSegmentReader.readFully());
+        unverifiedSegmentReader.close();
+
+        // The partial batch is overwritten
+        SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.GZIP, 0, true);
+        segmentWriter2.appendBatch(records.subList(5, 10));
+        segmentWriter2.close();
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(records, segmentReader.readFully());
+
+        // A corrupt batch is detected by its checksum
+        segment = Files.readAllBytes(recordFile);
+        segment[segment.length - 5] ^= 0x01;
+        Files.write(recordFile, segment);
+        UnverifiedSegmentReader corruptReader = new UnverifiedSegmentReader(recordFile, TOPIC, partition);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(records.get(i), corruptReader.read());
+        }
+        assertThrows(IOException.class, corruptReader::read);
+        corruptReader.close();
+    }
+
+    @Test
+    public void verifyChecksums() throws Exception {
+        int partition = 40;
+        // V1 segments do not have checksums
+        SegmentReader v1Reader = new SegmentReader(TOPIC, 0, Paths.get("src/test/assets/v1/segments"), 0);
+        assertEquals(0, v1Reader.verify().blocks());
+        assertEquals(new Record(TOPIC, 0, KEY_BYTES, VALUE_BYTES, 0), v1Reader.read());
+        v1Reader.close();
+
+        for (boolean kafkaRecordBatches : new boolean[]{false, true}) {
+            partition++;
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                byte[] value = String.format("{\"id\": %d, \"name\": \"some repetitive json\"}", i).getBytes(StandardCharsets.UTF_8);
+                records.add(new Record(TOPIC, partition, KEY_BYTES, value, i, 1000L + i, TimestampType.CREATE_TIME));
+            }
+            SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.GZIP, 0, kafkaRecordBatches);
+            segmentWriter.appendBatch(records);
+            segmentWriter.close();
+
+            SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+            segmentReader.seek(100);
+            SegmentReader.Verification verification = segmentReader.verify();
+            assertTrue(verification.blocks() > 1);
+            assertEquals(verification.blocks(), verification.checkedBlocks());
+            Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+            assertEquals(Files.size(recordFile) - 1, verification.checkedBytes());
+            // The reader continues where it was before the verification
+            assertEquals(records.get(100), segmentReader.read());
+            segmentReader.close();
+
+            // Flip a bit in the records and in the header of the last block
+            byte[] segment = Files.readAllBytes(recordFile);
+            byte[] corruptRecords = Arrays.copyOf(segment, segment.length);
+            corruptRecords[segment.length - 10] ^= 0x01;
+            Files.write(recordFile, corruptRecords);
+            SegmentReader corruptReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+            assertThrows(SegmentReader.ChecksumException.class, corruptReader::verify);
+            // Also reading the block fails
+            assertThrows(SegmentReader.ChecksumException.class, () -> corruptReader.seek(records.get(2999).kafkaOffset()));
+            corruptReader.close();
+
+            SegmentIndex segmentIndex = new SegmentIndex(SegmentUtils.indexFile(TEMP_DIR, partition, 0));
+            //noinspection OptionalGetWithoutIsPresent
+            long lastBlockPosition = segmentIndex.lastIndexEntry().get().recordFilePosition();
+            segmentIndex.close();
+            byte[] corruptHeader = Arrays.copyOf(segment, segment.length);
+            // a timestamp in the header of the block (or batch)
+            corruptHeader[(int) lastBlockPosition + 33] ^= 0x01;
+            Files.write(recordFile, corruptHeader);
+            SegmentReader corruptHeaderReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+            assertThrows(SegmentReader.ChecksumException.class, corruptHeaderReader::verify);
+            corruptHeaderReader.close();
+        }
+    }
+
+    @Test
+    public void verifyDefaultSegment() throws Exception {
+        int partition = 45;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+        // Segments written with the default configuration have checksums
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR);
+        segmentWriter.appendBatch(records);
+        segmentWriter.close();
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertTrue(segmentReader.verify().checkedBlocks() > 0);
+        segmentReader.close();
+
+        Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+        byte[] segment = Files.readAllBytes(recordFile);
+        segment[segment.length - 3] ^= 0x01;
+        Files.write(recordFile, segment);
+        SegmentReader corruptReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertThrows(SegmentReader.ChecksumException.class, corruptReader::verify);
+        corruptReader.close();
+    }
+
+    @Test
+    public void verifyBlocksWithoutChecksum() throws Exception {
+        Path directory = Paths.get("src/test/assets/v2/segments");
+        SegmentReader segmentReader = new SegmentReader(TOPIC, 0, directory, 0);
+        SegmentReader.Verification verification = segmentReader.verify();
+        assertTrue(verification.blocks() > 0);
+        assertEquals(0, verification.checkedBlocks());
+        assertEquals(v2TestRecords(0), segmentReader.readFully());
+        segmentReader.close();
+    }
+
+    @Test
+    public void truncatedBlock() throws Exception {
+        int partition = 8;
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.GZIP);
+        segmentWriter.appendBatch(records.subList(0, 5));
+        segmentWriter.close();
+        // Simulate a crash while writing a block: the block is written only partially and is not in the index
+        Path recordFile = SegmentUtils.recordsFile(TEMP_DIR, partition, 0);
+        byte[] segment = Files.readAllBytes(recordFile);
+        Files.write(recordFile, Arrays.copyOfRange(segment, 1, 30), StandardOpenOption.APPEND);
+
+        UnverifiedSegmentReader unverifiedSegmentReader = new UnverifiedSegmentReader(recordFile, TOPIC, partition);
+        assertEquals(records.subList(0, 5), unverifiedSegmentReader.readFully());
+        unverifiedSegmentReader.close();
+
+        // The partial block is overwritten
+        SegmentWriter segmentWriter2 = new SegmentWriter(TOPIC, partition, 0, TEMP_DIR, CompressionType.GZIP);
+        segmentWriter2.appendBatch(records.subList(5, 10));
+        segmentWriter2.close();
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, TEMP_DIR, 0);
+        assertEquals(records, segmentReader.readFully());
+    }
+
+    /**
+     * DO NOT CHANGE THIS TEST!
+     */
+    @Test
+    public void readV2Segment() throws Exception {
+        int partition = 0;
+        Path directory = Paths.get("src/test/assets/v2/segments");
+        SegmentReader segmentReader = new SegmentReader(TOPIC, partition, directory, 0);
+        assertEquals(v2TestRecords(partition), segmentReader.readFully());
+    }
+
     /**
      * DO NOT CHANGE THIS TEST!
      */
@@ -200,4 +705,31 @@ public class SegmentSerdeTest {
         }
     }
 
+    private static List<Record> v2TestRecords(int partition) {
+        List<Record> records = new ArrayList<>();
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 0));
+        records.add(new Record(TOPIC, partition, null, null, 1));
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 3, null, TimestampType.NO_TIMESTAMP_TYPE, HEADERS));
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 10, 1000L, TimestampType.CREATE_TIME));
+        records.add(new Record(TOPIC, partition, KEY_BYTES, VALUE_BYTES, 11, 2000L, TimestampType.LOG_APPEND_TIME));
+        return records;
+    }
+
+    /**
+     * Utility function to be run once when the format on disk changes to be able to stay backwards-compatible
+     * <p>
+     * Call it manually once when the format changes
+     */
+    private static void writeV2TestSegmentsToFile() throws Exception {
+        int partition = 0;
+        Path directory = Paths.get("src/test/assets/v2/segments"); // CHANGEME WHEN CHANGING DATA FORMAT!
+        Files.createDirectories(directory);
+
+        List<Record> records = v2TestRecords(partition);
+        SegmentWriter segmentWriter = new SegmentWriter(TOPIC, partition, 0, directory, CompressionType.LZ4);
+        segmentWriter.appendBatch(records.subList(0, 3));
+        segmentWriter.appendBatch(records.subList(3, 5));
+        segmentWriter.close();
+    }
+
 }
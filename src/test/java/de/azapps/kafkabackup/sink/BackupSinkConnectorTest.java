@@ -0,0 +1,33 @@
+package de.azapps.kafkabackup.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackupSinkConnectorTest {
+
+    @Test
+    public void taskConfigs() {
+        Map<String, String> props = new HashMap<>();
+        props.put(BackupSinkConfig.TARGET_DIR_CONFIG, "/tmp/backup");
+        BackupSinkConnector connector = new BackupSinkConnector();
+        connector.start(props);
+
+        List<Map<String, String>> taskConfigs = connector.taskConfigs(3);
+        assertEquals(3, taskConfigs.size());
+        for (int i = 0; i < taskConfigs.size(); i++) {
+            assertEquals(String.valueOf(i), taskConfigs.get(i).get(BackupSinkConfig.TASK_ID));
+            assertEquals("/tmp/backup", taskConfigs.get(i).get(BackupSinkConfig.TARGET_DIR_CONFIG));
+        }
+        // The connector config is not changed
+        assertFalse(props.containsKey(BackupSinkConfig.TASK_ID));
+
+        // Snapshots are taken by one task
+        props.put(BackupSinkConfig.SNAPSHOT, "true");
+        assertEquals(1, connector.taskConfigs(3).size());
+    }
+}
@@ -4,6 +4,7 @@ import de.azapps.kafkabackup.common.TestUtils;
 import de.azapps.kafkabackup.common.partition.PartitionReader;
 import de.azapps.kafkabackup.common.partition.PartitionWriter;
 import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.common.segment.SegmentUtils;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaAndValue;
@@ -197,6 +198,130 @@ public class BackupSinkTaskTest {
         assertEquals(t3p1Records, t3p1Reader.readFully());
     }
 
+    @Test
+    public void compressedTest() throws Exception {
+        // Prepare
+        Path directory = Paths.get(TEMP_DIR.toString(), "compressedTest");
+        Files.createDirectories(directory);
+        Map<String, String> props = new HashMap<>(DEFAULT_PROPS);
+        props.put(BackupSinkConfig.TARGET_DIR_CONFIG, directory.toString());
+        props.put(BackupSinkConfig.MAX_SEGMENT_SIZE, String.valueOf(2000));
+        props.put(BackupSinkConfig.COMPRESSION_TYPE_CONFIG, "zstd");
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new Record(TOPIC1, 0, KEY_BYTES, VALUE_BYTES, i));
+        }
+
+        List<TopicPartition> partitions = new ArrayList<>();
+        partitions.add(new TopicPartition(TOPIC1, 0));
+
+        // Start Task
+        BackupSinkTask task = new BackupSinkTask();
+        task.start(props, new MockOffsetSink(null, null), null, (n) -> {});
+        task.open(partitions);
+        for (int i = 0; i < records.size(); i += 250) {
+            task.put(records.subList(i, i + 250).stream().map(Record::toSinkRecord).collect(Collectors.toList()));
+        }
+        task.close(partitions);
+
+        // Check backed up data
+        Path topicDir = Paths.get(directory.toString(), TOPIC1);
+        PartitionReader partitionReader = new PartitionReader(TOPIC1, 0, topicDir);
+        assertEquals(records, partitionReader.readFully());
+        List<Path> segments = Files.list(topicDir).filter(SegmentUtils::isSegment).collect(Collectors.toList());
+        assertTrue(segments.size() > 1);
+    }
+
+    @Test
+    public void writerThreadsTest() throws Exception {
+        // Prepare
+        Path directory = Paths.get(TEMP_DIR.toString(), "writerThreadsTest");
+        Files.createDirectories(directory);
+        Map<String, String> props = new HashMap<>(DEFAULT_PROPS);
+        props.put(BackupSinkConfig.TARGET_DIR_CONFIG, directory.toString());
+        props.put(BackupSinkConfig.MAX_SEGMENT_SIZE, String.valueOf(2000));
+        props.put(BackupSinkConfig.WRITER_THREADS_CONFIG, "3");
+        props.put(BackupSinkConfig.WRITER_QUEUE_SIZE_CONFIG, "1");
+
+        List<TopicPartition> partitions = new ArrayList<>();
+        Map<TopicPartition, List<Record>> recordsPerPartition = new HashMap<>();
+        List<Record> records = new ArrayList<>();
+        for (int partition = 0; partition < 8; partition++) {
+            partitions.add(new TopicPartition(TOPIC1, partition));
+            recordsPerPartition.put(new TopicPartition(TOPIC1, partition), new ArrayList<>());
+        }
+        for (int i = 0; i < 2000; i++) {
+            Record record = new Record(TOPIC1, i % 8, KEY_BYTES, VALUE_BYTES, i / 8);
+            records.add(record);
+            recordsPerPartition.get(new TopicPartition(TOPIC1, i % 8)).add(record);
+        }
+
+        // Start Task
+        BackupSinkTask task = new BackupSinkTask();
+        task.start(props, new MockOffsetSink(null, null), null, (n) -> {});
+        task.open(partitions);
+        for (int i = 0; i < records.size(); i += 100) {
+            task.put(records.subList(i, i + 100).stream().map(Record::toSinkRecord).collect(Collectors.toList()));
+        }
+        task.flush(new HashMap<>());
+
+        // Records are written when flush returns
+        for (Map.Entry<TopicPartition, List<Record>> entry : recordsPerPartition.entrySet()) {
+            PartitionReader partitionReader = new PartitionReader(TOPIC1, entry.getKey().partition(), Paths.get(directory.toString(), TOPIC1));
+            assertEquals(entry.getValue(), partitionReader.readFully());
+            partitionReader.close();
+        }
+
+        // Write failures are thrown by the next call
+        List<Record> invalidRecords = new ArrayList<>();
+        invalidRecords.add(new Record(TOPIC1, 0, KEY_BYTES, VALUE_BYTES, 0)); // invalid offset!
+        task.put(invalidRecords.stream().map(Record::toSinkRecord).collect(Collectors.toList()));
+        assertThrows(RuntimeException.class, () -> task.flush(new HashMap<>()));
+        assertThrows(RuntimeException.class, task::stop);
+    }
+
+    @Test
+    public void durabilityTest() throws Exception {
+        for (String durability : new String[]{"flush", "interval"}) {
+            // Prepare
+            Path directory = Paths.get(TEMP_DIR.toString(), "durabilityTest", durability);
+            Files.createDirectories(directory);
+            Map<String, String> props = new HashMap<>(DEFAULT_PROPS);
+            props.put(BackupSinkConfig.TARGET_DIR_CONFIG, directory.toString());
+            props.put(BackupSinkConfig.DURABILITY_CONFIG, durability);
+            props.put(BackupSinkConfig.DURABILITY_INTERVAL_MS_CONFIG, "0");
+            props.put(BackupSinkConfig.WRITER_THREADS_CONFIG, "2");
+
+            List<TopicPartition> partitions = new ArrayList<>();
+            partitions.add(new TopicPartition(TOPIC1, 0));
+            partitions.add(new TopicPartition(TOPIC1, 1));
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                records.add(new Record(TOPIC1, i % 2, KEY_BYTES, VALUE_BYTES, i / 2));
+            }
+
+            // Start Task
+            BackupSinkTask task = new BackupSinkTask();
+            task.start(props, new MockOffsetSink(null, null), null, (n) -> {});
+            task.open(partitions);
+            for (int i = 0; i < records.size(); i += 10) {
+                task.put(records.subList(i, i + 10).stream().map(Record::toSinkRecord).collect(Collectors.toList()));
+                task.flush(new HashMap<>());
+            }
+            task.close(partitions);
+            task.stop();
+
+            // Check backed up data
+            for (TopicPartition topicPartition : partitions) {
+                List<Record> partitionRecords = records.stream().filter(r -> r.kafkaPartition() == topicPartition.partition()).collect(Collectors.toList());
+                PartitionReader partitionReader = new PartitionReader(TOPIC1, topicPartition.partition(), Paths.get(directory.toString(), TOPIC1));
+                assertEquals(partitionRecords, partitionReader.readFully());
+                partitionReader.close();
+            }
+        }
+    }
+
     @Test
     public void invalidOffsetsTest() throws Exception {
         // Prepare
@@ -3,11 +3,14 @@ package de.azapps.kafkabackup.sink;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.sink.SinkTaskContext;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 public class MockSinkTaskContext implements SinkTaskContext {
+    private final Set<TopicPartition> paused = new HashSet<>();
 
     @Override
     public Map<String, String> configs() {
@@ -36,12 +39,16 @@ public class MockSinkTaskContext implements SinkTaskContext {
 
     @Override
     public void pause(TopicPartition... partitions) {
-
+        paused.addAll(Arrays.asList(partitions));
     }
 
     @Override
     public void resume(TopicPartition... partitions) {
+        paused.removeAll(Arrays.asList(partitions));
+    }
 
+    public Set<TopicPartition> paused() {
+        return paused;
     }
 
     @Override
@@ -0,0 +1,85 @@
+package de.azapps.kafkabackup.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionBackpressureTest {
+    private static final Map<String, String> TAGS = Collections.singletonMap("connector", "test");
+    private static final TopicPartition PARTITION0 = new TopicPartition("test-topic", 0);
+    private static final TopicPartition PARTITION1 = new TopicPartition("test-topic", 1);
+
+    private static double metricValue(Metrics metrics, String name) {
+        return ((Number) metrics.metric(metrics.metricName(name, PartitionBackpressure.METRIC_GROUP, TAGS)).metricValue()).doubleValue();
+    }
+
+    @Test
+    public void pauseOnQueuedBatches() {
+        MockSinkTaskContext context = new MockSinkTaskContext();
+        Metrics metrics = new Metrics();
+        PartitionBackpressure backpressure = new PartitionBackpressure(0, 2, 0, context, metrics, TAGS);
+        PartitionBackpressure.PartitionLoad load0 = backpressure.addPartition(PARTITION0);
+        PartitionBackpressure.PartitionLoad load1 = backpressure.addPartition(PARTITION1);
+
+        load0.batchQueued();
+        load0.batchQueued();
+        load1.batchQueued();
+        backpressure.update();
+        assertEquals(Collections.singleton(PARTITION0), context.paused());
+        assertEquals(1, backpressure.pausedPartitions());
+
+        // Still one batch queued
+        load0.batchWritten(0);
+        backpressure.update();
+        assertEquals(Collections.singleton(PARTITION0), context.paused());
+
+        load0.batchWritten(0);
+        backpressure.update();
+        assertTrue(context.paused().isEmpty());
+        assertEquals(0, backpressure.pausedPartitions());
+        assertEquals(1, metricValue(metrics, "pause-total"));
+        assertEquals(0, metricValue(metrics, "paused-partitions"));
+        metrics.close();
+    }
+
+    @Test
+    public void pauseOnWriteLatency() {
+        MockSinkTaskContext context = new MockSinkTaskContext();
+        Metrics metrics = new Metrics();
+        PartitionBackpressure backpressure = new PartitionBackpressure(10, 0, 0, context, metrics, TAGS);
+        PartitionBackpressure.PartitionLoad load = backpressure.addPartition(PARTITION0);
+
+        load.batchQueued();
+        load.batchWritten(TimeUnit.MILLISECONDS.toNanos(5));
+        backpressure.update();
+        assertTrue(context.paused().isEmpty());
+
+        load.batchQueued();
+        load.batchWritten(TimeUnit.MILLISECONDS.toNanos(50));
+        backpressure.update();
+        assertEquals(Collections.singleton(PARTITION0), context.paused());
+        assertEquals(1, metricValue(metrics, "paused-partitions"));
+
+        // Resumed as nothing is queued. The latency is measured again with the next batch
+        backpressure.update();
+        assertTrue(context.paused().isEmpty());
+        backpressure.update();
+        assertTrue(context.paused().isEmpty());
+
+        // Revoked partitions are forgotten
+        load.batchQueued();
+        load.batchWritten(TimeUnit.MILLISECONDS.toNanos(50));
+        backpressure.update();
+        assertEquals(1, backpressure.pausedPartitions());
+        backpressure.removePartition(PARTITION0);
+        assertEquals(0, backpressure.pausedPartitions());
+        assertEquals(2, metricValue(metrics, "pause-total"));
+        metrics.close();
+    }
+}
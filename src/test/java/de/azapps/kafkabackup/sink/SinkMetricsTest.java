@@ -0,0 +1,108 @@
+package de.azapps.kafkabackup.sink;
+
+import de.azapps.kafkabackup.common.TestUtils;
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SinkMetricsTest {
+    private static final Map<String, String> TAGS = Collections.singletonMap("connector", "test");
+    private static final Path TEMP_DIR = TestUtils.getTestDir("SinkMetricsTest");
+    private static final String TOPIC = "test-topic";
+    private static final TopicPartition PARTITION0 = new TopicPartition(TOPIC, 0);
+
+    private static double metricValue(Metrics metrics, String name) {
+        return ((Number) metrics.metric(metrics.metricName(name, SinkMetrics.METRIC_GROUP, TAGS)).metricValue()).doubleValue();
+    }
+
+    private static double partitionMetricValue(Metrics metrics, String name) {
+        Map<String, String> tags = new LinkedHashMap<>(TAGS);
+        tags.put("topic", TOPIC);
+        tags.put("partition", "0");
+        return ((Number) metrics.metric(metrics.metricName(name, SinkMetrics.PARTITION_METRIC_GROUP, tags)).metricValue()).doubleValue();
+    }
+
+    @Test
+    public void batchMetrics() throws Exception {
+        Metrics metrics = new Metrics();
+        SinkMetrics sinkMetrics = new SinkMetrics(metrics, TAGS);
+        // Every record starts a new segment
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, 0, TEMP_DIR, 1);
+        SinkMetrics.PartitionMetrics partitionMetrics = sinkMetrics.addPartition(PARTITION0, partitionWriter);
+
+        long now = System.currentTimeMillis();
+        List<Record> batch = new ArrayList<>();
+        batch.add(new Record(TOPIC, 0, new byte[3], new byte[7], 0, now - 2000, TimestampType.CREATE_TIME, new RecordHeaders()));
+        batch.add(new Record(TOPIC, 0, null, new byte[10], 1, now - 1000, TimestampType.CREATE_TIME, new RecordHeaders()));
+        partitionWriter.appendBatch(batch);
+        partitionMetrics.batchWritten(batch, 20, TimeUnit.MILLISECONDS.toNanos(5));
+        sinkMetrics.flushed(TimeUnit.MILLISECONDS.toNanos(8));
+
+        assertEquals(2, metricValue(metrics, "records-total"));
+        assertEquals(20, metricValue(metrics, "bytes-total"));
+        assertEquals(5, metricValue(metrics, "append-time-ms-max"));
+        assertEquals(8, metricValue(metrics, "flush-time-ms-max"));
+        // The lag is measured when the batch is written
+        assertTrue(metricValue(metrics, "record-lag-ms-max") >= 1000);
+        assertTrue(metricValue(metrics, "record-lag-ms-max") < 2000);
+        assertEquals(1, metricValue(metrics, "segment-roll-total"));
+        assertEquals(2, metricValue(metrics, "open-segments"));
+        assertEquals(2, partitionMetricValue(metrics, "records-total"));
+        assertEquals(20, partitionMetricValue(metrics, "bytes-total"));
+        assertEquals(metricValue(metrics, "record-lag-ms-max"), partitionMetricValue(metrics, "record-lag-ms"));
+        assertEquals(1, partitionMetricValue(metrics, "segment-roll-total"));
+
+        // The rolled segment is closed
+        partitionWriter.flush();
+        assertEquals(1, metricValue(metrics, "open-segments"));
+
+        // The rolls of removed partitions are kept
+        sinkMetrics.removePartition(PARTITION0);
+        partitionWriter.close();
+        assertEquals(1, metricValue(metrics, "segment-roll-total"));
+        assertEquals(0, metricValue(metrics, "open-segments"));
+        assertEquals(0, metricValue(metrics, "partitions"));
+        assertThrows(NullPointerException.class, () -> partitionMetricValue(metrics, "records-total"));
+        metrics.close();
+    }
+
+    @Test
+    public void latencyPercentiles() {
+        Metrics metrics = new Metrics();
+        SinkMetrics sinkMetrics = new SinkMetrics(metrics, TAGS);
+        // Flushes between 0.05 ms and 5 ms
+        for (int i = 1; i <= 100; i++) {
+            sinkMetrics.flushed(TimeUnit.MICROSECONDS.toNanos(50 * i));
+        }
+        assertEquals(2.5, metricValue(metrics, "flush-time-ms-p50"), 0.2);
+        assertEquals(5, metricValue(metrics, "flush-time-ms-p99"), 0.2);
+        metrics.close();
+    }
+
+    @Test
+    public void recordsWithoutTimestamp() throws Exception {
+        Metrics metrics = new Metrics();
+        SinkMetrics sinkMetrics = new SinkMetrics(metrics, TAGS);
+        PartitionWriter partitionWriter = new PartitionWriter(TOPIC, 1, TEMP_DIR, 1000);
+        SinkMetrics.PartitionMetrics partitionMetrics = sinkMetrics.addPartition(new TopicPartition(TOPIC, 1), partitionWriter);
+        partitionMetrics.batchWritten(Collections.singletonList(new Record(TOPIC, 1, null, null, 0)), 0, 0);
+        assertEquals(1, metricValue(metrics, "records-total"));
+        assertTrue(Double.isNaN(metricValue(metrics, "record-lag-ms-avg")));
+        partitionWriter.close();
+        metrics.close();
+    }
+}
@@ -0,0 +1,72 @@
+package de.azapps.kafkabackup.sink;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotProgressTest {
+    private static final Map<String, String> TAGS = Collections.singletonMap("connector", "test");
+    private static final TopicPartition PARTITION0 = new TopicPartition("test-topic", 0);
+    private static final TopicPartition PARTITION1 = new TopicPartition("test-topic", 1);
+    private static final TopicPartition PARTITION2 = new TopicPartition("test-topic", 2);
+
+    private static double metricValue(Metrics metrics, String name) {
+        return ((Number) metrics.metric(metrics.metricName(name, SnapshotProgress.METRIC_GROUP, TAGS)).metricValue()).doubleValue();
+    }
+
+    @Test
+    public void trackProgress() {
+        Metrics metrics = new Metrics();
+        SnapshotProgress progress = new SnapshotProgress(0, metrics, TAGS);
+        assertTrue(progress.isComplete());
+
+        progress.addPartition(PARTITION0, 10, -1);
+        progress.addPartition(PARTITION1, 20, 9);
+        // Already backed up completely
+        progress.addPartition(PARTITION2, 5, 4);
+        assertFalse(progress.isComplete());
+        assertEquals(1, progress.completedPartitions());
+        assertEquals(20, progress.remainingRecords());
+        assertEquals(3, metricValue(metrics, "snapshot-partitions"));
+
+        progress.update(PARTITION0, 4, 5, 500);
+        assertEquals(15, progress.remainingRecords());
+        // 100 bytes per record
+        assertEquals(1500, metricValue(metrics, "snapshot-bytes-remaining"));
+        progress.maybeLogProgress();
+
+        progress.update(PARTITION0, 9, 5, 500);
+        assertEquals(2, progress.completedPartitions());
+        assertFalse(progress.isComplete());
+
+        // The partition is assigned again after a rebalance
+        progress.addPartition(PARTITION1, 20, 15);
+        assertEquals(4, progress.remainingRecords());
+        assertEquals(2, progress.completedPartitions());
+
+        progress.update(PARTITION1, 19, 4, 400);
+        assertTrue(progress.isComplete());
+        assertEquals(0, progress.remainingRecords());
+        assertEquals(3, metricValue(metrics, "snapshot-partitions-completed"));
+        assertEquals(0, metricValue(metrics, "snapshot-eta-ms"));
+        metrics.close();
+    }
+
+    @Test
+    public void largeSnapshot() {
+        Metrics metrics = new Metrics();
+        SnapshotProgress progress = new SnapshotProgress(0, metrics, TAGS);
+        progress.addPartition(PARTITION0, 1_100_000_000L, -1);
+        // 10 GB in 100 million records
+        progress.update(PARTITION0, 99_999_999L, 100_000_000, 10_000_000_000L);
+        assertEquals(1_000_000_000L, progress.remainingRecords());
+        assertEquals(100_000_000_000L, metricValue(metrics, "snapshot-bytes-remaining"));
+        assertTrue(metricValue(metrics, "snapshot-eta-ms") >= 0);
+        metrics.close();
+    }
+}
@@ -0,0 +1,86 @@
+package de.azapps.kafkabackup.source;
+
+import de.azapps.kafkabackup.common.BackupConfig;
+import de.azapps.kafkabackup.common.TestUtils;
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackupSourceConnectorTest {
+    private static final Path TEMP_DIR = TestUtils.getTestDir("BackupSourceConnectorTest");
+
+    private static Map<String, String> props() throws Exception {
+        createPartitions("topic-a", 3);
+        createPartitions("topic-b", 2);
+        Map<String, String> props = new HashMap<>();
+        props.put("source.dir", TEMP_DIR.toString());
+        props.put("topics", "topic-a,topic-b");
+        props.put(BackupConfig.CLUSTER_BOOTSTRAP_SERVERS, "localhost:9092");
+        props.put(BackupConfig.CLUSTER_PREFIX + "key.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+        props.put(BackupConfig.CLUSTER_PREFIX + "value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+        props.put(BackupConfig.KEY_CONVERTER, BackupConfig.MANDATORY_CONVERTER);
+        props.put(BackupConfig.VALUE_CONVERTER, BackupConfig.MANDATORY_CONVERTER);
+        props.put(BackupConfig.HEADER_CONVERTER, BackupConfig.MANDATORY_CONVERTER);
+        return props;
+    }
+
+    private static void createPartitions(String topic, int partitions) throws Exception {
+        for (int partition = 0; partition < partitions; partition++) {
+            new PartitionWriter(topic, partition, TEMP_DIR.resolve(topic), 1000).close();
+        }
+    }
+
+    @Test
+    public void taskConfigs() throws Exception {
+        Map<String, String> props = props();
+        BackupSourceConnector connector = new BackupSourceConnector();
+        connector.start(props);
+
+        List<Map<String, String>> taskConfigs = connector.taskConfigs(2);
+        assertEquals(2, taskConfigs.size());
+        List<TopicPartition> partitions0 = new BackupSourceConfig(taskConfigs.get(0)).taskPartitions().get();
+        List<TopicPartition> partitions1 = new BackupSourceConfig(taskConfigs.get(1)).taskPartitions().get();
+        assertEquals(Arrays.asList(new TopicPartition("topic-a", 0), new TopicPartition("topic-a", 2), new TopicPartition("topic-b", 1)), partitions0);
+        assertEquals(Arrays.asList(new TopicPartition("topic-a", 1), new TopicPartition("topic-b", 0)), partitions1);
+        assertEquals("0", taskConfigs.get(0).get(BackupSourceConfig.TASK_ID));
+        assertEquals("1", taskConfigs.get(1).get(BackupSourceConfig.TASK_ID));
+        // The connector config is not changed
+        assertFalse(props.containsKey(BackupSourceConfig.TASK_PARTITIONS));
+
+        // Every partition is restored by exactly one task. No task without partitions
+        taskConfigs = connector.taskConfigs(10);
+        assertEquals(5, taskConfigs.size());
+        Set<TopicPartition> assigned = new HashSet<>();
+        for (Map<String, String> taskConfig : taskConfigs) {
+            List<TopicPartition> partitions = new BackupSourceConfig(taskConfig).taskPartitions().get();
+            assertEquals(1, partitions.size());
+            assigned.addAll(partitions);
+        }
+        assertEquals(5, assigned.size());
+    }
+
+    @Test
+    public void taskPartitionsRoundtrip() throws Exception {
+        Map<String, String> props = props();
+        // Without an assignment the task restores all partitions
+        assertFalse(new BackupSourceConfig(props).taskPartitions().isPresent());
+
+        List<TopicPartition> partitions = Arrays.asList(new TopicPartition("topic.with.dots", 10), new TopicPartition("topic-b", 0));
+        props.put(BackupSourceConfig.TASK_PARTITIONS, BackupSourceConfig.formatTaskPartitions(partitions));
+        assertEquals(partitions, new BackupSourceConfig(props).taskPartitions().get());
+
+        props.put(BackupSourceConfig.TASK_PARTITIONS, BackupSourceConfig.formatTaskPartitions(new ArrayList<>()));
+        assertTrue(new BackupSourceConfig(props).taskPartitions().get().isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+package de.azapps.kafkabackup.source;
+
+import de.azapps.kafkabackup.common.TestUtils;
+import de.azapps.kafkabackup.common.partition.PartitionReader;
+import de.azapps.kafkabackup.common.partition.PartitionWriter;
+import de.azapps.kafkabackup.common.record.Record;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionPrefetcherTest {
+    private static final Path TEMP_DIR = TestUtils.getTestDir("PartitionPrefetcherTest");
+    private static final String TOPIC = "test-topic";
+    private static final int PARTITIONS = 3;
+    private static final int RECORDS = 100;
+
+    private static SourceRecord toSourceRecord(Record record) {
+        return new SourceRecord(Collections.emptyMap(), Collections.singletonMap("Offset", record.kafkaOffset()),
+                record.topic(), record.kafkaPartition(), Schema.OPTIONAL_BYTES_SCHEMA, record.key(),
+                Schema.OPTIONAL_BYTES_SCHEMA, record.value());
+    }
+
+    private static void writePartitions(Path topicDir) throws Exception {
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            PartitionWriter partitionWriter = new PartitionWriter(TOPIC, partition, topicDir, 500);
+            for (int offset = 0; offset < RECORDS; offset++) {
+                partitionWriter.append(new Record(TOPIC, partition, new byte[4], new byte[6], offset));
+            }
+            partitionWriter.close();
+        }
+    }
+
+    @Test
+    public void readsAllPartitionsInOrder() throws Exception {
+        Path topicDir = TEMP_DIR.resolve("in-order");
+        writePartitions(topicDir);
+        // Two batches of 3 records fit in the buffer
+        PartitionPrefetcher prefetcher = new PartitionPrefetcher(2, 60, 30, PartitionPrefetcherTest::toSourceRecord);
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            prefetcher.addPartition(new TopicPartition(TOPIC, partition), new PartitionReader(TOPIC, partition, topicDir), null);
+        }
+
+        Map<Integer, List<Long>> offsets = new HashMap<>();
+        while (!prefetcher.isFinished()) {
+            for (SourceRecord record : prefetcher.poll()) {
+                offsets.computeIfAbsent(record.kafkaPartition(), p -> new ArrayList<>()).add((Long) record.sourceOffset().get("Offset"));
+            }
+        }
+        assertTrue(prefetcher.poll().isEmpty());
+        prefetcher.close();
+
+        assertEquals(PARTITIONS, offsets.size());
+        for (List<Long> partitionOffsets : offsets.values()) {
+            assertEquals(RECORDS, partitionOffsets.size());
+            for (int i = 0; i < RECORDS; i++) {
+                assertEquals(i, (long) partitionOffsets.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void failureIsThrownByPoll() throws Exception {
+        Path topicDir = TEMP_DIR.resolve("failure");
+        writePartitions(topicDir);
+        PartitionPrefetcher prefetcher = new PartitionPrefetcher(1, 1000, 30, record -> {
+            throw new IllegalStateException("conversion failed");
+        });
+        prefetcher.addPartition(new TopicPartition(TOPIC, 0), new PartitionReader(TOPIC, 0, topicDir), null);
+        PartitionPrefetcher.PrefetchException e = assertThrows(PartitionPrefetcher.PrefetchException.class, () -> {
+            while (true) {
+                prefetcher.poll();
+            }
+        });
+        assertEquals("conversion failed", e.getCause().getMessage());
+        prefetcher.close();
+    }
+}
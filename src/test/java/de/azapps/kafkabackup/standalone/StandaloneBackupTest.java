@@ -0,0 +1,117 @@
+package de.azapps.kafkabackup.standalone;
+
+import de.azapps.kafkabackup.common.TestUtils;
+import de.azapps.kafkabackup.common.partition.PartitionReader;
+import de.azapps.kafkabackup.common.record.Record;
+import de.azapps.kafkabackup.sink.MockOffsetSink;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StandaloneBackupTest {
+    private static final String TOPIC = "test-topic";
+    private static final byte[] KEY_BYTES = "test-key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VALUE_BYTES = "test-value".getBytes(StandardCharsets.UTF_8);
+    private static final Path TEMP_DIR = TestUtils.getTestDir("StandaloneBackupTest");
+
+    private static StandaloneBackupConfig config(Path directory) {
+        Map<String, String> props = new HashMap<>();
+        props.put(StandaloneBackupConfig.CLUSTER_BOOTSTRAP_SERVERS, "");
+        props.put(StandaloneBackupConfig.TARGET_DIR_CONFIG, directory.toString());
+        props.put(StandaloneBackupConfig.TOPICS_CONFIG, TOPIC);
+        props.put(StandaloneBackupConfig.MAX_SEGMENT_SIZE, String.valueOf(1024));
+        props.put(StandaloneBackupConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return new StandaloneBackupConfig(props);
+    }
+
+    private static StandaloneBackup start(StandaloneBackupConfig config, MockConsumer<byte[], byte[]> consumer, List<TopicPartition> partitions) throws Exception {
+        StandaloneBackup backup = new StandaloneBackup(config, consumer, new MockOffsetSink(null, Paths.get(config.targetDir())));
+        backup.subscribe();
+        // The MockConsumer does not call the rebalance listener
+        consumer.rebalance(partitions);
+        backup.onPartitionsAssigned(partitions);
+        return backup;
+    }
+
+    @Test
+    public void backupAndResume() throws Exception {
+        Path directory = Paths.get(TEMP_DIR.toString(), "backupAndResume");
+        StandaloneBackupConfig config = config(directory);
+        TopicPartition tp0 = new TopicPartition(TOPIC, 0);
+        TopicPartition tp1 = new TopicPartition(TOPIC, 1);
+        List<TopicPartition> partitions = Arrays.asList(tp0, tp1);
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("header", VALUE_BYTES);
+
+        List<Record> expected0 = new ArrayList<>();
+        List<Record> expected1 = new ArrayList<>();
+        List<ConsumerRecord<byte[], byte[]>> consumerRecords = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            consumerRecords.add(new ConsumerRecord<>(TOPIC, 0, i, 1000L + i, TimestampType.CREATE_TIME, 0L,
+                    KEY_BYTES.length, VALUE_BYTES.length, KEY_BYTES, VALUE_BYTES, headers));
+            expected0.add(new Record(TOPIC, 0, KEY_BYTES, VALUE_BYTES, i, 1000L + i, TimestampType.CREATE_TIME, headers));
+        }
+        for (int i = 0; i < 50; i++) {
+            consumerRecords.add(new ConsumerRecord<>(TOPIC, 1, 10 + 2 * i, -1L, TimestampType.CREATE_TIME, 0L,
+                    -1, -1, null, null, new RecordHeaders()));
+            expected1.add(new Record(TOPIC, 1, null, null, 10 + 2 * i, null, TimestampType.CREATE_TIME));
+        }
+
+        MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        Map<TopicPartition, Long> beginningOffsets = new HashMap<>();
+        beginningOffsets.put(tp0, 0L);
+        beginningOffsets.put(tp1, 10L);
+        consumer.updateBeginningOffsets(beginningOffsets);
+        StandaloneBackup backup = start(config, consumer, partitions);
+        for (ConsumerRecord<byte[], byte[]> consumerRecord : consumerRecords.subList(0, 100)) {
+            consumer.addRecord(consumerRecord);
+        }
+        backup.pollOnce();
+        for (ConsumerRecord<byte[], byte[]> consumerRecord : consumerRecords.subList(200, 250)) {
+            consumer.addRecord(consumerRecord);
+        }
+        backup.pollOnce();
+        // Offsets are committed after the records are written
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Collections.singleton(tp0));
+        assertEquals(100L, committed.get(tp0).offset());
+        backup.close();
+
+        // A new backup continues after the last written record even without committed offsets
+        MockConsumer<byte[], byte[]> consumer2 = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer2.updateBeginningOffsets(beginningOffsets);
+        StandaloneBackup backup2 = start(config, consumer2, partitions);
+        assertEquals(100L, consumer2.position(tp0));
+        assertEquals(109L, consumer2.position(tp1));
+        for (ConsumerRecord<byte[], byte[]> consumerRecord : consumerRecords.subList(100, 200)) {
+            consumer2.addRecord(consumerRecord);
+        }
+        backup2.pollOnce();
+        backup2.close();
+
+        PartitionReader partitionReader0 = new PartitionReader(TOPIC, 0, Paths.get(directory.toString(), TOPIC));
+        assertEquals(expected0, partitionReader0.readFully());
+        partitionReader0.close();
+        PartitionReader partitionReader1 = new PartitionReader(TOPIC, 1, Paths.get(directory.toString(), TOPIC));
+        assertEquals(expected1, partitionReader1.readFully());
+        partitionReader1.seek(50);
+        assertEquals(expected1.get(20), partitionReader1.read());
+        partitionReader1.close();
+    }
+}